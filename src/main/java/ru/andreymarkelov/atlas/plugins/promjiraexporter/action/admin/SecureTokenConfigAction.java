@@ -1,32 +1,105 @@
 package ru.andreymarkelov.atlas.plugins.promjiraexporter.action.admin;
 
+import java.net.InetAddress;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.UnknownHostException;
 import java.util.Date;
+import java.util.Set;
+import java.util.regex.Pattern;
 
 import com.atlassian.jira.permission.GlobalPermissionKey;
 import com.atlassian.jira.security.GlobalPermissionManager;
 import com.atlassian.jira.security.xsrf.RequiresXsrfCheck;
 import com.atlassian.jira.user.ApplicationUser;
+import com.atlassian.jira.user.util.UserManager;
 import com.atlassian.jira.web.action.JiraWebActionSupport;
+import ru.andreymarkelov.atlas.plugins.promjiraexporter.service.JvmMetricCollector;
+import ru.andreymarkelov.atlas.plugins.promjiraexporter.service.MetricFamilies;
+import ru.andreymarkelov.atlas.plugins.promjiraexporter.service.PushExporter;
+import ru.andreymarkelov.atlas.plugins.promjiraexporter.service.PushSettingsManager;
+import ru.andreymarkelov.atlas.plugins.promjiraexporter.service.RequestSamplingRules;
+import ru.andreymarkelov.atlas.plugins.promjiraexporter.service.RollupStore;
 import ru.andreymarkelov.atlas.plugins.promjiraexporter.service.ScheduledMetricEvaluator;
+import ru.andreymarkelov.atlas.plugins.promjiraexporter.service.ScrapingSettingsManager;
+import ru.andreymarkelov.atlas.plugins.promjiraexporter.service.SearchCanary;
 import ru.andreymarkelov.atlas.plugins.promjiraexporter.service.SecureTokenManager;
+import ru.andreymarkelov.atlas.plugins.promjiraexporter.service.StandaloneMetricsServer;
+import ru.andreymarkelov.atlas.plugins.promjiraexporter.service.ThreadContentionSampler;
+import ru.andreymarkelov.atlas.plugins.promjiraexporter.util.CanaryQueryParser;
+import ru.andreymarkelov.atlas.plugins.promjiraexporter.util.NameListParser;
+import ru.andreymarkelov.atlas.plugins.promjiraexporter.util.RequestRuleParser;
+
+import static org.apache.commons.lang3.StringUtils.isBlank;
 
 public class SecureTokenConfigAction extends JiraWebActionSupport {
+    private static final Pattern METRIC_NAME = Pattern.compile("[a-z_:][a-z0-9_:]*");
+
     private final SecureTokenManager secureTokenManager;
     private final GlobalPermissionManager globalPermissionManager;
     private final ScheduledMetricEvaluator scheduledMetricEvaluator;
+    private final ScrapingSettingsManager scrapingSettingsManager;
+    private final PushSettingsManager pushSettingsManager;
+    private final PushExporter pushExporter;
+    private final StandaloneMetricsServer standaloneMetricsServer;
+    private final RequestSamplingRules requestSamplingRules;
+    private final ThreadContentionSampler threadContentionSampler;
+    private final JvmMetricCollector jvmMetricCollector;
+    private final RollupStore rollupStore;
+    private final MetricFamilies metricFamilies;
+    private final SearchCanary searchCanary;
+    private final UserManager userManager;
 
     private boolean saved = false;
     private String token;
     private int delay;
+    private int maxCaches;
+    private int maxProjects;
+    private int listenerPort;
+    private String listenerAddress;
+    private String requestRules;
+    private int resourceSampleRate;
+    private int threadSampleInterval;
+    private String disabledJvmCollectors;
+    private String rollupSeries;
+    private String disabledMetricFamilies;
+    private String canaryQueries;
+    private String canaryUser;
+    private int canaryInterval;
+    private String pushMode;
+    private String pushUrl;
+    private int pushInterval;
     private String lastExecutionTimestamp;
 
     public SecureTokenConfigAction(
             SecureTokenManager secureTokenManager,
             ScheduledMetricEvaluator scheduledMetricEvaluator,
+            ScrapingSettingsManager scrapingSettingsManager,
+            PushSettingsManager pushSettingsManager,
+            PushExporter pushExporter,
+            StandaloneMetricsServer standaloneMetricsServer,
+            RequestSamplingRules requestSamplingRules,
+            ThreadContentionSampler threadContentionSampler,
+            JvmMetricCollector jvmMetricCollector,
+            RollupStore rollupStore,
+            MetricFamilies metricFamilies,
+            SearchCanary searchCanary,
+            UserManager userManager,
             GlobalPermissionManager globalPermissionManager) {
         this.secureTokenManager = secureTokenManager;
         this.globalPermissionManager = globalPermissionManager;
         this.scheduledMetricEvaluator = scheduledMetricEvaluator;
+        this.scrapingSettingsManager = scrapingSettingsManager;
+        this.pushSettingsManager = pushSettingsManager;
+        this.pushExporter = pushExporter;
+        this.standaloneMetricsServer = standaloneMetricsServer;
+        this.requestSamplingRules = requestSamplingRules;
+        this.threadContentionSampler = threadContentionSampler;
+        this.jvmMetricCollector = jvmMetricCollector;
+        this.rollupStore = rollupStore;
+        this.metricFamilies = metricFamilies;
+        this.searchCanary = searchCanary;
+        this.userManager = userManager;
     }
 
     @Override
@@ -37,6 +110,22 @@ public class SecureTokenConfigAction extends JiraWebActionSupport {
 
         token = secureTokenManager.getToken();
         delay = scheduledMetricEvaluator.getDelay();
+        maxCaches = scrapingSettingsManager.getMaxCaches();
+        maxProjects = scrapingSettingsManager.getMaxProjects();
+        listenerPort = scrapingSettingsManager.getListenerPort();
+        listenerAddress = scrapingSettingsManager.getListenerAddress();
+        requestRules = scrapingSettingsManager.getRequestRules();
+        resourceSampleRate = scrapingSettingsManager.getResourceSampleRate();
+        threadSampleInterval = scrapingSettingsManager.getThreadSampleInterval();
+        disabledJvmCollectors = scrapingSettingsManager.getDisabledJvmCollectors();
+        rollupSeries = scrapingSettingsManager.getRollupSeries();
+        disabledMetricFamilies = scrapingSettingsManager.getDisabledMetricFamilies();
+        canaryQueries = scrapingSettingsManager.getCanaryQueries();
+        canaryUser = scrapingSettingsManager.getCanaryUser();
+        canaryInterval = scrapingSettingsManager.getCanaryInterval();
+        pushMode = pushSettingsManager.getMode();
+        pushUrl = pushSettingsManager.getUrl();
+        pushInterval = pushSettingsManager.getInterval();
 
         long temp = scheduledMetricEvaluator.getLastExecutionTimestamp();
         if (temp > 0) {
@@ -53,6 +142,74 @@ public class SecureTokenConfigAction extends JiraWebActionSupport {
         if (delay < 0) {
             addError("delay", getText("ru.andreymarkelov.atlas.plugins.promjiraexporter.action.error.invalid.delay"));
         }
+        if (maxCaches < 0) {
+            addError("maxCaches", getText("ru.andreymarkelov.atlas.plugins.promjiraexporter.action.error.invalid.maxcaches"));
+        }
+        if (maxProjects < 0) {
+            addError("maxProjects", getText("ru.andreymarkelov.atlas.plugins.promjiraexporter.action.error.invalid.maxprojects"));
+        }
+        if (listenerPort < 0 || listenerPort > 65535) {
+            addError("listenerPort", getText("ru.andreymarkelov.atlas.plugins.promjiraexporter.action.error.invalid.listenerport"));
+        }
+        if (!isValidAddress(listenerAddress)) {
+            addError("listenerAddress", getText("ru.andreymarkelov.atlas.plugins.promjiraexporter.action.error.invalid.listeneraddress"));
+        }
+        try {
+            RequestRuleParser.parse(requestRules);
+        } catch (IllegalArgumentException e) {
+            addError("requestRules", getText("ru.andreymarkelov.atlas.plugins.promjiraexporter.action.error.invalid.requestrules"));
+        }
+        if (resourceSampleRate < 0) {
+            addError("resourceSampleRate", getText("ru.andreymarkelov.atlas.plugins.promjiraexporter.action.error.invalid.resourcesamplerate"));
+        }
+        if (threadSampleInterval < 0) {
+            addError("threadSampleInterval", getText("ru.andreymarkelov.atlas.plugins.promjiraexporter.action.error.invalid.threadsampleinterval"));
+        }
+        if (!JvmMetricCollector.COLLECTORS.containsAll(NameListParser.parse(disabledJvmCollectors))) {
+            addError("disabledJvmCollectors", getText(
+                    "ru.andreymarkelov.atlas.plugins.promjiraexporter.action.error.invalid.disabledjvmcollectors",
+                    String.join(", ", JvmMetricCollector.COLLECTORS)));
+        }
+        Set<String> series = NameListParser.parse(rollupSeries);
+        if (series.size() > RollupStore.MAX_SERIES || !series.stream().allMatch(name -> METRIC_NAME.matcher(name).matches())) {
+            addError("rollupSeries", getText(
+                    "ru.andreymarkelov.atlas.plugins.promjiraexporter.action.error.invalid.rollupseries",
+                    String.valueOf(RollupStore.MAX_SERIES)));
+        }
+        if (!MetricFamilies.FAMILIES.containsAll(NameListParser.parse(disabledMetricFamilies))) {
+            addError("disabledMetricFamilies", getText(
+                    "ru.andreymarkelov.atlas.plugins.promjiraexporter.action.error.invalid.disabledmetricfamilies",
+                    String.join(", ", MetricFamilies.FAMILIES)));
+        }
+        try {
+            if (CanaryQueryParser.parse(canaryQueries).size() > SearchCanary.MAX_QUERIES) {
+                addError("canaryQueries", getText(
+                        "ru.andreymarkelov.atlas.plugins.promjiraexporter.action.error.invalid.canaryqueries.count",
+                        String.valueOf(SearchCanary.MAX_QUERIES)));
+            }
+        } catch (IllegalArgumentException e) {
+            addError("canaryQueries", getText("ru.andreymarkelov.atlas.plugins.promjiraexporter.action.error.invalid.canaryqueries"));
+        }
+        if (canaryInterval < 0) {
+            addError("canaryInterval", getText("ru.andreymarkelov.atlas.plugins.promjiraexporter.action.error.invalid.canaryinterval"));
+        } else if (canaryInterval > 0 && userManager.getUserByName(canaryUser) == null) {
+            addError("canaryUser", getText("ru.andreymarkelov.atlas.plugins.promjiraexporter.action.error.invalid.canaryuser"));
+        }
+        if (!PushSettingsManager.MODE_OFF.equals(pushMode)
+                && !PushSettingsManager.MODE_REMOTE_WRITE.equals(pushMode)
+                && !PushSettingsManager.MODE_PUSHGATEWAY.equals(pushMode)) {
+            pushMode = PushSettingsManager.MODE_OFF;
+        }
+        if (!PushSettingsManager.MODE_OFF.equals(pushMode)) {
+            if (pushInterval <= 0) {
+                addError("pushInterval", getText("ru.andreymarkelov.atlas.plugins.promjiraexporter.action.error.invalid.pushinterval"));
+            }
+            try {
+                new URL(pushUrl);
+            } catch (MalformedURLException e) {
+                addError("pushUrl", getText("ru.andreymarkelov.atlas.plugins.promjiraexporter.action.error.invalid.pushurl"));
+            }
+        }
     }
 
     @Override
@@ -65,11 +222,50 @@ public class SecureTokenConfigAction extends JiraWebActionSupport {
         secureTokenManager.setToken(token);
         scheduledMetricEvaluator.setDelay(delay);
         scheduledMetricEvaluator.restartScraping(delay);
+        scrapingSettingsManager.setMaxCaches(maxCaches);
+        scrapingSettingsManager.setMaxProjects(maxProjects);
+        if (scrapingSettingsManager.getListenerPort() != listenerPort
+                || !scrapingSettingsManager.getListenerAddress().equals(listenerAddress.trim())) {
+            scrapingSettingsManager.setListenerPort(listenerPort);
+            scrapingSettingsManager.setListenerAddress(listenerAddress.trim());
+            standaloneMetricsServer.restartServer();
+        }
+        scrapingSettingsManager.setRequestRules(requestRules);
+        scrapingSettingsManager.setResourceSampleRate(resourceSampleRate);
+        scrapingSettingsManager.setThreadSampleInterval(threadSampleInterval);
+        threadContentionSampler.restartSampling();
+        scrapingSettingsManager.setDisabledJvmCollectors(String.join(",", NameListParser.parse(disabledJvmCollectors)));
+        jvmMetricCollector.reloadSettings();
+        scrapingSettingsManager.setRollupSeries(String.join(",", NameListParser.parse(rollupSeries)));
+        rollupStore.reloadSettings();
+        scrapingSettingsManager.setDisabledMetricFamilies(String.join(",", NameListParser.parse(disabledMetricFamilies)));
+        metricFamilies.reloadSettings();
+        scrapingSettingsManager.setCanaryQueries(canaryQueries);
+        scrapingSettingsManager.setCanaryUser(canaryUser);
+        scrapingSettingsManager.setCanaryInterval(canaryInterval);
+        searchCanary.restartCanary();
+        requestSamplingRules.reloadRules();
+        pushSettingsManager.setMode(pushMode);
+        pushSettingsManager.setUrl(pushUrl);
+        pushSettingsManager.setInterval(pushInterval);
+        pushExporter.restartPushing();
         setSaved(true);
 
         return getRedirect("PromForJiraSecureTokenConfigAction!default.jspa?saved=true");
     }
 
+    private static boolean isValidAddress(String address) {
+        if (isBlank(address)) {
+            return false;
+        }
+        try {
+            InetAddress.getByName(address.trim());
+            return true;
+        } catch (UnknownHostException e) {
+            return false;
+        }
+    }
+
     public boolean hasAdminPermission() {
         ApplicationUser user = getLoggedInUser();
         if (user == null) {
@@ -94,6 +290,134 @@ public class SecureTokenConfigAction extends JiraWebActionSupport {
         this.delay = delay;
     }
 
+    public int getMaxCaches() {
+        return maxCaches;
+    }
+
+    public void setMaxCaches(int maxCaches) {
+        this.maxCaches = maxCaches;
+    }
+
+    public int getMaxProjects() {
+        return maxProjects;
+    }
+
+    public void setMaxProjects(int maxProjects) {
+        this.maxProjects = maxProjects;
+    }
+
+    public int getListenerPort() {
+        return listenerPort;
+    }
+
+    public void setListenerPort(int listenerPort) {
+        this.listenerPort = listenerPort;
+    }
+
+    public String getListenerAddress() {
+        return listenerAddress;
+    }
+
+    public void setListenerAddress(String listenerAddress) {
+        this.listenerAddress = listenerAddress;
+    }
+
+    public String getRequestRules() {
+        return requestRules;
+    }
+
+    public void setRequestRules(String requestRules) {
+        this.requestRules = requestRules;
+    }
+
+    public int getResourceSampleRate() {
+        return resourceSampleRate;
+    }
+
+    public void setResourceSampleRate(int resourceSampleRate) {
+        this.resourceSampleRate = resourceSampleRate;
+    }
+
+    public int getThreadSampleInterval() {
+        return threadSampleInterval;
+    }
+
+    public void setThreadSampleInterval(int threadSampleInterval) {
+        this.threadSampleInterval = threadSampleInterval;
+    }
+
+    public String getDisabledJvmCollectors() {
+        return disabledJvmCollectors;
+    }
+
+    public void setDisabledJvmCollectors(String disabledJvmCollectors) {
+        this.disabledJvmCollectors = disabledJvmCollectors;
+    }
+
+    public String getRollupSeries() {
+        return rollupSeries;
+    }
+
+    public void setRollupSeries(String rollupSeries) {
+        this.rollupSeries = rollupSeries;
+    }
+
+    public String getDisabledMetricFamilies() {
+        return disabledMetricFamilies;
+    }
+
+    public void setDisabledMetricFamilies(String disabledMetricFamilies) {
+        this.disabledMetricFamilies = disabledMetricFamilies;
+    }
+
+    public String getCanaryQueries() {
+        return canaryQueries;
+    }
+
+    public void setCanaryQueries(String canaryQueries) {
+        this.canaryQueries = canaryQueries;
+    }
+
+    public String getCanaryUser() {
+        return canaryUser;
+    }
+
+    public void setCanaryUser(String canaryUser) {
+        this.canaryUser = canaryUser;
+    }
+
+    public int getCanaryInterval() {
+        return canaryInterval;
+    }
+
+    public void setCanaryInterval(int canaryInterval) {
+        this.canaryInterval = canaryInterval;
+    }
+
+    public String getPushMode() {
+        return pushMode;
+    }
+
+    public void setPushMode(String pushMode) {
+        this.pushMode = pushMode;
+    }
+
+    public String getPushUrl() {
+        return pushUrl;
+    }
+
+    public void setPushUrl(String pushUrl) {
+        this.pushUrl = pushUrl;
+    }
+
+    public int getPushInterval() {
+        return pushInterval;
+    }
+
+    public void setPushInterval(int pushInterval) {
+        this.pushInterval = pushInterval;
+    }
+
     public String getLastExecutionTimestamp() {
         return lastExecutionTimestamp;
     }
@@ -1,5 +1,16 @@
 package ru.andreymarkelov.atlas.plugins.promjiraexporter.listener;
 
+import com.atlassian.crowd.embedded.api.Directory;
+import com.atlassian.crowd.event.DirectoryEvent;
+import com.atlassian.crowd.event.directory.RemoteDirectorySynchronisationFailedEvent;
+import com.atlassian.crowd.event.directory.RemoteDirectorySynchronisedEvent;
+import com.atlassian.crowd.event.group.GroupCreatedEvent;
+import com.atlassian.crowd.event.group.GroupDeletedEvent;
+import com.atlassian.crowd.event.group.GroupUpdatedEvent;
+import com.atlassian.crowd.event.user.UserCreatedEvent;
+import com.atlassian.crowd.event.user.UserDeletedEvent;
+import com.atlassian.crowd.event.user.UserEditedEvent;
+import com.atlassian.crowd.event.user.UserRenamedEvent;
 import com.atlassian.event.api.EventListener;
 import com.atlassian.event.api.EventPublisher;
 import com.atlassian.jira.event.DashboardViewEvent;
@@ -11,33 +22,90 @@ import com.atlassian.jira.event.user.LoginEvent;
 import com.atlassian.jira.event.user.LogoutEvent;
 import com.atlassian.jira.issue.Issue;
 import com.atlassian.jira.issue.IssueManager;
+import com.atlassian.jira.issue.index.ReindexAllCompletedEvent;
+import com.atlassian.jira.issue.index.ReindexAllStartedEvent;
 import com.atlassian.jira.security.JiraAuthenticationContext;
 import com.atlassian.jira.user.ApplicationUser;
 import com.atlassian.plugin.event.events.PluginDisabledEvent;
 import com.atlassian.plugin.event.events.PluginEnabledEvent;
 import com.atlassian.plugin.event.events.PluginUninstalledEvent;
+import org.ofbiz.core.entity.GenericValue;
 import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.InitializingBean;
+import ru.andreymarkelov.atlas.plugins.promjiraexporter.service.ActiveUserTracker;
+import ru.andreymarkelov.atlas.plugins.promjiraexporter.service.DataCenterHealthCollector;
+import ru.andreymarkelov.atlas.plugins.promjiraexporter.service.DirectorySyncCollector;
+import ru.andreymarkelov.atlas.plugins.promjiraexporter.service.HeavyHitterTracker;
+import ru.andreymarkelov.atlas.plugins.promjiraexporter.service.IndexingMetricCollector;
 import ru.andreymarkelov.atlas.plugins.promjiraexporter.service.MetricCollector;
+import ru.andreymarkelov.atlas.plugins.promjiraexporter.service.MetricFamilies;
+import ru.andreymarkelov.atlas.plugins.promjiraexporter.service.ProjectEntityCollector;
+import ru.andreymarkelov.atlas.plugins.promjiraexporter.service.StatusDurationTracker;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import static ru.andreymarkelov.atlas.plugins.promjiraexporter.service.HeavyHitterTracker.Activity.DASHBOARD_VIEW;
+import static ru.andreymarkelov.atlas.plugins.promjiraexporter.service.HeavyHitterTracker.Activity.ISSUE_UPDATE;
+import static ru.andreymarkelov.atlas.plugins.promjiraexporter.service.HeavyHitterTracker.Activity.ISSUE_VIEW;
+import static ru.andreymarkelov.atlas.plugins.promjiraexporter.service.HeavyHitterTracker.Activity.LOGIN;
+import static ru.andreymarkelov.atlas.plugins.promjiraexporter.service.MetricFamilies.CLUSTER;
+import static ru.andreymarkelov.atlas.plugins.promjiraexporter.service.MetricFamilies.DIRECTORY_SYNC;
+import static ru.andreymarkelov.atlas.plugins.promjiraexporter.service.MetricFamilies.DISTINCT_USERS;
+import static ru.andreymarkelov.atlas.plugins.promjiraexporter.service.MetricFamilies.EVENTS;
+import static ru.andreymarkelov.atlas.plugins.promjiraexporter.service.MetricFamilies.HEAVY_HITTERS;
+import static ru.andreymarkelov.atlas.plugins.promjiraexporter.service.MetricFamilies.INDEXING;
+import static ru.andreymarkelov.atlas.plugins.promjiraexporter.service.MetricFamilies.PROJECT_ENTITIES;
+import static ru.andreymarkelov.atlas.plugins.promjiraexporter.service.MetricFamilies.STATUS_DURATIONS;
 
 public class MetricListener implements InitializingBean, DisposableBean {
+    private static final String CACHE_REPLICATION_RESUMED_EVENT = "CacheReplicationResumedEvent";
+    private static final String CACHE_REPLICATION_STOPPED_EVENT = "CacheReplicationStoppedEvent";
+
     private final EventPublisher eventPublisher;
     private final IssueManager issueManager;
     private final EventTypeManager eventTypeManager;
     private final JiraAuthenticationContext jiraAuthenticationContext;
     private final MetricCollector metricCollector;
+    private final HeavyHitterTracker heavyHitterTracker;
+    private final ActiveUserTracker activeUserTracker;
+    private final StatusDurationTracker statusDurationTracker;
+    private final IndexingMetricCollector indexingMetricCollector;
+    private final DataCenterHealthCollector dataCenterHealthCollector;
+    private final DirectorySyncCollector directorySyncCollector;
+    private final ProjectEntityCollector projectEntityCollector;
+    private final MetricFamilies metricFamilies;
+    private final ConcurrentMap<String, EventKind> eventKinds;
 
     public MetricListener(
             EventPublisher eventPublisher,
             IssueManager issueManager,
             EventTypeManager eventTypeManager,
             JiraAuthenticationContext jiraAuthenticationContext,
-            MetricCollector metricCollector) {
+            MetricCollector metricCollector,
+            HeavyHitterTracker heavyHitterTracker,
+            ActiveUserTracker activeUserTracker,
+            StatusDurationTracker statusDurationTracker,
+            IndexingMetricCollector indexingMetricCollector,
+            DataCenterHealthCollector dataCenterHealthCollector,
+            DirectorySyncCollector directorySyncCollector,
+            ProjectEntityCollector projectEntityCollector,
+            MetricFamilies metricFamilies) {
         this.eventPublisher = eventPublisher;
         this.issueManager = issueManager;
         this.eventTypeManager = eventTypeManager;
         this.jiraAuthenticationContext = jiraAuthenticationContext;
         this.metricCollector = metricCollector;
+        this.heavyHitterTracker = heavyHitterTracker;
+        this.activeUserTracker = activeUserTracker;
+        this.statusDurationTracker = statusDurationTracker;
+        this.indexingMetricCollector = indexingMetricCollector;
+        this.dataCenterHealthCollector = dataCenterHealthCollector;
+        this.directorySyncCollector = directorySyncCollector;
+        this.projectEntityCollector = projectEntityCollector;
+        this.metricFamilies = metricFamilies;
+        this.eventKinds = new ConcurrentHashMap<>();
     }
 
     @Override
@@ -53,76 +121,305 @@ public class MetricListener implements InitializingBean, DisposableBean {
     @EventListener
     public void onIssueEvent(IssueEvent issueEvent) {
         Issue issue = issueEvent.getIssue();
-        if (issue != null) {
-            String eventType = "";
-            try {
-                eventType = eventTypeManager.getEventType(issueEvent.getEventTypeId()).getName();
-            } catch (IllegalArgumentException e) {
+        if (issue == null) {
+            return;
+        }
+
+        boolean events = metricFamilies.isEnabled(EVENTS);
+        boolean heavyHitters = metricFamilies.isEnabled(HEAVY_HITTERS);
+        boolean distinctUsers = metricFamilies.isEnabled(DISTINCT_USERS);
+        if (events || heavyHitters || distinctUsers) {
+            String projectKey = issue.getProjectObject().getKey();
+            String username = getCurrentUser();
+            if (events) {
+                String eventType = "";
+                try {
+                    eventType = eventTypeManager.getEventType(issueEvent.getEventTypeId()).getName();
+                } catch (IllegalArgumentException e) {
+                }
+                metricCollector.issueUpdateCounter(projectKey, eventType, username);
             }
-            eventTypeManager.getEventType(issueEvent.getEventTypeId());
-            metricCollector.issueUpdateCounter(issue.getProjectObject().getKey(), eventType, getCurrentUser());
+            if (heavyHitters) {
+                heavyHitterTracker.userActivity(ISSUE_UPDATE, username);
+                heavyHitterTracker.projectActivity(ISSUE_UPDATE, projectKey);
+            }
+            if (distinctUsers) {
+                activeUserTracker.userActive(username);
+            }
+        }
+        if (metricFamilies.isEnabled(STATUS_DURATIONS)) {
+            GenericValue changeLog = issueEvent.getChangeLog();
+            statusDurationTracker.issueUpdated(issue, (changeLog != null) ? changeLog.getTimestamp("created") : null);
+        }
+        if (metricFamilies.isEnabled(PROJECT_ENTITIES)) {
+            projectEntityCollector.issueEvent(issue.getProjectId(), issueEvent.getEventTypeId());
         }
     }
 
     @EventListener
     public void onDashboardViewEvent(DashboardViewEvent dashboardViewEvent) {
-        metricCollector.dashboardViewCounter(dashboardViewEvent.getId(), getCurrentUser());
+        String username = getCurrentUser();
+        if (metricFamilies.isEnabled(EVENTS)) {
+            metricCollector.dashboardViewCounter(dashboardViewEvent.getId(), username);
+        }
+        if (metricFamilies.isEnabled(HEAVY_HITTERS)) {
+            heavyHitterTracker.userActivity(DASHBOARD_VIEW, username);
+            heavyHitterTracker.dashboardView(dashboardViewEvent.getId());
+        }
+        if (metricFamilies.isEnabled(DISTINCT_USERS)) {
+            activeUserTracker.userActive(username);
+        }
     }
 
     @EventListener
     public void onIssueViewEvent(IssueViewEvent issueViewEvent) {
+        boolean events = metricFamilies.isEnabled(EVENTS);
+        boolean heavyHitters = metricFamilies.isEnabled(HEAVY_HITTERS);
+        boolean distinctUsers = metricFamilies.isEnabled(DISTINCT_USERS);
+        if (!events && !heavyHitters && !distinctUsers) {
+            return;
+        }
+
         Issue issue = issueManager.getIssueObject(issueViewEvent.getId());
         if (issue != null) {
-            metricCollector.issueViewCounter(issue.getProjectObject().getKey(), getCurrentUser());
+            String projectKey = issue.getProjectObject().getKey();
+            String username = getCurrentUser();
+            if (events) {
+                metricCollector.issueViewCounter(projectKey, username);
+            }
+            if (heavyHitters) {
+                heavyHitterTracker.userActivity(ISSUE_VIEW, username);
+                heavyHitterTracker.projectActivity(ISSUE_VIEW, projectKey);
+            }
+            if (distinctUsers) {
+                activeUserTracker.userActive(username);
+            }
         }
     }
 
     @EventListener
     public void onLoginEvent(LoginEvent loginEvent) {
         ApplicationUser applicationUser = loginEvent.getUser();
-        metricCollector.userLoginCounter((applicationUser != null) ? applicationUser.getUsername() : "");
+        String username = (applicationUser != null) ? applicationUser.getUsername() : "";
+        if (metricFamilies.isEnabled(EVENTS)) {
+            metricCollector.userLoginCounter(username);
+        }
+        if (metricFamilies.isEnabled(HEAVY_HITTERS)) {
+            heavyHitterTracker.userActivity(LOGIN, username);
+        }
+        if (metricFamilies.isEnabled(DISTINCT_USERS)) {
+            activeUserTracker.userActive(username);
+        }
     }
 
     @EventListener
     public void onLogoutEvent(LogoutEvent logoutEvent) {
-        ApplicationUser applicationUser = logoutEvent.getUser();
-        metricCollector.userLogoutCounter((applicationUser != null) ? applicationUser.getUsername() : "");
+        if (metricFamilies.isEnabled(EVENTS)) {
+            ApplicationUser applicationUser = logoutEvent.getUser();
+            metricCollector.userLogoutCounter((applicationUser != null) ? applicationUser.getUsername() : "");
+        }
+    }
+
+    @EventListener
+    public void onReindexAllStartedEvent(ReindexAllStartedEvent reindexAllStartedEvent) {
+        if (metricFamilies.isEnabled(INDEXING)) {
+            indexingMetricCollector.reindexStarted(reindexAllStartedEvent.isUsingBackgroundIndexing());
+        }
+    }
+
+    @EventListener
+    public void onReindexAllCompletedEvent(ReindexAllCompletedEvent reindexAllCompletedEvent) {
+        if (metricFamilies.isEnabled(INDEXING)) {
+            indexingMetricCollector.reindexCompleted(reindexAllCompletedEvent.isUsingBackgroundIndexing(), reindexAllCompletedEvent.getTotalTime());
+        }
     }
 
     @EventListener
     public void onPluginEnabledEvent(PluginEnabledEvent pluginEnabledEvent) {
-        metricCollector.pluginEnabledCounter(pluginEnabledEvent.getPlugin().getKey());
+        if (metricFamilies.isEnabled(EVENTS)) {
+            metricCollector.pluginEnabledCounter(pluginEnabledEvent.getPlugin().getKey());
+        }
     }
 
     @EventListener
     public void onPluginDisabledEvent(PluginDisabledEvent pluginDisabledEvent) {
-        metricCollector.pluginDisabledCounter(pluginDisabledEvent.getPlugin().getKey());
+        if (metricFamilies.isEnabled(EVENTS)) {
+            metricCollector.pluginDisabledCounter(pluginDisabledEvent.getPlugin().getKey());
+        }
     }
 
     @EventListener
     public void onPluginUninstalledEvent(PluginUninstalledEvent pluginUninstalledEvent) {
-        metricCollector.pluginUninstalledCounter(pluginUninstalledEvent.getPlugin().getKey());
+        if (metricFamilies.isEnabled(EVENTS)) {
+            metricCollector.pluginUninstalledCounter(pluginUninstalledEvent.getPlugin().getKey());
+        }
     }
 
     //--> Cluster events
 
     // since 7.3.1
+    @EventListener
     public void onHeartbeatEvent(HeartbeatEvent heartbeatEvent) {
-        metricCollector.clusterHeartbeatCounter();
+        if (metricFamilies.isEnabled(CLUSTER)) {
+            metricCollector.clusterHeartbeatCounter();
+        }
     }
 
-    // TODO since 7.7.1
-//    public void onCacheReplicationResumedEvent(CacheReplicationResumedEvent cacheReplicationResumedEvent) {
-//        metricCollector.clusterCacheReplicationResumedCounter(cacheReplicationResumedEvent.getNodeId());
-//    }
-//
-//    public void onCacheReplicationStoppedEvent(CacheReplicationStoppedEvent cacheReplicationStoppedEvent) {
-//        metricCollector.clusterCacheReplicationStoppedCounter(cacheReplicationStoppedEvent.getNodeId());
-//    }
+    /**
+     * Cache replication events are not in the API of every supported version, so they are matched by class name.
+     * The kind of every event class is resolved once and cached by name, so event classes of uninstalled plugins
+     * are not kept. Getters are only kept for replication events, which are core classes.
+     */
+    @EventListener
+    public void onEvent(Object event) {
+        Class<?> eventClass = event.getClass();
+        EventKind kind = eventKinds.computeIfAbsent(eventClass.getName(), name -> EventKind.of(eventClass));
+        if (kind.type != EventType.OTHER) {
+            onCacheReplicationEvent(event, kind);
+        }
+    }
+
+    private void onCacheReplicationEvent(Object event, EventKind kind) {
+        String nodeId;
+        try {
+            nodeId = (String) EventKind.invoke(kind.keyGetters, event);
+        } catch (Exception ex) {
+            return;
+        }
+        boolean resumed = (kind.type == EventType.CACHE_REPLICATION_RESUMED);
+        if (metricFamilies.isEnabled(CLUSTER)) {
+            if (resumed) {
+                metricCollector.clusterCacheReplicationResumedCounter(nodeId);
+            } else {
+                metricCollector.clusterCacheReplicationStoppedCounter(nodeId);
+            }
+        }
+        // replication state is always tracked, it is only known from events
+        if (resumed) {
+            dataCenterHealthCollector.cacheReplicationResumed(nodeId);
+        } else {
+            dataCenterHealthCollector.cacheReplicationStopped(nodeId);
+        }
+    }
 
     //<-- Cluster metrics
 
+    //--> Directory synchronisation metrics
+
+    @EventListener
+    public void onRemoteDirectorySynchronisedEvent(RemoteDirectorySynchronisedEvent event) {
+        if (metricFamilies.isEnabled(DIRECTORY_SYNC) && event.getRemoteDirectory() != null) {
+            directorySyncCollector.synchronisationFinished(event.getRemoteDirectory().getDirectoryId(), true);
+        }
+    }
+
+    @EventListener
+    public void onRemoteDirectorySynchronisationFailedEvent(RemoteDirectorySynchronisationFailedEvent event) {
+        if (metricFamilies.isEnabled(DIRECTORY_SYNC) && event.getRemoteDirectory() != null) {
+            directorySyncCollector.synchronisationFinished(event.getRemoteDirectory().getDirectoryId(), false);
+        }
+    }
+
+    @EventListener
+    public void onUserCreatedEvent(UserCreatedEvent event) {
+        onEntityChanged(event, DirectorySyncCollector.USERS);
+    }
+
+    @EventListener
+    public void onUserEditedEvent(UserEditedEvent event) {
+        onEntityChanged(event, DirectorySyncCollector.USERS);
+    }
+
+    @EventListener
+    public void onUserRenamedEvent(UserRenamedEvent event) {
+        onEntityChanged(event, DirectorySyncCollector.USERS);
+    }
+
+    @EventListener
+    public void onUserDeletedEvent(UserDeletedEvent event) {
+        onEntityChanged(event, DirectorySyncCollector.USERS);
+    }
+
+    @EventListener
+    public void onGroupCreatedEvent(GroupCreatedEvent event) {
+        onEntityChanged(event, DirectorySyncCollector.GROUPS);
+    }
+
+    @EventListener
+    public void onGroupUpdatedEvent(GroupUpdatedEvent event) {
+        onEntityChanged(event, DirectorySyncCollector.GROUPS);
+    }
+
+    @EventListener
+    public void onGroupDeletedEvent(GroupDeletedEvent event) {
+        onEntityChanged(event, DirectorySyncCollector.GROUPS);
+    }
+
+    private void onEntityChanged(DirectoryEvent event, String type) {
+        Directory directory = event.getDirectory();
+        if (metricFamilies.isEnabled(DIRECTORY_SYNC) && directory != null && directory.getId() != null) {
+            directorySyncCollector.entityChanged(directory.getId(), type);
+        }
+    }
+
+    //<-- Directory synchronisation metrics
+
     private String getCurrentUser() {
         return jiraAuthenticationContext.isLoggedInUser() ? jiraAuthenticationContext.getLoggedInUser().getName() : "";
     }
+
+    private enum EventType {
+        OTHER,
+        CACHE_REPLICATION_RESUMED,
+        CACHE_REPLICATION_STOPPED
+    }
+
+    private static class EventKind {
+        private static final EventKind OTHER = new EventKind(EventType.OTHER, null);
+
+        private final EventType type;
+        private final Method[] keyGetters;
+
+        private EventKind(EventType type, Method[] keyGetters) {
+            this.type = type;
+            this.keyGetters = keyGetters;
+        }
+
+        private static EventKind of(Class<?> eventClass) {
+            String name = eventClass.getSimpleName();
+            if (CACHE_REPLICATION_RESUMED_EVENT.equals(name) || CACHE_REPLICATION_STOPPED_EVENT.equals(name)) {
+                Method[] getters = getters(eventClass, "getNodeId");
+                if (getters == null || getters[0].getReturnType() != String.class) {
+                    return OTHER;
+                }
+                return new EventKind(CACHE_REPLICATION_RESUMED_EVENT.equals(name)
+                        ? EventType.CACHE_REPLICATION_RESUMED : EventType.CACHE_REPLICATION_STOPPED, getters);
+            }
+            return OTHER;
+        }
+
+        private static Method[] getters(Class<?> type, String... names) {
+            Method[] getters = new Method[names.length];
+            for (int i = 0; i < names.length; i++) {
+                try {
+                    getters[i] = type.getMethod(names[i]);
+                } catch (NoSuchMethodException e) {
+                    return null;
+                }
+                type = getters[i].getReturnType();
+            }
+            return getters;
+        }
+
+        private static Object invoke(Method[] getters, Object target) throws ReflectiveOperationException {
+            Object value = target;
+            for (Method getter : getters) {
+                if (value == null) {
+                    return null;
+                }
+                value = getter.invoke(value);
+            }
+            return value;
+        }
+    }
 }
@@ -0,0 +1,11 @@
+package ru.andreymarkelov.atlas.plugins.promjiraexporter.service;
+
+import io.prometheus.client.Collector;
+
+import java.util.List;
+
+public interface ActiveUserTracker {
+    void userActive(String username);
+
+    List<Collector.MetricFamilySamples> collect();
+}
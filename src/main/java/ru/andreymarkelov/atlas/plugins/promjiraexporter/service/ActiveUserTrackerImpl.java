@@ -0,0 +1,223 @@
+package ru.andreymarkelov.atlas.plugins.promjiraexporter.service;
+
+import com.atlassian.jira.config.util.JiraHome;
+import io.prometheus.client.Collector;
+import io.prometheus.client.GaugeMetricFamily;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import ru.andreymarkelov.atlas.plugins.promjiraexporter.util.HyperLogLog;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import static java.lang.Thread.MIN_PRIORITY;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.util.Collections.singletonList;
+import static java.util.concurrent.Executors.defaultThreadFactory;
+import static java.util.concurrent.Executors.newSingleThreadScheduledExecutor;
+import static org.apache.commons.lang3.StringUtils.isBlank;
+
+/**
+ * Counts distinct active users over sliding windows. Every window is a ring of HyperLogLog sub-sketches,
+ * one per time bucket plus one, and the estimate is taken from the union of the buckets overlapping the window,
+ * so it covers the whole window and at most one bucket more, never less.
+ * With 512 registers (about 4.6% standard error) the 26 sub-sketches take 13 KB.
+ * Sketches are saved in the local home, so restarts keep the history. Buckets are rotated by offers and estimates,
+ * there is no background rotation, and periodic saving stops while the family is disabled.
+ */
+public class ActiveUserTrackerImpl implements ActiveUserTracker, InitializingBean, DisposableBean {
+    private static final Logger log = LoggerFactory.getLogger(ActiveUserTrackerImpl.class);
+
+    private static final int PRECISION = 9;
+    private static final int FILE_VERSION = 2;
+    private static final long SAVE_DELAY_MINUTES = 10;
+
+    private final File storeFile;
+    private final List<SlidingWindow> windows;
+    private final MetricFamilies metricFamilies;
+
+    private final ThreadFactory threadFactory;
+    private final ScheduledExecutorService executorService;
+
+    public ActiveUserTrackerImpl(JiraHome jiraHome, MetricFamilies metricFamilies) {
+        this.metricFamilies = metricFamilies;
+        this.storeFile = new File(jiraHome.getLocalHome(), "caches/prometheus-exporter/distinct-users.bin");
+        this.windows = new ArrayList<>();
+        this.windows.add(new SlidingWindow("1h", TimeUnit.MINUTES.toMillis(15), 4));
+        this.windows.add(new SlidingWindow("24h", TimeUnit.HOURS.toMillis(2), 12));
+        this.windows.add(new SlidingWindow("7d", TimeUnit.DAYS.toMillis(1), 7));
+
+        this.threadFactory = defaultThreadFactory();
+        this.executorService = newSingleThreadScheduledExecutor(r -> {
+            Thread thread = threadFactory.newThread(r);
+            thread.setPriority(MIN_PRIORITY);
+            return thread;
+        });
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        load();
+        executorService.scheduleWithFixedDelay(this::saveIfEnabled, SAVE_DELAY_MINUTES, SAVE_DELAY_MINUTES, TimeUnit.MINUTES);
+    }
+
+    @Override
+    public void destroy() {
+        executorService.shutdownNow();
+        save();
+    }
+
+    @Override
+    public void userActive(String username) {
+        if (isBlank(username)) {
+            return;
+        }
+
+        long hash = HyperLogLog.hash(username.toLowerCase(Locale.ROOT));
+        long now = System.currentTimeMillis();
+        for (SlidingWindow window : windows) {
+            window.offer(hash, now);
+        }
+    }
+
+    @Override
+    public List<Collector.MetricFamilySamples> collect() {
+        GaugeMetricFamily distinctUsers = new GaugeMetricFamily(
+                "jira_distinct_active_users",
+                "Distinct Active Users Over Window",
+                singletonList("window"));
+        long now = System.currentTimeMillis();
+        for (SlidingWindow window : windows) {
+            distinctUsers.addMetric(singletonList(window.label), Math.round(window.estimate(now)));
+        }
+
+        List<Collector.MetricFamilySamples> result = new ArrayList<>();
+        result.add(distinctUsers);
+        return result;
+    }
+
+    private synchronized void load() {
+        if (!storeFile.isFile()) {
+            return;
+        }
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(storeFile.toPath())))) {
+            if (in.readInt() != FILE_VERSION || in.readInt() != PRECISION || in.readInt() != windows.size()) {
+                log.warn("Ignore distinct users sketches with unknown layout: {}", storeFile);
+                return;
+            }
+            for (SlidingWindow window : windows) {
+                window.read(in);
+            }
+        } catch (IOException ex) {
+            log.error("Failed to load distinct users sketches.", ex);
+        }
+    }
+
+    private void saveIfEnabled() {
+        if (metricFamilies.isEnabled(MetricFamilies.DISTINCT_USERS)) {
+            save();
+        }
+    }
+
+    private synchronized void save() {
+        try {
+            File directory = storeFile.getParentFile();
+            if (!directory.isDirectory() && !directory.mkdirs()) {
+                throw new IOException("Unable to create directory " + directory);
+            }
+
+            File tempFile = new File(directory, storeFile.getName() + ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile.toPath())))) {
+                out.writeInt(FILE_VERSION);
+                out.writeInt(PRECISION);
+                out.writeInt(windows.size());
+                for (SlidingWindow window : windows) {
+                    window.write(out);
+                }
+            }
+            Files.move(tempFile.toPath(), storeFile.toPath(), REPLACE_EXISTING, ATOMIC_MOVE);
+        } catch (IOException ex) {
+            log.error("Failed to save distinct users sketches.", ex);
+        }
+    }
+
+    static class SlidingWindow {
+        private final String label;
+        private final long bucketMillis;
+        private final int size;
+        private final HyperLogLog[] buckets;
+        private final long[] slots;
+
+        /**
+         * The current bucket is partial, so one more bucket is kept for the part of the window before it.
+         */
+        SlidingWindow(String label, long bucketMillis, int size) {
+            this.label = label;
+            this.bucketMillis = bucketMillis;
+            this.size = size;
+            this.buckets = new HyperLogLog[size + 1];
+            this.slots = new long[size + 1];
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] = new HyperLogLog(PRECISION);
+                slots[i] = -1;
+            }
+        }
+
+        void offer(long hash, long now) {
+            long slot = now / bucketMillis;
+            int index = (int) (slot % buckets.length);
+            if (slots[index] != slot) {
+                rotate(index, slot);
+            }
+            buckets[index].offer(hash);
+        }
+
+        private synchronized void rotate(int index, long slot) {
+            if (slots[index] != slot) {
+                buckets[index].clear();
+                slots[index] = slot;
+            }
+        }
+
+        double estimate(long now) {
+            // the bucket which contains the window start
+            long oldestSlot = (now - size * bucketMillis) / bucketMillis;
+            byte[] union = new byte[1 << PRECISION];
+            for (int i = 0; i < buckets.length; i++) {
+                if (slots[i] >= oldestSlot) {
+                    buckets[i].mergeInto(union);
+                }
+            }
+            return HyperLogLog.estimate(union);
+        }
+
+        private synchronized void read(DataInputStream in) throws IOException {
+            for (int i = 0; i < buckets.length; i++) {
+                slots[i] = in.readLong();
+                in.readFully(buckets[i].getRegisters());
+            }
+        }
+
+        private synchronized void write(DataOutputStream out) throws IOException {
+            for (int i = 0; i < buckets.length; i++) {
+                out.writeLong(slots[i]);
+                out.write(buckets[i].getRegisters());
+            }
+        }
+    }
+}
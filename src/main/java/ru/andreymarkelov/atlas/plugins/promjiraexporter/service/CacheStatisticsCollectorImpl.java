@@ -0,0 +1,178 @@
+package ru.andreymarkelov.atlas.plugins.promjiraexporter.service;
+
+import com.atlassian.cache.CacheManager;
+import com.atlassian.cache.CacheStatisticsKey;
+import com.atlassian.cache.ManagedCache;
+import com.atlassian.jira.cluster.ClusterManager;
+import com.google.common.base.Supplier;
+import io.prometheus.client.Collector;
+import io.prometheus.client.CounterMetricFamily;
+import io.prometheus.client.GaugeMetricFamily;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import static java.lang.Thread.MIN_PRIORITY;
+import static java.util.Collections.emptyList;
+import static java.util.Collections.singletonList;
+import static java.util.concurrent.Executors.defaultThreadFactory;
+import static java.util.concurrent.Executors.newSingleThreadScheduledExecutor;
+
+/**
+ * Reads atlassian-cache statistics in background, scrapes are served from the latest snapshot.
+ */
+public class CacheStatisticsCollectorImpl implements CacheStatisticsCollector, InitializingBean, DisposableBean {
+    private static final Logger log = LoggerFactory.getLogger(CacheStatisticsCollectorImpl.class);
+
+    private static final long REFRESH_DELAY_SECONDS = 60;
+
+    private final CacheManager cacheManager;
+    private final ClusterManager clusterManager;
+    private final ScrapingSettingsManager scrapingSettingsManager;
+    private final MetricFamilies metricFamilies;
+
+    private volatile List<Collector.MetricFamilySamples> snapshot = emptyList();
+
+    private final ThreadFactory threadFactory;
+    private final ScheduledExecutorService executorService;
+
+    public CacheStatisticsCollectorImpl(
+            CacheManager cacheManager,
+            ClusterManager clusterManager,
+            ScrapingSettingsManager scrapingSettingsManager,
+            MetricFamilies metricFamilies) {
+        this.cacheManager = cacheManager;
+        this.clusterManager = clusterManager;
+        this.scrapingSettingsManager = scrapingSettingsManager;
+        this.metricFamilies = metricFamilies;
+
+        this.threadFactory = defaultThreadFactory();
+        this.executorService = newSingleThreadScheduledExecutor(r -> {
+            Thread thread = threadFactory.newThread(r);
+            thread.setPriority(MIN_PRIORITY);
+            return thread;
+        });
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        executorService.scheduleWithFixedDelay(this::refresh, 0, REFRESH_DELAY_SECONDS, TimeUnit.SECONDS);
+    }
+
+    @Override
+    public void destroy() {
+        executorService.shutdownNow();
+    }
+
+    @Override
+    public List<Collector.MetricFamilySamples> collect() {
+        return snapshot;
+    }
+
+    private void refresh() {
+        if (!metricFamilies.isEnabled(MetricFamilies.CACHES)) {
+            return;
+        }
+
+        try {
+            snapshot = readStatistics();
+        } catch (Exception ex) {
+            log.error("Failed to read cache statistics.", ex);
+        }
+    }
+
+    private List<Collector.MetricFamilySamples> readStatistics() {
+        int maxCaches = scrapingSettingsManager.getMaxCaches();
+        if (maxCaches <= 0) {
+            return emptyList();
+        }
+
+        List<CacheStatistics> caches = new ArrayList<>();
+        for (ManagedCache managedCache : cacheManager.getManagedCaches()) {
+            caches.add(new CacheStatistics(managedCache));
+        }
+        // keep the most requested caches
+        Collections.sort(caches, (first, second) -> Long.compare(second.requests(), first.requests()));
+        if (caches.size() > maxCaches) {
+            caches = caches.subList(0, maxCaches);
+        }
+
+        CounterMetricFamily hits = cacheCounter("jira_cache_hits_total", "Cache Hits Total");
+        CounterMetricFamily misses = cacheCounter("jira_cache_misses_total", "Cache Misses Total");
+        CounterMetricFamily evictions = cacheCounter("jira_cache_evictions_total", "Cache Evictions Total");
+        GaugeMetricFamily size = new GaugeMetricFamily("jira_cache_size_gauge", "Cache Size Gauge", singletonList("cache"));
+        CounterMetricFamily loads = cacheCounter("jira_cache_loads_total", "Cache Loads Total");
+        CounterMetricFamily loadTime = cacheCounter("jira_cache_load_time_total", "Cache Total Load Time");
+        CounterMetricFamily removals = cacheCounter(
+                "jira_cluster_cache_replication_removals_total",
+                "Cluster Cache Removals Total, including removals replicated from other nodes");
+
+        boolean clustered = clusterManager.isClustered();
+        for (CacheStatistics cache : caches) {
+            cache.addTo(hits, CacheStatisticsKey.HIT_COUNT);
+            cache.addTo(misses, CacheStatisticsKey.MISS_COUNT);
+            cache.addTo(evictions, CacheStatisticsKey.EVICTION_COUNT);
+            cache.addTo(size, CacheStatisticsKey.SIZE);
+            cache.addTo(loads, CacheStatisticsKey.LOAD_COUNT);
+            cache.addTo(loadTime, CacheStatisticsKey.TOTAL_LOAD_TIME);
+            if (clustered && !cache.local) {
+                cache.addTo(removals, CacheStatisticsKey.REMOVE_COUNT);
+            }
+        }
+
+        List<Collector.MetricFamilySamples> result = new ArrayList<>();
+        result.add(hits);
+        result.add(misses);
+        result.add(evictions);
+        result.add(size);
+        result.add(loads);
+        result.add(loadTime);
+        if (clustered) {
+            result.add(removals);
+        }
+        return result;
+    }
+
+    private static CounterMetricFamily cacheCounter(String name, String help) {
+        return new CounterMetricFamily(name, help, singletonList("cache"));
+    }
+
+    private static class CacheStatistics {
+        private static final List<String> LABEL_NAMES = singletonList("cache");
+
+        private final String name;
+        private final boolean local;
+        private final Map<CacheStatisticsKey, Supplier<Long>> statistics;
+
+        private CacheStatistics(ManagedCache managedCache) {
+            this.name = managedCache.getName();
+            this.local = managedCache.isLocal();
+            this.statistics = managedCache.getStatistics();
+        }
+
+        private long requests() {
+            return get(CacheStatisticsKey.HIT_COUNT) + get(CacheStatisticsKey.MISS_COUNT);
+        }
+
+        private long get(CacheStatisticsKey key) {
+            Supplier<Long> supplier = statistics.get(key);
+            Long value = (supplier != null) ? supplier.get() : null;
+            return (value != null) ? value : 0;
+        }
+
+        private void addTo(Collector.MetricFamilySamples family, CacheStatisticsKey key) {
+            if (statistics.containsKey(key)) {
+                family.samples.add(new Collector.MetricFamilySamples.Sample(family.name, LABEL_NAMES, singletonList(name), get(key)));
+            }
+        }
+    }
+}
@@ -0,0 +1,11 @@
+package ru.andreymarkelov.atlas.plugins.promjiraexporter.service;
+
+import io.prometheus.client.Collector;
+
+import java.util.List;
+
+public interface DataCenterHealthCollector {
+    void cacheReplicationResumed(String nodeId);
+    void cacheReplicationStopped(String nodeId);
+    List<Collector.MetricFamilySamples> collect();
+}
@@ -0,0 +1,239 @@
+package ru.andreymarkelov.atlas.plugins.promjiraexporter.service;
+
+import com.atlassian.jira.cluster.ClusterManager;
+import com.atlassian.jira.cluster.Node;
+import com.atlassian.jira.config.util.JiraHome;
+import com.atlassian.jira.ofbiz.OfBizDelegator;
+import io.prometheus.client.Collector;
+import io.prometheus.client.GaugeMetricFamily;
+import org.ofbiz.core.entity.GenericValue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static java.lang.Thread.MIN_PRIORITY;
+import static java.util.Collections.emptyList;
+import static java.util.Collections.singletonList;
+import static java.util.concurrent.Executors.defaultThreadFactory;
+import static java.util.concurrent.Executors.newSingleThreadScheduledExecutor;
+
+/**
+ * Data Center health in background: heartbeat age of every node, clock skew between the node and the database
+ * from the heartbeat table, cache replication state and the size of the local cache replication queue on disk.
+ */
+public class DataCenterHealthCollectorImpl implements DataCenterHealthCollector, InitializingBean, DisposableBean {
+    private static final Logger log = LoggerFactory.getLogger(DataCenterHealthCollectorImpl.class);
+
+    private static final long REFRESH_DELAY_SECONDS = 30;
+    private static final String HEARTBEAT_ENTITY = "ClusterNodeHeartbeat";
+    private static final String LOCAL_QUEUE_DIRECTORY = "localq";
+    private static final String UNKNOWN_NODE = "unknown";
+
+    /**
+     * Local queues are stored in directories like {@code queue_<destination node>_<queue index>_<hash>}.
+     */
+    private static final Pattern QUEUE_DIRECTORY = Pattern.compile("queue_(.+)_\\d+_[^_]+");
+
+    private final ClusterManager clusterManager;
+    private final OfBizDelegator ofBizDelegator;
+    private final JiraHome jiraHome;
+    private final MetricFamilies metricFamilies;
+
+    private final ConcurrentMap<String, Boolean> cacheReplication;
+    private volatile Snapshot snapshot;
+
+    private final ThreadFactory threadFactory;
+    private final ScheduledExecutorService executorService;
+
+    public DataCenterHealthCollectorImpl(
+            ClusterManager clusterManager,
+            OfBizDelegator ofBizDelegator,
+            JiraHome jiraHome,
+            MetricFamilies metricFamilies) {
+        this.clusterManager = clusterManager;
+        this.ofBizDelegator = ofBizDelegator;
+        this.jiraHome = jiraHome;
+        this.metricFamilies = metricFamilies;
+        this.cacheReplication = new ConcurrentHashMap<>();
+
+        this.threadFactory = defaultThreadFactory();
+        this.executorService = newSingleThreadScheduledExecutor(r -> {
+            Thread thread = threadFactory.newThread(r);
+            thread.setPriority(MIN_PRIORITY);
+            return thread;
+        });
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        executorService.scheduleWithFixedDelay(this::refresh, 0, REFRESH_DELAY_SECONDS, TimeUnit.SECONDS);
+    }
+
+    @Override
+    public void destroy() {
+        executorService.shutdownNow();
+    }
+
+    @Override
+    public void cacheReplicationResumed(String nodeId) {
+        if (nodeId != null) {
+            cacheReplication.put(nodeId, true);
+        }
+    }
+
+    @Override
+    public void cacheReplicationStopped(String nodeId) {
+        if (nodeId != null) {
+            cacheReplication.put(nodeId, false);
+        }
+    }
+
+    private void refresh() {
+        if (!metricFamilies.isEnabled(MetricFamilies.DATA_CENTER)) {
+            return;
+        }
+
+        if (!clusterManager.isClustered()) {
+            snapshot = null;
+            return;
+        }
+
+        try {
+            long now = System.currentTimeMillis();
+            Snapshot current = new Snapshot();
+
+            Set<String> liveNodes = new HashSet<>();
+            for (Node node : clusterManager.findLiveNodes()) {
+                liveNodes.add(node.getNodeId());
+            }
+            String localNodeId = clusterManager.getNodeId();
+            for (Node node : clusterManager.getAllNodes()) {
+                if (node.getTimestamp() != null) {
+                    current.heartbeatAge.put(node.getNodeId(), (now - node.getTimestamp()) / 1000.0);
+                }
+                if (!node.getNodeId().equals(localNodeId)) {
+                    // replication is considered running to live nodes until a stopped event says otherwise
+                    Boolean replicating = cacheReplication.get(node.getNodeId());
+                    current.cacheReplication.put(node.getNodeId(), (replicating != null) ? replicating : liveNodes.contains(node.getNodeId()));
+                }
+            }
+
+            for (GenericValue heartbeat : ofBizDelegator.findAll(HEARTBEAT_ENTITY)) {
+                Long heartbeatTime = heartbeat.getLong("heartbeatTime");
+                Long databaseTime = heartbeat.getLong("databaseTime");
+                if (heartbeatTime != null && databaseTime != null && databaseTime > 0) {
+                    current.clockSkew.put(heartbeat.getString("nodeId"), (heartbeatTime - databaseTime) / 1000.0);
+                }
+            }
+
+            scanLocalQueues(new File(jiraHome.getLocalHome(), LOCAL_QUEUE_DIRECTORY), current);
+            snapshot = current;
+        } catch (Exception ex) {
+            log.error("Failed to collect Data Center health.", ex);
+        }
+    }
+
+    private static void scanLocalQueues(File directory, Snapshot current) {
+        File[] queues = directory.listFiles(File::isDirectory);
+        if (queues == null) {
+            return;
+        }
+
+        for (File queue : queues) {
+            Matcher matcher = QUEUE_DIRECTORY.matcher(queue.getName());
+            String nodeId = matcher.matches() ? matcher.group(1) : UNKNOWN_NODE;
+            long[] usage = current.queueUsage.computeIfAbsent(nodeId, n -> new long[2]);
+            addDirectoryUsage(queue, usage);
+        }
+    }
+
+    private static void addDirectoryUsage(File directory, long[] usage) {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+
+        for (File file : files) {
+            if (file.isDirectory()) {
+                addDirectoryUsage(file, usage);
+            } else {
+                usage[0] += file.length();
+                usage[1]++;
+            }
+        }
+    }
+
+    @Override
+    public List<Collector.MetricFamilySamples> collect() {
+        Snapshot current = snapshot;
+        if (current == null) {
+            return emptyList();
+        }
+
+        GaugeMetricFamily heartbeatAge = new GaugeMetricFamily(
+                "jira_cluster_node_heartbeat_age_seconds_gauge",
+                "Cluster Node Heartbeat Age In Seconds Gauge",
+                singletonList("nodeId"));
+        GaugeMetricFamily clockSkew = new GaugeMetricFamily(
+                "jira_cluster_node_clock_skew_seconds_gauge",
+                "Cluster Node Clock Skew To Database In Seconds Gauge",
+                singletonList("nodeId"));
+        GaugeMetricFamily replication = new GaugeMetricFamily(
+                "jira_cluster_cache_replication_live_gauge",
+                "Cluster Cache Replication To Node Live Gauge",
+                singletonList("nodeId"));
+        GaugeMetricFamily queueBytes = new GaugeMetricFamily(
+                "jira_cluster_replication_queue_bytes_gauge",
+                "Local Cache Replication Queue Size In Bytes Gauge",
+                singletonList("nodeId"));
+        GaugeMetricFamily queueFiles = new GaugeMetricFamily(
+                "jira_cluster_replication_queue_files_gauge",
+                "Local Cache Replication Queue Files Gauge",
+                singletonList("nodeId"));
+
+        for (Map.Entry<String, Double> entry : current.heartbeatAge.entrySet()) {
+            heartbeatAge.addMetric(singletonList(entry.getKey()), entry.getValue());
+        }
+        for (Map.Entry<String, Double> entry : current.clockSkew.entrySet()) {
+            clockSkew.addMetric(singletonList(entry.getKey()), entry.getValue());
+        }
+        for (Map.Entry<String, Boolean> entry : current.cacheReplication.entrySet()) {
+            replication.addMetric(singletonList(entry.getKey()), entry.getValue() ? 1 : 0);
+        }
+        for (Map.Entry<String, long[]> entry : current.queueUsage.entrySet()) {
+            queueBytes.addMetric(singletonList(entry.getKey()), entry.getValue()[0]);
+            queueFiles.addMetric(singletonList(entry.getKey()), entry.getValue()[1]);
+        }
+
+        List<Collector.MetricFamilySamples> result = new ArrayList<>();
+        result.add(heartbeatAge);
+        result.add(clockSkew);
+        result.add(replication);
+        result.add(queueBytes);
+        result.add(queueFiles);
+        return result;
+    }
+
+    private static class Snapshot {
+        private final Map<String, Double> heartbeatAge = new TreeMap<>();
+        private final Map<String, Double> clockSkew = new TreeMap<>();
+        private final Map<String, Boolean> cacheReplication = new TreeMap<>();
+        private final Map<String, long[]> queueUsage = new TreeMap<>();
+    }
+}
@@ -0,0 +1,19 @@
+package ru.andreymarkelov.atlas.plugins.promjiraexporter.service;
+
+import io.prometheus.client.Collector;
+
+import java.util.List;
+
+public interface DirectorySyncCollector {
+    String USERS = "users";
+    String GROUPS = "groups";
+
+    void synchronisationFinished(long directoryId, boolean success);
+
+    /**
+     * @param type {@link #USERS} or {@link #GROUPS}
+     */
+    void entityChanged(long directoryId, String type);
+
+    List<Collector.MetricFamilySamples> collect();
+}
@@ -0,0 +1,179 @@
+package ru.andreymarkelov.atlas.plugins.promjiraexporter.service;
+
+import com.atlassian.crowd.embedded.api.CrowdDirectoryService;
+import com.atlassian.crowd.embedded.api.Directory;
+import com.atlassian.crowd.embedded.api.DirectorySynchronisationInformation;
+import com.atlassian.crowd.embedded.api.DirectorySynchronisationRoundInformation;
+import io.prometheus.client.Collector;
+import io.prometheus.client.Counter;
+import io.prometheus.client.Gauge;
+import io.prometheus.client.GaugeMetricFamily;
+import io.prometheus.client.Histogram;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.util.Collections.singletonList;
+
+/**
+ * Directory synchronisation metrics from the Crowd synchronisation finished and failed events. The round start
+ * and the running state come from the synchronisation information of the directory. User and group changes
+ * are only counted while a synchronisation of their directory is running, so changes made by administrators
+ * or on login between synchronisations are not counted. The running state is checked at most once a second.
+ */
+public class DirectorySyncCollectorImpl implements DirectorySyncCollector {
+    private static final long RUNNING_CHECK_MILLIS = 1000;
+
+    private final CrowdDirectoryService crowdDirectoryService;
+    private final ConcurrentMap<Long, SyncState> states;
+
+    private final Histogram syncDuration = Histogram.build()
+            .name("jira_directory_sync_duration_seconds")
+            .help("Directory Synchronisation Duration In Seconds")
+            .labelNames("directory", "result")
+            .buckets(1, 5, 15, 30, 60, 120, 300, 600, 1200, 3600)
+            .create();
+
+    private final Counter syncFailures = Counter.build()
+            .name("jira_directory_sync_failures_count")
+            .help("Directory Synchronisation Failures Count")
+            .labelNames("directory")
+            .create();
+
+    private final Counter syncChanges = Counter.build()
+            .name("jira_directory_sync_changes_count")
+            .help("Directory Synchronisation Changed Users And Groups Count")
+            .labelNames("directory", "type")
+            .create();
+
+    private final Gauge lastSyncChanges = Gauge.build()
+            .name("jira_directory_sync_last_changes_gauge")
+            .help("Last Directory Synchronisation Changed Users And Groups Gauge")
+            .labelNames("directory", "type")
+            .create();
+
+    public DirectorySyncCollectorImpl(CrowdDirectoryService crowdDirectoryService) {
+        this.crowdDirectoryService = crowdDirectoryService;
+        this.states = new ConcurrentHashMap<>();
+    }
+
+    @Override
+    public void synchronisationFinished(long directoryId, boolean success) {
+        SyncState state = getState(directoryId);
+        long now = System.currentTimeMillis();
+        state.synchronised = true;
+        state.runningCheckedAt = 0;
+
+        long startTime = roundStartTime(directoryId);
+        if (startTime > 0) {
+            syncDuration.labels(state.name, success ? "success" : "failure").observe(Math.max(0, now - startTime) / 1000.0);
+        }
+        if (success) {
+            state.lastSuccess = now;
+        } else {
+            syncFailures.labels(state.name).inc();
+        }
+
+        int users = state.users.getAndSet(0);
+        int groups = state.groups.getAndSet(0);
+        syncChanges.labels(state.name, USERS).inc(users);
+        syncChanges.labels(state.name, GROUPS).inc(groups);
+        lastSyncChanges.labels(state.name, USERS).set(users);
+        lastSyncChanges.labels(state.name, GROUPS).set(groups);
+    }
+
+    @Override
+    public void entityChanged(long directoryId, String type) {
+        SyncState state = getState(directoryId);
+        if (!isRunning(directoryId, state)) {
+            return;
+        }
+        if (USERS.equals(type)) {
+            state.users.incrementAndGet();
+        } else if (GROUPS.equals(type)) {
+            state.groups.incrementAndGet();
+        }
+    }
+
+    private boolean isRunning(long directoryId, SyncState state) {
+        long now = System.currentTimeMillis();
+        if (now - state.runningCheckedAt >= RUNNING_CHECK_MILLIS) {
+            state.running = crowdDirectoryService.isDirectorySynchronising(directoryId);
+            state.runningCheckedAt = now;
+        }
+        return state.running;
+    }
+
+    /**
+     * The finishing round is still active or already the last one, depending on when the event is published.
+     */
+    private long roundStartTime(long directoryId) {
+        DirectorySynchronisationInformation information = crowdDirectoryService.getDirectorySynchronisationInformation(directoryId);
+        if (information == null) {
+            return 0;
+        }
+        DirectorySynchronisationRoundInformation round = (information.getActiveRound() != null)
+                ? information.getActiveRound() : information.getLastRound();
+        return (round != null) ? round.getStartTime() : 0;
+    }
+
+    @Override
+    public List<Collector.MetricFamilySamples> collect() {
+        GaugeMetricFamily lastSuccessAge = new GaugeMetricFamily(
+                "jira_directory_sync_last_success_age_seconds_gauge",
+                "Time Since Last Successful Directory Synchronisation In Seconds Gauge",
+                singletonList("directory"));
+        GaugeMetricFamily running = new GaugeMetricFamily(
+                "jira_directory_sync_running_gauge",
+                "Directory Synchronisation Running Gauge",
+                singletonList("directory"));
+        long now = System.currentTimeMillis();
+        for (Map.Entry<Long, SyncState> entry : states.entrySet()) {
+            SyncState state = entry.getValue();
+            if (!state.synchronised) {
+                // internal directories only collect changes
+                continue;
+            }
+            if (state.lastSuccess > 0) {
+                lastSuccessAge.addMetric(singletonList(state.name), (now - state.lastSuccess) / 1000.0);
+            }
+            running.addMetric(singletonList(state.name), crowdDirectoryService.isDirectorySynchronising(entry.getKey()) ? 1 : 0);
+        }
+
+        List<Collector.MetricFamilySamples> result = new ArrayList<>();
+        result.addAll(syncDuration.collect());
+        result.addAll(syncFailures.collect());
+        result.addAll(syncChanges.collect());
+        result.addAll(lastSyncChanges.collect());
+        result.add(lastSuccessAge);
+        result.add(running);
+        return result;
+    }
+
+    private SyncState getState(long directoryId) {
+        return states.computeIfAbsent(directoryId, id -> new SyncState(getDirectoryName(id)));
+    }
+
+    private String getDirectoryName(long directoryId) {
+        Directory directory = crowdDirectoryService.findDirectoryById(directoryId);
+        return (directory != null && directory.getName() != null) ? directory.getName() : String.valueOf(directoryId);
+    }
+
+    private static class SyncState {
+        private final String name;
+        private final AtomicInteger users = new AtomicInteger();
+        private final AtomicInteger groups = new AtomicInteger();
+        private volatile boolean synchronised;
+        private volatile boolean running;
+        private volatile long runningCheckedAt;
+        private volatile long lastSuccess;
+
+        private SyncState(String name) {
+            this.name = name;
+        }
+    }
+}
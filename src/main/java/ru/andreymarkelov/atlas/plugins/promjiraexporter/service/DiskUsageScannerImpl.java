@@ -0,0 +1,266 @@
+package ru.andreymarkelov.atlas.plugins.promjiraexporter.service;
+
+import com.atlassian.jira.config.util.JiraHome;
+import io.prometheus.client.Collector;
+import io.prometheus.client.GaugeMetricFamily;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import ru.andreymarkelov.atlas.plugins.promjiraexporter.util.RateLimiter;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import static java.lang.Thread.MIN_PRIORITY;
+import static java.util.Collections.emptyList;
+import static java.util.Collections.singletonList;
+import static java.util.concurrent.Executors.defaultThreadFactory;
+import static java.util.concurrent.Executors.newSingleThreadScheduledExecutor;
+
+/**
+ * Scans Jira home directories in background. Listing of every directory is cached with its modification time,
+ * so unchanged directories cost one stat per scan. Files changed in place (not added, removed or renamed)
+ * are not noticed until their directory changes, which is fine for Lucene segments and attachments.
+ * At most {@link #MAX_CACHED_DIRECTORIES} listings are cached (about 200 bytes each), others are listed every scan.
+ * The index lives in the caches directory and is left out of it, so it is not counted twice.
+ * Scrapes read the metrics of the last completed scan.
+ */
+public class DiskUsageScannerImpl implements DiskUsageScanner, InitializingBean, DisposableBean {
+    private static final Logger log = LoggerFactory.getLogger(DiskUsageScannerImpl.class);
+
+    private static final long SCAN_DELAY_MINUTES = 15;
+    private static final int PARALLELISM = 2;
+    private static final int MAX_ENTRIES_PER_SECOND = 5000;
+    private static final int MAX_CACHED_DIRECTORIES = 200_000;
+    private static final String SEGMENT_INFO_SUFFIX = ".si";
+
+    private final Map<String, Path> directories;
+    private final Path indexDirectory;
+    private final ConcurrentMap<Path, DirectoryListing> listings;
+    private final RateLimiter rateLimiter;
+    private final MetricFamilies metricFamilies;
+    private volatile int generation;
+
+    private final ForkJoinPool forkJoinPool;
+    private final ThreadFactory threadFactory;
+    private final ScheduledExecutorService executorService;
+
+    private volatile List<Collector.MetricFamilySamples> snapshot = emptyList();
+
+    public DiskUsageScannerImpl(JiraHome jiraHome, MetricFamilies metricFamilies) {
+        File localHome = jiraHome.getLocalHome();
+        this.indexDirectory = new File(localHome, "caches/indexesV1").toPath();
+        this.directories = new LinkedHashMap<>();
+        this.directories.put("index", indexDirectory);
+        this.directories.put("caches", new File(localHome, "caches").toPath());
+        this.directories.put("attachments", new File(jiraHome.getHome(), "data/attachments").toPath());
+        this.directories.put("export", jiraHome.getExportDirectory().toPath());
+        this.directories.put("tmp", new File(localHome, "tmp").toPath());
+        this.listings = new ConcurrentHashMap<>();
+        this.rateLimiter = new RateLimiter(MAX_ENTRIES_PER_SECOND);
+        this.metricFamilies = metricFamilies;
+
+        this.forkJoinPool = new ForkJoinPool(PARALLELISM, pool -> {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            thread.setPriority(MIN_PRIORITY);
+            return thread;
+        }, null, false);
+        this.threadFactory = defaultThreadFactory();
+        this.executorService = newSingleThreadScheduledExecutor(r -> {
+            Thread thread = threadFactory.newThread(r);
+            thread.setPriority(MIN_PRIORITY);
+            return thread;
+        });
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        executorService.scheduleWithFixedDelay(this::scan, 1, SCAN_DELAY_MINUTES, TimeUnit.MINUTES);
+    }
+
+    @Override
+    public void destroy() {
+        executorService.shutdownNow();
+        forkJoinPool.shutdownNow();
+    }
+
+    private void scan() {
+        if (!metricFamilies.isEnabled(MetricFamilies.DISK_USAGE)) {
+            return;
+        }
+
+        long start = System.nanoTime();
+        try {
+            generation++;
+            GaugeMetricFamily directorySize = new GaugeMetricFamily(
+                    "jira_home_directory_size_bytes_gauge", "Home Directory Size Gauge", singletonList("directory"));
+            GaugeMetricFamily directoryFiles = new GaugeMetricFamily(
+                    "jira_home_directory_files_gauge", "Home Directory Files Gauge", singletonList("directory"));
+            for (Map.Entry<String, Path> directory : directories.entrySet()) {
+                Usage usage = forkJoinPool.invoke(new ScanTask(directory.getValue(), indexDirectory));
+                directorySize.addMetric(singletonList(directory.getKey()), usage.bytes);
+                directoryFiles.addMetric(singletonList(directory.getKey()), usage.files);
+            }
+
+            GaugeMetricFamily indexSize = new GaugeMetricFamily(
+                    "jira_index_size_bytes_gauge", "Lucene Index Size Gauge", singletonList("index"));
+            GaugeMetricFamily indexSegments = new GaugeMetricFamily(
+                    "jira_index_segments_gauge", "Lucene Index Segments Gauge", singletonList("index"));
+            DirectoryListing indexListing = listings.get(indexDirectory);
+            if (indexListing != null) {
+                for (Path index : indexListing.subdirectories) {
+                    Usage usage = forkJoinPool.invoke(new ScanTask(index, null));
+                    indexSize.addMetric(singletonList(index.getFileName().toString()), usage.bytes);
+                    indexSegments.addMetric(singletonList(index.getFileName().toString()), usage.segments);
+                }
+            }
+
+            // forget directories which were not seen in this scan
+            for (Iterator<DirectoryListing> it = listings.values().iterator(); it.hasNext();) {
+                if (it.next().generation != generation) {
+                    it.remove();
+                }
+            }
+
+            List<Collector.MetricFamilySamples> result = new ArrayList<>();
+            result.add(directorySize);
+            result.add(directoryFiles);
+            result.add(indexSize);
+            result.add(indexSegments);
+            result.add(new GaugeMetricFamily(
+                    "jira_home_scan_duration_seconds_gauge", "Home Directory Scan Duration Gauge", (System.nanoTime() - start) / 1e9));
+            snapshot = result;
+        } catch (Exception ex) {
+            log.error("Failed to scan home directories.", ex);
+        }
+    }
+
+    @Override
+    public List<Collector.MetricFamilySamples> collect() {
+        return snapshot;
+    }
+
+    private DirectoryListing list(Path directory, long modified) throws IOException, InterruptedException {
+        final DirectoryListing listing = new DirectoryListing(modified);
+        Files.walkFileTree(directory, EnumSet.noneOf(FileVisitOption.class), 1, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (attrs.isDirectory()) {
+                    listing.subdirectories.add(file);
+                } else {
+                    listing.bytes += attrs.size();
+                    listing.files++;
+                    if (file.getFileName().toString().endsWith(SEGMENT_INFO_SUFFIX)) {
+                        listing.segments++;
+                    }
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        rateLimiter.acquire(listing.files + listing.subdirectories.size() + 1);
+        return listing;
+    }
+
+    private class ScanTask extends RecursiveTask<Usage> {
+        private final Path directory;
+        private final Path excluded;
+
+        /**
+         * @param excluded subtree which is not counted, unless it is the scanned directory itself
+         */
+        private ScanTask(Path directory, Path excluded) {
+            this.directory = directory;
+            this.excluded = excluded;
+        }
+
+        @Override
+        protected Usage compute() {
+            DirectoryListing listing;
+            try {
+                if (!Files.isDirectory(directory)) {
+                    return new Usage();
+                }
+                long modified = Files.getLastModifiedTime(directory).toMillis();
+                listing = listings.get(directory);
+                if (listing == null || listing.modified != modified) {
+                    listing = list(directory, modified);
+                    if (listings.size() < MAX_CACHED_DIRECTORIES || listings.containsKey(directory)) {
+                        listings.put(directory, listing);
+                    }
+                }
+            } catch (IOException ex) {
+                log.debug("Unable to scan directory {}", directory, ex);
+                return new Usage();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return new Usage();
+            }
+            listing.generation = generation;
+
+            List<ScanTask> tasks = new ArrayList<>(listing.subdirectories.size());
+            for (Path subdirectory : listing.subdirectories) {
+                if (!subdirectory.equals(excluded)) {
+                    tasks.add(new ScanTask(subdirectory, excluded));
+                }
+            }
+            invokeAll(tasks);
+
+            Usage usage = new Usage();
+            usage.bytes = listing.bytes;
+            usage.files = listing.files;
+            usage.segments = listing.segments;
+            for (ScanTask task : tasks) {
+                Usage subdirectoryUsage = task.join();
+                usage.bytes += subdirectoryUsage.bytes;
+                usage.files += subdirectoryUsage.files;
+                usage.segments += subdirectoryUsage.segments;
+            }
+            return usage;
+        }
+    }
+
+    private static class DirectoryListing {
+        private final long modified;
+        private final List<Path> subdirectories = new ArrayList<>();
+        private long bytes;
+        private int files;
+        private int segments;
+        private volatile int generation;
+
+        private DirectoryListing(long modified) {
+            this.modified = modified;
+        }
+    }
+
+    private static class Usage {
+        private long bytes;
+        private long files;
+        private long segments;
+    }
+}
@@ -0,0 +1,33 @@
+package ru.andreymarkelov.atlas.plugins.promjiraexporter.service;
+
+import io.prometheus.client.Collector;
+
+import java.util.List;
+
+public interface HeavyHitterTracker {
+    enum Activity {
+        ISSUE_VIEW("issue_view"),
+        ISSUE_UPDATE("issue_update"),
+        DASHBOARD_VIEW("dashboard_view"),
+        LOGIN("login"),
+        REQUEST("request");
+
+        private final String label;
+
+        Activity(String label) {
+            this.label = label;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+    }
+
+    void userActivity(Activity activity, String username);
+
+    void projectActivity(Activity activity, String projectKey);
+
+    void dashboardView(Long dashboardId);
+
+    List<Collector.MetricFamilySamples> collect();
+}
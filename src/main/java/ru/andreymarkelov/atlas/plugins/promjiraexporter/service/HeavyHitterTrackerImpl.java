@@ -0,0 +1,188 @@
+package ru.andreymarkelov.atlas.plugins.promjiraexporter.service;
+
+import io.prometheus.client.Collector;
+import io.prometheus.client.GaugeMetricFamily;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import ru.andreymarkelov.atlas.plugins.promjiraexporter.util.SpaceSaving;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import static java.lang.Thread.MIN_PRIORITY;
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+import static java.util.concurrent.Executors.defaultThreadFactory;
+import static java.util.concurrent.Executors.newSingleThreadScheduledExecutor;
+import static org.apache.commons.lang3.StringUtils.isBlank;
+
+/**
+ * Tracks the most active users, projects and dashboards with fixed size Space-Saving sketches.
+ * Counts decay every minute, so exported values approximate the activity over the last {@link #WINDOW_MINUTES}.
+ * Request threads only put activities into buffers striped by thread, the sketches are updated in background,
+ * activities which do not fit into a full buffer are dropped.
+ */
+public class HeavyHitterTrackerImpl implements HeavyHitterTracker, InitializingBean, DisposableBean {
+    private static final int CAPACITY = 100;
+    private static final int TOP_N = 10;
+    private static final int WINDOW_MINUTES = 60;
+    private static final double DECAY_FACTOR = Math.exp(-1.0 / WINDOW_MINUTES);
+    private static final double DROP_THRESHOLD = 0.5;
+    private static final int STRIPES = 16;
+    private static final int STRIPE_CAPACITY = 1024;
+    private static final long DRAIN_INTERVAL_MILLIS = 500;
+
+    private final Map<Activity, SpaceSaving> users;
+    private final Map<Activity, SpaceSaving> projects;
+    private final SpaceSaving dashboards;
+    private final List<BlockingQueue<Offer>> buffers;
+    private final MetricFamilies metricFamilies;
+
+    private final ThreadFactory threadFactory;
+    private final ScheduledExecutorService executorService;
+
+    public HeavyHitterTrackerImpl(MetricFamilies metricFamilies) {
+        this.metricFamilies = metricFamilies;
+        this.users = new EnumMap<>(Activity.class);
+        this.projects = new EnumMap<>(Activity.class);
+        for (Activity activity : Activity.values()) {
+            users.put(activity, new SpaceSaving(CAPACITY));
+            projects.put(activity, new SpaceSaving(CAPACITY));
+        }
+        this.dashboards = new SpaceSaving(CAPACITY);
+        this.buffers = new ArrayList<>(STRIPES);
+        for (int i = 0; i < STRIPES; i++) {
+            buffers.add(new ArrayBlockingQueue<>(STRIPE_CAPACITY));
+        }
+
+        this.threadFactory = defaultThreadFactory();
+        this.executorService = newSingleThreadScheduledExecutor(r -> {
+            Thread thread = threadFactory.newThread(r);
+            thread.setPriority(MIN_PRIORITY);
+            return thread;
+        });
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        executorService.scheduleWithFixedDelay(this::drain, DRAIN_INTERVAL_MILLIS, DRAIN_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        executorService.scheduleAtFixedRate(this::decay, 1, 1, TimeUnit.MINUTES);
+    }
+
+    @Override
+    public void destroy() {
+        executorService.shutdownNow();
+    }
+
+    @Override
+    public void userActivity(Activity activity, String username) {
+        if (!isBlank(username)) {
+            offer(users.get(activity), username);
+        }
+    }
+
+    @Override
+    public void projectActivity(Activity activity, String projectKey) {
+        if (!isBlank(projectKey)) {
+            offer(projects.get(activity), projectKey);
+        }
+    }
+
+    @Override
+    public void dashboardView(Long dashboardId) {
+        if (dashboardId != null) {
+            offer(dashboards, dashboardId.toString());
+        }
+    }
+
+    private void offer(SpaceSaving sketch, String key) {
+        int stripe = (int) (Thread.currentThread().getId() % STRIPES);
+        buffers.get(stripe).offer(new Offer(sketch, key));
+    }
+
+    private void drain() {
+        if (!metricFamilies.isEnabled(MetricFamilies.HEAVY_HITTERS)) {
+            // activities offered before the family was disabled
+            for (BlockingQueue<Offer> buffer : buffers) {
+                buffer.clear();
+            }
+            return;
+        }
+
+        List<Offer> offers = new ArrayList<>(STRIPE_CAPACITY);
+        for (BlockingQueue<Offer> buffer : buffers) {
+            buffer.drainTo(offers);
+            for (Offer offer : offers) {
+                offer.sketch.offer(offer.key);
+            }
+            offers.clear();
+        }
+    }
+
+    private void decay() {
+        if (!metricFamilies.isEnabled(MetricFamilies.HEAVY_HITTERS)) {
+            return;
+        }
+
+        for (SpaceSaving sketch : users.values()) {
+            sketch.decay(DECAY_FACTOR, DROP_THRESHOLD);
+        }
+        for (SpaceSaving sketch : projects.values()) {
+            sketch.decay(DECAY_FACTOR, DROP_THRESHOLD);
+        }
+        dashboards.decay(DECAY_FACTOR, DROP_THRESHOLD);
+    }
+
+    @Override
+    public List<Collector.MetricFamilySamples> collect() {
+        GaugeMetricFamily topUsers = new GaugeMetricFamily(
+                "jira_top_users_gauge",
+                "Top Active Users Gauge",
+                asList("activity", "username"));
+        GaugeMetricFamily topProjects = new GaugeMetricFamily(
+                "jira_top_projects_gauge",
+                "Top Active Projects Gauge",
+                asList("activity", "projectKey"));
+        GaugeMetricFamily topDashboards = new GaugeMetricFamily(
+                "jira_top_dashboards_gauge",
+                "Top Viewed Dashboards Gauge",
+                singletonList("dashboardId"));
+
+        for (Map.Entry<Activity, SpaceSaving> entry : users.entrySet()) {
+            for (Map.Entry<String, Double> top : entry.getValue().top(TOP_N)) {
+                topUsers.addMetric(asList(entry.getKey().getLabel(), top.getKey()), top.getValue());
+            }
+        }
+        for (Map.Entry<Activity, SpaceSaving> entry : projects.entrySet()) {
+            for (Map.Entry<String, Double> top : entry.getValue().top(TOP_N)) {
+                topProjects.addMetric(asList(entry.getKey().getLabel(), top.getKey()), top.getValue());
+            }
+        }
+        for (Map.Entry<String, Double> top : dashboards.top(TOP_N)) {
+            topDashboards.addMetric(singletonList(top.getKey()), top.getValue());
+        }
+
+        List<Collector.MetricFamilySamples> result = new ArrayList<>();
+        result.add(topUsers);
+        result.add(topProjects);
+        result.add(topDashboards);
+        return result;
+    }
+
+    private static class Offer {
+        private final SpaceSaving sketch;
+        private final String key;
+
+        private Offer(SpaceSaving sketch, String key) {
+            this.sketch = sketch;
+            this.key = key;
+        }
+    }
+}
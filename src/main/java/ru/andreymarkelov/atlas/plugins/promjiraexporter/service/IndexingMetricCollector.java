@@ -0,0 +1,11 @@
+package ru.andreymarkelov.atlas.plugins.promjiraexporter.service;
+
+import io.prometheus.client.Collector;
+
+import java.util.List;
+
+public interface IndexingMetricCollector {
+    void reindexStarted(boolean background);
+    void reindexCompleted(boolean background, long totalTimeMillis);
+    List<Collector.MetricFamilySamples> collect();
+}
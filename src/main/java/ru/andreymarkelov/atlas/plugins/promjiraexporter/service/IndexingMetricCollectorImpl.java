@@ -0,0 +1,189 @@
+package ru.andreymarkelov.atlas.plugins.promjiraexporter.service;
+
+import com.atlassian.jira.cluster.ClusterManager;
+import com.atlassian.jira.config.IndexTaskContext;
+import com.atlassian.jira.ofbiz.DefaultOfBizConnectionFactory;
+import com.atlassian.jira.ofbiz.OfBizDelegator;
+import com.atlassian.jira.task.TaskDescriptor;
+import com.atlassian.jira.task.TaskManager;
+import com.atlassian.jira.task.TaskProgressEvent;
+import io.prometheus.client.Collector;
+import io.prometheus.client.Counter;
+import io.prometheus.client.Gauge;
+import io.prometheus.client.GaugeMetricFamily;
+import org.ofbiz.core.entity.GenericValue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import static java.lang.Thread.MIN_PRIORITY;
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
+import static java.util.Collections.singletonList;
+import static java.util.Collections.singletonMap;
+import static java.util.concurrent.Executors.defaultThreadFactory;
+import static java.util.concurrent.Executors.newSingleThreadScheduledExecutor;
+
+/**
+ * Indexing metrics from reindex events. Reindex progress is read from the live index task,
+ * the Data Center replication lag is read in background from the replicated index operations table.
+ */
+public class IndexingMetricCollectorImpl implements IndexingMetricCollector, InitializingBean, DisposableBean {
+    private static final Logger log = LoggerFactory.getLogger(IndexingMetricCollectorImpl.class);
+
+    private static final long REPLICATION_REFRESH_DELAY_SECONDS = 60;
+    private static final String PENDING_OPERATIONS_SQL =
+            "select count(*), min(index_time) from replicatedindexoperation where node_id = ? and id > ?";
+
+    private final TaskManager taskManager;
+    private final ClusterManager clusterManager;
+    private final OfBizDelegator ofBizDelegator;
+    private final MetricFamilies metricFamilies;
+
+    private volatile List<Collector.MetricFamilySamples> replicationSnapshot = emptyList();
+
+    private final ThreadFactory threadFactory;
+    private final ScheduledExecutorService executorService;
+
+    private final Counter reindexCounter = Counter.build()
+            .name("jira_reindex_count")
+            .help("Full Reindex Count")
+            .labelNames("type")
+            .create();
+
+    private final Gauge reindexRunningGauge = Gauge.build()
+            .name("jira_reindex_running_gauge")
+            .help("Full Reindex Running Gauge")
+            .create();
+
+    private final Gauge reindexLastDurationGauge = Gauge.build()
+            .name("jira_reindex_last_duration_seconds_gauge")
+            .help("Last Full Reindex Duration In Seconds Gauge")
+            .labelNames("type")
+            .create();
+
+    public IndexingMetricCollectorImpl(
+            TaskManager taskManager,
+            ClusterManager clusterManager,
+            OfBizDelegator ofBizDelegator,
+            MetricFamilies metricFamilies) {
+        this.taskManager = taskManager;
+        this.clusterManager = clusterManager;
+        this.ofBizDelegator = ofBizDelegator;
+        this.metricFamilies = metricFamilies;
+
+        this.threadFactory = defaultThreadFactory();
+        this.executorService = newSingleThreadScheduledExecutor(r -> {
+            Thread thread = threadFactory.newThread(r);
+            thread.setPriority(MIN_PRIORITY);
+            return thread;
+        });
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        executorService.scheduleWithFixedDelay(this::refreshReplication, 0, REPLICATION_REFRESH_DELAY_SECONDS, TimeUnit.SECONDS);
+    }
+
+    @Override
+    public void destroy() {
+        executorService.shutdownNow();
+    }
+
+    @Override
+    public void reindexStarted(boolean background) {
+        reindexCounter.labels(reindexType(background)).inc();
+        reindexRunningGauge.set(1);
+    }
+
+    @Override
+    public void reindexCompleted(boolean background, long totalTimeMillis) {
+        reindexRunningGauge.set(0);
+        reindexLastDurationGauge.labels(reindexType(background)).set(totalTimeMillis / 1000.0);
+    }
+
+    @Override
+    public List<Collector.MetricFamilySamples> collect() {
+        List<Collector.MetricFamilySamples> result = new ArrayList<>();
+        result.addAll(reindexCounter.collect());
+        result.addAll(reindexRunningGauge.collect());
+        result.addAll(reindexLastDurationGauge.collect());
+        result.add(readReindexProgress());
+        result.addAll(replicationSnapshot);
+        return result;
+    }
+
+    private GaugeMetricFamily readReindexProgress() {
+        GaugeMetricFamily progress = new GaugeMetricFamily("jira_reindex_progress_gauge", "Reindex Progress Percent Gauge", emptyList());
+        for (TaskDescriptor<?> taskDescriptor : taskManager.getLiveTasks()) {
+            if (taskDescriptor.getTaskContext() instanceof IndexTaskContext && taskDescriptor.isStarted() && !taskDescriptor.isFinished()) {
+                TaskProgressEvent event = (taskDescriptor.getTaskProgressIndicator() != null)
+                        ? taskDescriptor.getTaskProgressIndicator().getLastProgressEvent() : null;
+                progress.addMetric(emptyList(), (event != null) ? event.getTaskProgress() : 0);
+                break;
+            }
+        }
+        return progress;
+    }
+
+    private void refreshReplication() {
+        if (!metricFamilies.isEnabled(MetricFamilies.INDEXING)) {
+            return;
+        }
+
+        try {
+            replicationSnapshot = clusterManager.isClustered() ? readReplication() : emptyList();
+        } catch (Exception ex) {
+            log.error("Failed to read index replication state.", ex);
+        }
+    }
+
+    /**
+     * Compares operations other nodes have written with the last operation this node has applied.
+     */
+    private List<Collector.MetricFamilySamples> readReplication() throws SQLException {
+        GaugeMetricFamily pending = new GaugeMetricFamily(
+                "jira_cluster_index_replication_pending_operations_gauge",
+                "Cluster Index Replication Pending Operations Gauge",
+                singletonList("sendingNode"));
+        GaugeMetricFamily lag = new GaugeMetricFamily(
+                "jira_cluster_index_replication_lag_seconds_gauge",
+                "Cluster Index Replication Lag In Seconds Gauge",
+                singletonList("sendingNode"));
+
+        long now = System.currentTimeMillis();
+        for (GenericValue counter : ofBizDelegator.findByAnd("NodeIndexCounter", singletonMap("nodeId", clusterManager.getNodeId()))) {
+            String sendingNodeId = counter.getString("sendingNodeId");
+            Long indexOperationId = counter.getLong("indexOperationId");
+            // a large backlog is exactly when the operations must not be loaded
+            try (Connection connection = new DefaultOfBizConnectionFactory().getConnection();
+                 PreparedStatement statement = connection.prepareStatement(PENDING_OPERATIONS_SQL)) {
+                statement.setString(1, sendingNodeId);
+                statement.setLong(2, (indexOperationId != null) ? indexOperationId : 0);
+                try (ResultSet rs = statement.executeQuery()) {
+                    long count = rs.next() ? rs.getLong(1) : 0;
+                    Timestamp oldest = (count > 0) ? rs.getTimestamp(2) : null;
+                    pending.addMetric(singletonList(sendingNodeId), count);
+                    lag.addMetric(singletonList(sendingNodeId), (oldest != null) ? Math.max(0, now - oldest.getTime()) / 1000.0 : 0);
+                }
+            }
+        }
+        return asList(pending, lag);
+    }
+
+    private static String reindexType(boolean background) {
+        return background ? "background" : "foreground";
+    }
+}
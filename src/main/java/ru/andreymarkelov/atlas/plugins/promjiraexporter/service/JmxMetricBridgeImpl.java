@@ -0,0 +1,223 @@
+package ru.andreymarkelov.atlas.plugins.promjiraexporter.service;
+
+import io.prometheus.client.Collector;
+import io.prometheus.client.CounterMetricFamily;
+import io.prometheus.client.GaugeMetricFamily;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.InstanceNotFoundException;
+import javax.management.MBeanServer;
+import javax.management.MBeanServerDelegate;
+import javax.management.MBeanServerNotification;
+import javax.management.MalformedObjectNameException;
+import javax.management.Notification;
+import javax.management.NotificationListener;
+import javax.management.ObjectName;
+import javax.management.relation.MBeanServerNotificationFilter;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+
+/**
+ * Exports whitelisted JMX attributes. Object names are resolved once and kept up to date
+ * by MBean registration notifications, every MBean is read with a single {@code getAttributes} call.
+ * Cumulative attributes are exported as counters with a {@code _total} suffix.
+ */
+public class JmxMetricBridgeImpl implements JmxMetricBridge, InitializingBean, DisposableBean {
+    private static final Logger log = LoggerFactory.getLogger(JmxMetricBridgeImpl.class);
+
+    private static final List<String> LABEL_NAMES = singletonList("name");
+
+    //--> Whitelist
+
+    private final List<JmxRule> rules = asList(
+            // tomcat connectors
+            new JmxRule("Catalina:type=ThreadPool,name=*", "jira_tomcat_threadpool",
+                    "currentThreadsBusy", "currentThreadCount", "maxThreads", "connectionCount", "maxConnections"),
+            new JmxRule("Catalina:type=Executor,name=*", "jira_tomcat_executor",
+                    "activeCount", "poolSize", "maxThreads", "queueSize"),
+            new JmxRule("Catalina:type=GlobalRequestProcessor,name=*", "jira_tomcat_request_processor",
+                    "requestCount", "errorCount", "processingTime", "maxTime", "bytesSent", "bytesReceived")
+                    .counters("requestCount", "errorCount", "processingTime", "bytesSent", "bytesReceived"),
+            // database connection pool
+            new JmxRule("org.apache.commons.pool2:type=GenericObjectPool,name=*", "jira_db_pool",
+                    "NumActive", "NumIdle", "NumWaiters", "MaxTotal", "MeanBorrowWaitTimeMillis", "MaxBorrowWaitTimeMillis",
+                    "MeanActiveTimeMillis", "BorrowedCount", "CreatedCount", "DestroyedCount")
+                    .counters("BorrowedCount", "CreatedCount", "DestroyedCount")
+    );
+
+    //<-- Whitelist
+
+    private final MBeanServer mBeanServer;
+    private final NotificationListener registrationListener;
+
+    public JmxMetricBridgeImpl() {
+        this.mBeanServer = ManagementFactory.getPlatformMBeanServer();
+        this.registrationListener = this::onRegistrationNotification;
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        MBeanServerNotificationFilter filter = new MBeanServerNotificationFilter();
+        filter.enableAllObjectNames();
+        try {
+            mBeanServer.addNotificationListener(MBeanServerDelegate.DELEGATE_NAME, registrationListener, filter, null);
+        } catch (InstanceNotFoundException ex) {
+            log.error("Unable to listen MBean registrations.", ex);
+        }
+        for (JmxRule rule : rules) {
+            rule.objectNames.addAll(mBeanServer.queryNames(rule.pattern, null));
+        }
+    }
+
+    @Override
+    public void destroy() {
+        try {
+            mBeanServer.removeNotificationListener(MBeanServerDelegate.DELEGATE_NAME, registrationListener);
+        } catch (Exception ex) {
+            log.debug("Unable to remove MBean registration listener.", ex);
+        }
+    }
+
+    private void onRegistrationNotification(Notification notification, Object handback) {
+        if (!(notification instanceof MBeanServerNotification)) {
+            return;
+        }
+
+        ObjectName objectName = ((MBeanServerNotification) notification).getMBeanName();
+        for (JmxRule rule : rules) {
+            if (rule.pattern.apply(objectName)) {
+                if (MBeanServerNotification.REGISTRATION_NOTIFICATION.equals(notification.getType())) {
+                    rule.objectNames.add(objectName);
+                } else if (MBeanServerNotification.UNREGISTRATION_NOTIFICATION.equals(notification.getType())) {
+                    rule.objectNames.remove(objectName);
+                }
+            }
+        }
+    }
+
+    @Override
+    public List<Collector.MetricFamilySamples> collect() {
+        List<Collector.MetricFamilySamples> result = new ArrayList<>();
+        for (JmxRule rule : rules) {
+            Map<String, Collector.MetricFamilySamples> families = new LinkedHashMap<>();
+            for (ObjectName objectName : rule.objectNames) {
+                AttributeList attributes;
+                try {
+                    attributes = mBeanServer.getAttributes(objectName, rule.attributes);
+                } catch (Exception ex) {
+                    log.debug("Unable to read attributes of {}", objectName, ex);
+                    continue;
+                }
+
+                List<String> labelValues = singletonList(getName(objectName));
+                for (Attribute attribute : attributes.asList()) {
+                    Double value = toDouble(attribute.getValue());
+                    if (value == null) {
+                        continue;
+                    }
+                    String metricName = rule.metricNames.get(attribute.getName());
+                    Collector.MetricFamilySamples family = families.get(metricName);
+                    if (family == null) {
+                        String help = "JMX " + rule.pattern.getDomain() + " " + attribute.getName();
+                        family = rule.counters.contains(attribute.getName())
+                                ? new CounterMetricFamily(metricName, help, LABEL_NAMES)
+                                : new GaugeMetricFamily(metricName, help, LABEL_NAMES);
+                        families.put(metricName, family);
+                    }
+                    family.samples.add(new Collector.MetricFamilySamples.Sample(metricName, LABEL_NAMES, labelValues, value));
+                }
+            }
+            result.addAll(families.values());
+        }
+        return result;
+    }
+
+    private static String getName(ObjectName objectName) {
+        String name = objectName.getKeyProperty("name");
+        if (name == null) {
+            return "";
+        }
+        return name.startsWith("\"") ? ObjectName.unquote(name) : name;
+    }
+
+    private static Double toDouble(Object value) {
+        if (value instanceof Number) {
+            return ((Number) value).doubleValue();
+        }
+        if (value instanceof Boolean) {
+            return ((Boolean) value) ? 1.0 : 0.0;
+        }
+        return null;
+    }
+
+    private static class JmxRule {
+        private final ObjectName pattern;
+        private final String prefix;
+        private final String[] attributes;
+        private final Map<String, String> metricNames;
+        private final Set<String> counters;
+        private final Set<ObjectName> objectNames;
+
+        private JmxRule(String pattern, String prefix, String... attributes) {
+            try {
+                this.pattern = new ObjectName(pattern);
+            } catch (MalformedObjectNameException ex) {
+                throw new IllegalArgumentException(pattern, ex);
+            }
+            this.prefix = prefix;
+            this.attributes = attributes;
+            this.metricNames = new HashMap<>();
+            for (String attribute : attributes) {
+                metricNames.put(attribute, prefix + "_" + toSnakeCase(attribute));
+            }
+            this.counters = new HashSet<>();
+            this.objectNames = new CopyOnWriteArraySet<>();
+        }
+
+        /**
+         * Marks cumulative attributes, {@code requestCount} is exported as {@code <prefix>_request_total}.
+         */
+        private JmxRule counters(String... attributes) {
+            for (String attribute : attributes) {
+                String name = toSnakeCase(attribute);
+                if (name.endsWith("_count")) {
+                    name = name.substring(0, name.length() - "_count".length());
+                }
+                metricNames.put(attribute, prefix + "_" + name + "_total");
+                counters.add(attribute);
+            }
+            return this;
+        }
+
+        private static String toSnakeCase(String attribute) {
+            StringBuilder result = new StringBuilder();
+            for (int i = 0; i < attribute.length(); i++) {
+                char c = attribute.charAt(i);
+                if (Character.isUpperCase(c)) {
+                    if (i > 0) {
+                        result.append('_');
+                    }
+                    result.append(Character.toLowerCase(c));
+                } else {
+                    result.append(c);
+                }
+            }
+            return result.toString();
+        }
+    }
+}
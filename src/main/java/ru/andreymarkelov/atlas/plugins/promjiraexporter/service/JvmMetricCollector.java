@@ -0,0 +1,25 @@
+package ru.andreymarkelov.atlas.plugins.promjiraexporter.service;
+
+import io.prometheus.client.Collector;
+
+import java.util.List;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.unmodifiableList;
+
+public interface JvmMetricCollector {
+    String PROCESS = "process";
+    String MEMORY = "memory";
+    String MEMORY_POOLS = "memory_pools";
+    String BUFFER_POOLS = "buffer_pools";
+    String GC = "gc";
+    String THREADS = "threads";
+    String CLASS_LOADING = "class_loading";
+    String VERSION = "version";
+
+    List<String> COLLECTORS = unmodifiableList(asList(
+            PROCESS, MEMORY, MEMORY_POOLS, BUFFER_POOLS, GC, THREADS, CLASS_LOADING, VERSION));
+
+    List<Collector.MetricFamilySamples> collect();
+    void reloadSettings();
+}
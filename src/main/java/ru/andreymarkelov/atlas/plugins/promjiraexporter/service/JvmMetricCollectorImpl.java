@@ -0,0 +1,410 @@
+package ru.andreymarkelov.atlas.plugins.promjiraexporter.service;
+
+import io.prometheus.client.Collector;
+import io.prometheus.client.CounterMetricFamily;
+import io.prometheus.client.GaugeMetricFamily;
+import io.prometheus.client.Histogram;
+import io.prometheus.client.SummaryMetricFamily;
+import io.prometheus.client.hotspot.BufferPoolsExports;
+import io.prometheus.client.hotspot.ClassLoadingExports;
+import io.prometheus.client.hotspot.StandardExports;
+import io.prometheus.client.hotspot.VersionInfoExports;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import ru.andreymarkelov.atlas.plugins.promjiraexporter.util.NameListParser;
+
+import javax.management.ListenerNotFoundException;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.TabularData;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryUsage;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.DoubleAdder;
+
+import static java.lang.Thread.MIN_PRIORITY;
+import static java.util.Collections.singletonList;
+import static java.util.concurrent.Executors.defaultThreadFactory;
+import static java.util.concurrent.Executors.newSingleThreadScheduledExecutor;
+
+/**
+ * Replacement of {@code DefaultExports} which keeps its metric names where the semantics are the same.
+ * MXBeans are resolved once, thread states and deadlocks are counted in background, because they need a safepoint
+ * over all threads, and GC metrics and memory pool usage after GC are updated from GC notifications instead of polling.
+ */
+public class JvmMetricCollectorImpl implements JvmMetricCollector, InitializingBean, DisposableBean {
+    private static final Logger log = LoggerFactory.getLogger(JvmMetricCollectorImpl.class);
+
+    private static final long THREAD_STATE_INTERVAL_SECONDS = 30;
+    private static final String GC_NOTIFICATION = "com.sun.management.gc.notification";
+    /**
+     * Collectors which report the duration of a whole mostly concurrent cycle instead of a pause.
+     */
+    private static final Set<String> CONCURRENT_COLLECTORS = new HashSet<>(Arrays.asList(
+            "ConcurrentMarkSweep", "G1 Concurrent GC", "ZGC", "ZGC Cycles", "ZGC Major Cycles", "ZGC Minor Cycles", "Shenandoah Cycles"));
+
+    private final ScrapingSettingsManager scrapingSettingsManager;
+    private final MetricFamilies metricFamilies;
+
+    private final MemoryMXBean memoryMXBean;
+    private final ThreadMXBean threadMXBean;
+    private final List<MemoryPoolMXBean> memoryPoolMXBeans;
+    private final List<GarbageCollectorMXBean> garbageCollectorMXBeans;
+
+    private final StandardExports standardExports;
+    private final BufferPoolsExports bufferPoolsExports;
+    private final ClassLoadingExports classLoadingExports;
+    private final List<Collector.MetricFamilySamples> versionInfo;
+
+    private final NotificationListener gcListener;
+    private final ConcurrentMap<String, GcStats> gcStats;
+    private final ConcurrentMap<String, MemoryUsage> poolUsageAfterGc;
+    private final ConcurrentMap<String, AtomicLong> poolAllocatedBytes;
+    private final Map<String, Long> poolLastUsedAfterGc;
+
+    private final Histogram gcPauseHistogram = Histogram.build()
+            .name("jvm_gc_pause_seconds")
+            .help("JVM GC Pause Duration In Seconds, concurrent collectors are not included")
+            .labelNames("gc", "cause")
+            .buckets(0.001, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10)
+            .create();
+
+    private final ThreadFactory threadFactory;
+    private final ScheduledExecutorService executorService;
+
+    private volatile Set<String> disabledCollectors = Collections.emptySet();
+    private volatile ThreadStates threadStates = new ThreadStates(new EnumMap<>(Thread.State.class), 0, 0);
+
+    public JvmMetricCollectorImpl(ScrapingSettingsManager scrapingSettingsManager, MetricFamilies metricFamilies) {
+        this.scrapingSettingsManager = scrapingSettingsManager;
+        this.metricFamilies = metricFamilies;
+
+        this.memoryMXBean = ManagementFactory.getMemoryMXBean();
+        this.threadMXBean = ManagementFactory.getThreadMXBean();
+        this.memoryPoolMXBeans = ManagementFactory.getMemoryPoolMXBeans();
+        this.garbageCollectorMXBeans = ManagementFactory.getGarbageCollectorMXBeans();
+
+        this.standardExports = new StandardExports();
+        this.bufferPoolsExports = new BufferPoolsExports();
+        this.classLoadingExports = new ClassLoadingExports();
+        this.versionInfo = new VersionInfoExports().collect();
+
+        this.gcListener = this::handleNotification;
+        this.gcStats = new ConcurrentHashMap<>();
+        this.poolUsageAfterGc = new ConcurrentHashMap<>();
+        this.poolAllocatedBytes = new ConcurrentHashMap<>();
+        this.poolLastUsedAfterGc = new ConcurrentHashMap<>();
+
+        this.threadFactory = defaultThreadFactory();
+        this.executorService = newSingleThreadScheduledExecutor(r -> {
+            Thread thread = threadFactory.newThread(r);
+            thread.setPriority(MIN_PRIORITY);
+            return thread;
+        });
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        reloadSettings();
+        for (GarbageCollectorMXBean bean : garbageCollectorMXBeans) {
+            // counters since JVM start, notifications add to them from now on
+            gcStats.put(bean.getName(), new GcStats(Math.max(bean.getCollectionCount(), 0), Math.max(bean.getCollectionTime(), 0) / 1000.0));
+            if (bean instanceof NotificationEmitter) {
+                ((NotificationEmitter) bean).addNotificationListener(gcListener, null, null);
+            }
+        }
+        executorService.scheduleWithFixedDelay(this::refreshThreadStates, 0, THREAD_STATE_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Listeners are registered on platform MXBeans, so they must be removed to not leak the plugin class loader.
+     */
+    @Override
+    public void destroy() {
+        executorService.shutdownNow();
+        for (GarbageCollectorMXBean bean : garbageCollectorMXBeans) {
+            if (bean instanceof NotificationEmitter) {
+                try {
+                    ((NotificationEmitter) bean).removeNotificationListener(gcListener);
+                } catch (ListenerNotFoundException ignored) {
+                }
+            }
+        }
+    }
+
+    @Override
+    public void reloadSettings() {
+        disabledCollectors = NameListParser.parse(scrapingSettingsManager.getDisabledJvmCollectors());
+    }
+
+    private boolean isEnabled(String collector) {
+        return !disabledCollectors.contains(collector);
+    }
+
+    private void refreshThreadStates() {
+        if (!metricFamilies.isEnabled(MetricFamilies.JVM) || !isEnabled(THREADS)) {
+            return;
+        }
+
+        try {
+            Map<Thread.State, Integer> states = new EnumMap<>(Thread.State.class);
+            for (Thread.State state : Thread.State.values()) {
+                states.put(state, 0);
+            }
+            for (ThreadInfo info : threadMXBean.getThreadInfo(threadMXBean.getAllThreadIds(), 0)) {
+                if (info != null) {
+                    states.merge(info.getThreadState(), 1, Integer::sum);
+                }
+            }
+            long[] deadlocked = threadMXBean.findDeadlockedThreads();
+            long[] monitorDeadlocked = threadMXBean.findMonitorDeadlockedThreads();
+            threadStates = new ThreadStates(
+                    states,
+                    (deadlocked != null) ? deadlocked.length : 0,
+                    (monitorDeadlocked != null) ? monitorDeadlocked.length : 0);
+        } catch (Exception ex) {
+            log.error("Failed to count thread states.", ex);
+        }
+    }
+
+    private void handleNotification(Notification notification, Object handback) {
+        if (!GC_NOTIFICATION.equals(notification.getType())) {
+            return;
+        }
+
+        try {
+            CompositeData data = (CompositeData) notification.getUserData();
+            String gcName = (String) data.get("gcName");
+            String gcCause = (String) data.get("gcCause");
+            CompositeData gcInfo = (CompositeData) data.get("gcInfo");
+            double seconds = ((Long) gcInfo.get("duration")) / 1000.0;
+
+            gcStats.computeIfAbsent(gcName, name -> new GcStats(0, 0)).observe(seconds);
+            if (!CONCURRENT_COLLECTORS.contains(gcName)) {
+                gcPauseHistogram.labels(gcName, gcCause).observe(seconds);
+            }
+
+            Map<String, MemoryUsage> before = memoryUsages((TabularData) gcInfo.get("memoryUsageBeforeGc"));
+            Map<String, MemoryUsage> after = memoryUsages((TabularData) gcInfo.get("memoryUsageAfterGc"));
+            synchronized (poolLastUsedAfterGc) {
+                for (Map.Entry<String, MemoryUsage> entry : after.entrySet()) {
+                    String pool = entry.getKey();
+                    MemoryUsage beforeUsage = before.get(pool);
+                    long lastUsed = poolLastUsedAfterGc.getOrDefault(pool, 0L);
+                    // what was allocated in the pool since the previous collection
+                    if (beforeUsage != null && beforeUsage.getUsed() > lastUsed) {
+                        poolAllocatedBytes.computeIfAbsent(pool, p -> new AtomicLong()).addAndGet(beforeUsage.getUsed() - lastUsed);
+                    }
+                    poolLastUsedAfterGc.put(pool, entry.getValue().getUsed());
+                    poolUsageAfterGc.put(pool, entry.getValue());
+                }
+            }
+        } catch (Exception ex) {
+            log.debug("Failed to handle GC notification.", ex);
+        }
+    }
+
+    private static Map<String, MemoryUsage> memoryUsages(TabularData data) {
+        Map<String, MemoryUsage> result = new HashMap<>();
+        for (Object row : data.values()) {
+            CompositeData entry = (CompositeData) row;
+            result.put((String) entry.get("key"), MemoryUsage.from((CompositeData) entry.get("value")));
+        }
+        return result;
+    }
+
+    @Override
+    public List<Collector.MetricFamilySamples> collect() {
+        List<Collector.MetricFamilySamples> result = new ArrayList<>();
+        if (isEnabled(PROCESS)) {
+            result.addAll(standardExports.collect());
+        }
+        if (isEnabled(MEMORY)) {
+            collectMemory(result);
+        }
+        if (isEnabled(MEMORY_POOLS)) {
+            collectMemoryPools(result);
+        }
+        if (isEnabled(BUFFER_POOLS)) {
+            result.addAll(bufferPoolsExports.collect());
+        }
+        if (isEnabled(GC)) {
+            collectGc(result);
+        }
+        if (isEnabled(THREADS)) {
+            collectThreads(result);
+        }
+        if (isEnabled(CLASS_LOADING)) {
+            result.addAll(classLoadingExports.collect());
+        }
+        if (isEnabled(VERSION)) {
+            result.addAll(versionInfo);
+        }
+        return result;
+    }
+
+    private void collectMemory(List<Collector.MetricFamilySamples> result) {
+        MemoryUsage heap = memoryMXBean.getHeapMemoryUsage();
+        MemoryUsage nonHeap = memoryMXBean.getNonHeapMemoryUsage();
+
+        GaugeMetricFamily used = new GaugeMetricFamily("jvm_memory_bytes_used", "Used bytes of a given JVM memory area.", singletonList("area"));
+        used.addMetric(singletonList("heap"), heap.getUsed());
+        used.addMetric(singletonList("nonheap"), nonHeap.getUsed());
+        GaugeMetricFamily committed = new GaugeMetricFamily("jvm_memory_bytes_committed", "Committed (bytes) of a given JVM memory area.", singletonList("area"));
+        committed.addMetric(singletonList("heap"), heap.getCommitted());
+        committed.addMetric(singletonList("nonheap"), nonHeap.getCommitted());
+        GaugeMetricFamily max = new GaugeMetricFamily("jvm_memory_bytes_max", "Max (bytes) of a given JVM memory area.", singletonList("area"));
+        max.addMetric(singletonList("heap"), heap.getMax());
+        max.addMetric(singletonList("nonheap"), nonHeap.getMax());
+
+        result.add(used);
+        result.add(committed);
+        result.add(max);
+    }
+
+    private void collectMemoryPools(List<Collector.MetricFamilySamples> result) {
+        GaugeMetricFamily currentUsed = new GaugeMetricFamily(
+                "jvm_memory_pool_bytes_used",
+                "Used bytes of a given JVM memory pool.",
+                singletonList("pool"));
+        GaugeMetricFamily currentCommitted = new GaugeMetricFamily(
+                "jvm_memory_pool_bytes_committed",
+                "Committed bytes of a given JVM memory pool.",
+                singletonList("pool"));
+        GaugeMetricFamily currentMax = new GaugeMetricFamily(
+                "jvm_memory_pool_bytes_max",
+                "Max bytes of a given JVM memory pool.",
+                singletonList("pool"));
+        for (MemoryPoolMXBean pool : memoryPoolMXBeans) {
+            MemoryUsage usage = pool.getUsage();
+            if (usage == null) {
+                // the pool is no longer valid
+                continue;
+            }
+            List<String> labels = singletonList(pool.getName());
+            currentUsed.addMetric(labels, usage.getUsed());
+            currentCommitted.addMetric(labels, usage.getCommitted());
+            currentMax.addMetric(labels, usage.getMax());
+        }
+        result.add(currentUsed);
+        result.add(currentCommitted);
+        result.add(currentMax);
+
+        GaugeMetricFamily used = new GaugeMetricFamily(
+                "jvm_memory_pool_after_gc_bytes_used",
+                "Used bytes of a given JVM memory pool after the last GC.",
+                singletonList("pool"));
+        GaugeMetricFamily committed = new GaugeMetricFamily(
+                "jvm_memory_pool_after_gc_bytes_committed",
+                "Committed bytes of a given JVM memory pool after the last GC.",
+                singletonList("pool"));
+        GaugeMetricFamily max = new GaugeMetricFamily(
+                "jvm_memory_pool_after_gc_bytes_max",
+                "Max bytes of a given JVM memory pool after the last GC.",
+                singletonList("pool"));
+        CounterMetricFamily allocated = new CounterMetricFamily(
+                "jvm_memory_pool_allocated_bytes_total",
+                "Total bytes allocated in a given JVM memory pool. Only updated after GC, not continuously.",
+                singletonList("pool"));
+
+        for (Map.Entry<String, MemoryUsage> entry : poolUsageAfterGc.entrySet()) {
+            List<String> labels = singletonList(entry.getKey());
+            used.addMetric(labels, entry.getValue().getUsed());
+            committed.addMetric(labels, entry.getValue().getCommitted());
+            max.addMetric(labels, entry.getValue().getMax());
+        }
+        for (Map.Entry<String, AtomicLong> entry : poolAllocatedBytes.entrySet()) {
+            allocated.addMetric(singletonList(entry.getKey()), entry.getValue().get());
+        }
+
+        result.add(used);
+        result.add(committed);
+        result.add(max);
+        result.add(allocated);
+    }
+
+    private void collectGc(List<Collector.MetricFamilySamples> result) {
+        SummaryMetricFamily collections = new SummaryMetricFamily(
+                "jvm_gc_collection_seconds",
+                "Time spent in a given JVM garbage collector in seconds.",
+                singletonList("gc"));
+        for (Map.Entry<String, GcStats> entry : gcStats.entrySet()) {
+            collections.addMetric(singletonList(entry.getKey()), entry.getValue().count.get(), entry.getValue().seconds.sum());
+        }
+        result.add(collections);
+        result.addAll(gcPauseHistogram.collect());
+    }
+
+    private void collectThreads(List<Collector.MetricFamilySamples> result) {
+        result.add(new GaugeMetricFamily("jvm_threads_current", "Current thread count of a JVM", threadMXBean.getThreadCount()));
+        result.add(new GaugeMetricFamily("jvm_threads_daemon", "Daemon thread count of a JVM", threadMXBean.getDaemonThreadCount()));
+        result.add(new GaugeMetricFamily("jvm_threads_peak", "Peak thread count of a JVM", threadMXBean.getPeakThreadCount()));
+        result.add(new CounterMetricFamily("jvm_threads_started_total", "Started thread count of a JVM", threadMXBean.getTotalStartedThreadCount()));
+
+        ThreadStates current = threadStates;
+        result.add(new GaugeMetricFamily(
+                "jvm_threads_deadlocked",
+                "Cycles of JVM-threads that are in deadlock waiting to acquire object monitors or ownable synchronizers",
+                current.deadlocked));
+        result.add(new GaugeMetricFamily(
+                "jvm_threads_deadlocked_monitor",
+                "Cycles of JVM-threads that are in deadlock waiting to acquire object monitors",
+                current.monitorDeadlocked));
+        GaugeMetricFamily states = new GaugeMetricFamily("jvm_threads_state", "Current count of threads by state", singletonList("state"));
+        for (Map.Entry<Thread.State, Integer> entry : current.states.entrySet()) {
+            states.addMetric(singletonList(entry.getKey().toString()), entry.getValue());
+        }
+        result.add(states);
+    }
+
+    private static class GcStats {
+        private final AtomicLong count;
+        private final DoubleAdder seconds;
+
+        private GcStats(long count, double seconds) {
+            this.count = new AtomicLong(count);
+            this.seconds = new DoubleAdder();
+            this.seconds.add(seconds);
+        }
+
+        private void observe(double duration) {
+            count.incrementAndGet();
+            seconds.add(duration);
+        }
+    }
+
+    private static class ThreadStates {
+        private final Map<Thread.State, Integer> states;
+        private final int deadlocked;
+        private final int monitorDeadlocked;
+
+        private ThreadStates(Map<Thread.State, Integer> states, int deadlocked, int monitorDeadlocked) {
+            this.states = states;
+            this.deadlocked = deadlocked;
+            this.monitorDeadlocked = monitorDeadlocked;
+        }
+    }
+}
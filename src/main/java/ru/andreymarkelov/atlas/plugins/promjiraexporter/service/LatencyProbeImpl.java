@@ -0,0 +1,207 @@
+package ru.andreymarkelov.atlas.plugins.promjiraexporter.service;
+
+import com.atlassian.jira.cluster.ClusterManager;
+import com.atlassian.jira.config.util.JiraHome;
+import com.atlassian.jira.ofbiz.DefaultOfBizConnectionFactory;
+import io.prometheus.client.Collector;
+import io.prometheus.client.Counter;
+import io.prometheus.client.Histogram;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static java.lang.Thread.MIN_PRIORITY;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static java.util.concurrent.Executors.defaultThreadFactory;
+import static java.util.concurrent.Executors.newScheduledThreadPool;
+
+/**
+ * Times a database round trip and a small write, fsync and read in the home directories in background.
+ * Database and file system probes run on separate threads, so a hanging shared home does not stop the database probe.
+ */
+public class LatencyProbeImpl implements LatencyProbe, InitializingBean, DisposableBean {
+    private static final Logger log = LoggerFactory.getLogger(LatencyProbeImpl.class);
+
+    private static final long PROBE_DELAY_SECONDS = 15;
+    private static final int QUERY_TIMEOUT_SECONDS = 10;
+    private static final int PROBE_FILE_SIZE = 4096;
+    private static final String PROBE_DIRECTORY = "caches/prometheus-exporter";
+
+    private final JiraHome jiraHome;
+    private final ClusterManager clusterManager;
+    private final MetricFamilies metricFamilies;
+
+    private volatile String validationQuery;
+
+    private final ThreadFactory threadFactory;
+    private final ScheduledExecutorService executorService;
+
+    private final Histogram dbProbeHistogram = Histogram.build()
+            .name("jira_db_probe_seconds")
+            .help("Database Probe Duration In Seconds")
+            .labelNames("phase")
+            .buckets(0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5)
+            .create();
+
+    private final Counter dbProbeFailuresCounter = Counter.build()
+            .name("jira_db_probe_failures_count")
+            .help("Database Probe Failures Count")
+            .create();
+
+    private final Histogram homeProbeHistogram = Histogram.build()
+            .name("jira_home_probe_seconds")
+            .help("Home Directory Probe Duration In Seconds")
+            .labelNames("home", "operation")
+            .buckets(0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5)
+            .create();
+
+    private final Counter homeProbeFailuresCounter = Counter.build()
+            .name("jira_home_probe_failures_count")
+            .help("Home Directory Probe Failures Count")
+            .labelNames("home")
+            .create();
+
+    public LatencyProbeImpl(JiraHome jiraHome, ClusterManager clusterManager, MetricFamilies metricFamilies) {
+        this.jiraHome = jiraHome;
+        this.clusterManager = clusterManager;
+        this.metricFamilies = metricFamilies;
+
+        this.threadFactory = defaultThreadFactory();
+        this.executorService = newScheduledThreadPool(2, r -> {
+            Thread thread = threadFactory.newThread(r);
+            thread.setPriority(MIN_PRIORITY);
+            return thread;
+        });
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        executorService.scheduleWithFixedDelay(this::probeDatabase, PROBE_DELAY_SECONDS, PROBE_DELAY_SECONDS, TimeUnit.SECONDS);
+        executorService.scheduleWithFixedDelay(this::probeHomes, PROBE_DELAY_SECONDS, PROBE_DELAY_SECONDS, TimeUnit.SECONDS);
+    }
+
+    @Override
+    public void destroy() {
+        executorService.shutdownNow();
+    }
+
+    @Override
+    public List<Collector.MetricFamilySamples> collect() {
+        List<Collector.MetricFamilySamples> result = new ArrayList<>();
+        result.addAll(dbProbeHistogram.collect());
+        result.addAll(dbProbeFailuresCounter.collect());
+        result.addAll(homeProbeHistogram.collect());
+        result.addAll(homeProbeFailuresCounter.collect());
+        return result;
+    }
+
+    private void probeDatabase() {
+        if (!metricFamilies.isEnabled(MetricFamilies.PROBES)) {
+            return;
+        }
+
+        long start = System.nanoTime();
+        try (Connection connection = new DefaultOfBizConnectionFactory().getConnection()) {
+            long acquired = System.nanoTime();
+            dbProbeHistogram.labels("acquire").observe((acquired - start) / 1e9);
+
+            try (Statement statement = connection.createStatement()) {
+                statement.setQueryTimeout(QUERY_TIMEOUT_SECONDS);
+                try (ResultSet rs = statement.executeQuery(getValidationQuery(connection))) {
+                    rs.next();
+                }
+            }
+            dbProbeHistogram.labels("query").observe((System.nanoTime() - acquired) / 1e9);
+        } catch (Exception ex) {
+            dbProbeFailuresCounter.inc();
+            log.debug("Database probe failed.", ex);
+        }
+    }
+
+    private String getValidationQuery(Connection connection) throws Exception {
+        if (validationQuery == null) {
+            String product = connection.getMetaData().getDatabaseProductName().toLowerCase();
+            if (product.contains("oracle")) {
+                validationQuery = "select 1 from dual";
+            } else if (product.contains("hsql")) {
+                validationQuery = "select 1 from INFORMATION_SCHEMA.SYSTEM_USERS";
+            } else {
+                validationQuery = "select 1";
+            }
+        }
+        return validationQuery;
+    }
+
+    private void probeHomes() {
+        if (!metricFamilies.isEnabled(MetricFamilies.PROBES)) {
+            return;
+        }
+
+        probeHome("local", jiraHome.getLocalHome());
+        if (clusterManager.isClustered()) {
+            probeHome("shared", jiraHome.getHome());
+        }
+    }
+
+    /**
+     * Every node writes its own file, so nodes do not contend on the shared home.
+     */
+    private void probeHome(String home, File homeDirectory) {
+        byte[] content = new byte[PROBE_FILE_SIZE];
+        ThreadLocalRandom.current().nextBytes(content);
+        try {
+            File directory = new File(homeDirectory, PROBE_DIRECTORY);
+            if (!directory.isDirectory() && !directory.mkdirs()) {
+                throw new IOException("Unable to create " + directory);
+            }
+            String nodeId = clusterManager.isClustered() ? clusterManager.getNodeId() : "local";
+            Path file = new File(directory, "probe-" + nodeId + ".tmp").toPath();
+
+            try (FileChannel channel = FileChannel.open(file, CREATE, WRITE, TRUNCATE_EXISTING)) {
+                long start = System.nanoTime();
+                ByteBuffer buffer = ByteBuffer.wrap(content);
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                long written = System.nanoTime();
+                channel.force(true);
+                long synced = System.nanoTime();
+                homeProbeHistogram.labels(home, "write").observe((written - start) / 1e9);
+                homeProbeHistogram.labels(home, "fsync").observe((synced - written) / 1e9);
+            }
+
+            long start = System.nanoTime();
+            try (FileChannel channel = FileChannel.open(file, READ)) {
+                ByteBuffer buffer = ByteBuffer.allocate(PROBE_FILE_SIZE);
+                while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                    // read whole file
+                }
+            }
+            homeProbeHistogram.labels(home, "read").observe((System.nanoTime() - start) / 1e9);
+            Files.deleteIfExists(file);
+        } catch (Exception ex) {
+            homeProbeFailuresCounter.labels(home).inc();
+            log.debug("Probe of {} home failed.", home, ex);
+        }
+    }
+}
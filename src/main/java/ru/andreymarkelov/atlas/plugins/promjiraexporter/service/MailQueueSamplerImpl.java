@@ -0,0 +1,166 @@
+package ru.andreymarkelov.atlas.plugins.promjiraexporter.service;
+
+import com.atlassian.mail.queue.MailQueue;
+import com.atlassian.mail.queue.MailQueueItem;
+import io.prometheus.client.Collector;
+import io.prometheus.client.Counter;
+import io.prometheus.client.GaugeMetricFamily;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import static java.lang.Thread.MIN_PRIORITY;
+import static java.util.Collections.emptyList;
+import static java.util.concurrent.Executors.defaultThreadFactory;
+import static java.util.concurrent.Executors.newSingleThreadScheduledExecutor;
+
+/**
+ * Samples the mail queue depth every few seconds into a ring buffer, so bursts between scrapes are visible.
+ * A scrape reports the maximum and average depth of the samples taken over the last minute and the drain rate
+ * as the depth decrease per second over them, so scrapes do not change what other scrapes see.
+ * Failures are counted from the growth of the error queue.
+ */
+public class MailQueueSamplerImpl implements MailQueueSampler, InitializingBean, DisposableBean {
+    private static final Logger log = LoggerFactory.getLogger(MailQueueSamplerImpl.class);
+
+    private static final long SAMPLE_INTERVAL_SECONDS = 5;
+    private static final int CAPACITY = 120;
+    private static final long WINDOW_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    private final MailQueue mailQueue;
+    private final MetricFamilies metricFamilies;
+
+    private final long[] times;
+    private final int[] depths;
+    private long written;
+    private int lastErrorDepth = -1;
+    private volatile double oldestItemAge;
+    private volatile double sendingSeconds;
+
+    private final ThreadFactory threadFactory;
+    private final ScheduledExecutorService executorService;
+
+    private final Counter failures = Counter.build()
+            .name("jira_mail_queue_failures_count")
+            .help("Mail Queue Items Moved To Error Queue Count")
+            .create();
+
+    public MailQueueSamplerImpl(MailQueue mailQueue, MetricFamilies metricFamilies) {
+        this.mailQueue = mailQueue;
+        this.metricFamilies = metricFamilies;
+        this.times = new long[CAPACITY];
+        this.depths = new int[CAPACITY];
+
+        this.threadFactory = defaultThreadFactory();
+        this.executorService = newSingleThreadScheduledExecutor(r -> {
+            Thread thread = threadFactory.newThread(r);
+            thread.setPriority(MIN_PRIORITY);
+            return thread;
+        });
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        executorService.scheduleWithFixedDelay(this::sample, 0, SAMPLE_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    @Override
+    public void destroy() {
+        executorService.shutdownNow();
+    }
+
+    private void sample() {
+        if (!metricFamilies.isEnabled(MetricFamilies.MAIL)) {
+            return;
+        }
+
+        try {
+            int depth = mailQueue.size();
+            int errorDepth = mailQueue.errorSize();
+            Date queued = oldestDateQueued();
+            Date sendingStarted = mailQueue.isSending() ? mailQueue.getSendingStarted() : null;
+            long now = System.currentTimeMillis();
+
+            synchronized (this) {
+                int i = (int) (written % CAPACITY);
+                times[i] = now;
+                depths[i] = depth;
+                written++;
+                if (lastErrorDepth >= 0 && errorDepth > lastErrorDepth) {
+                    failures.inc(errorDepth - lastErrorDepth);
+                }
+                lastErrorDepth = errorDepth;
+            }
+
+            oldestItemAge = (queued != null) ? Math.max(0, now - queued.getTime()) / 1000.0 : 0;
+            sendingSeconds = (sendingStarted != null) ? Math.max(0, now - sendingStarted.getTime()) / 1000.0 : 0;
+        } catch (Exception ex) {
+            log.error("Failed to sample mail queue.", ex);
+        }
+    }
+
+    /**
+     * The queue is ordered by priority first, so its head is not the oldest item and the whole queue is scanned.
+     * The queue iterator works on a copy, so sending may continue meanwhile.
+     */
+    private Date oldestDateQueued() {
+        Date oldest = null;
+        for (MailQueueItem item : mailQueue.getQueue()) {
+            Date queued = item.getDateQueued();
+            if (queued != null && (oldest == null || queued.before(oldest))) {
+                oldest = queued;
+            }
+        }
+        return oldest;
+    }
+
+    @Override
+    public List<Collector.MetricFamilySamples> collect() {
+        int maxDepth = 0;
+        double avgDepth;
+        double drainRate = 0;
+        synchronized (this) {
+            if (written == 0) {
+                return emptyList();
+            }
+
+            long oldest = Math.max(0, written - CAPACITY);
+            long cutoff = times[(int) ((written - 1) % CAPACITY)] - WINDOW_MILLIS;
+            // the window ends at the last sample, so a stopped sampler reports its last minute
+            long from = written - 1;
+            while (from > oldest && times[(int) ((from - 1) % CAPACITY)] > cutoff) {
+                from--;
+            }
+            long sum = 0;
+            for (long n = from; n < written; n++) {
+                int depth = depths[(int) (n % CAPACITY)];
+                maxDepth = Math.max(maxDepth, depth);
+                sum += depth;
+            }
+            avgDepth = (double) sum / (written - from);
+
+            int first = (int) (from % CAPACITY);
+            int last = (int) ((written - 1) % CAPACITY);
+            if (times[last] > times[first]) {
+                drainRate = (depths[first] - depths[last]) / ((times[last] - times[first]) / 1000.0);
+            }
+        }
+
+        List<Collector.MetricFamilySamples> result = new ArrayList<>();
+        result.add(new GaugeMetricFamily("jira_mail_queue_max_depth_gauge", "Mail Queue Max Depth Over Last Minute Gauge", maxDepth));
+        result.add(new GaugeMetricFamily("jira_mail_queue_avg_depth_gauge", "Mail Queue Average Depth Over Last Minute Gauge", avgDepth));
+        result.add(new GaugeMetricFamily("jira_mail_queue_drain_rate_gauge", "Mail Queue Depth Decrease Per Second Over Last Minute Gauge", drainRate));
+        result.add(new GaugeMetricFamily("jira_mail_queue_oldest_item_age_seconds_gauge", "Mail Queue Oldest Item Age In Seconds Gauge", oldestItemAge));
+        result.add(new GaugeMetricFamily("jira_mail_queue_sending_seconds_gauge", "Mail Queue Current Send Duration In Seconds Gauge", sendingSeconds));
+        result.addAll(failures.collect());
+        return result;
+    }
+}
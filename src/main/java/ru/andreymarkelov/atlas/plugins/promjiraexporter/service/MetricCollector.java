@@ -1,19 +1,35 @@
 package ru.andreymarkelov.atlas.plugins.promjiraexporter.service;
 
+import io.prometheus.client.Collector;
 import io.prometheus.client.CollectorRegistry;
+import ru.andreymarkelov.atlas.plugins.promjiraexporter.servlet.CountingResponseWrapper;
 import ru.andreymarkelov.atlas.plugins.promjiraexporter.util.ExceptionRunnable;
 
 import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
 import java.io.IOException;
+import java.util.List;
 
 public interface MetricCollector {
     CollectorRegistry getRegistry();
+    /**
+     * Families of the last completed collection, empty before the first one.
+     */
+    List<Collector.MetricFamilySamples> getLastCollection();
+    /**
+     * Time of the last completed collection in milliseconds, 0 before the first one.
+     */
+    long getLastCollectionMillis();
     void issueUpdateCounter(String projectKey, String eventType, String username);
     void issueViewCounter(String projectKey, String username);
     void userLoginCounter(String username);
     void userLogoutCounter(String username);
     void dashboardViewCounter(Long dashboardId, String username);
-    void requestDuration(String path, ExceptionRunnable runnable) throws IOException, ServletException;
+    /**
+     * Counts the request, its bytes and exceptions, the duration is observed only when {@code timed}.
+     */
+    void requestDuration(String path, HttpServletRequest request, CountingResponseWrapper response, boolean timed, ExceptionRunnable runnable) throws IOException, ServletException;
+    void requestResources(String path, long cpuNanos, long allocatedBytes);
     void pluginEnabledCounter(String pluginKey);
     void pluginDisabledCounter(String pluginKey);
     void pluginUninstalledCounter(String pluginKey);
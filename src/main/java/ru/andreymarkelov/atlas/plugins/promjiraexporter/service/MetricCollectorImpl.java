@@ -14,28 +14,44 @@ import com.atlassian.jira.web.session.currentusers.JiraUserSessionTracker;
 import com.atlassian.mail.queue.MailQueue;
 import com.atlassian.sal.api.license.SingleProductLicenseDetailsView;
 import io.prometheus.client.*;
-import io.prometheus.client.hotspot.DefaultExports;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.InitializingBean;
+import ru.andreymarkelov.atlas.plugins.promjiraexporter.servlet.CountingResponseWrapper;
+import ru.andreymarkelov.atlas.plugins.promjiraexporter.util.CollectorGroup;
 import ru.andreymarkelov.atlas.plugins.promjiraexporter.util.ExceptionRunnable;
 
 import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
 import java.io.IOException;
 import java.lang.management.ManagementFactory;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import static com.atlassian.jira.instrumentation.InstrumentationName.*;
+import static java.util.Arrays.asList;
 import static java.util.Collections.emptyList;
+import static java.util.Collections.singletonList;
+import static java.util.concurrent.Executors.defaultThreadFactory;
+import static java.util.concurrent.Executors.newFixedThreadPool;
 import static java.util.concurrent.TimeUnit.DAYS;
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
-import static org.apache.commons.lang3.StringUtils.isNotBlank;
+import static org.apache.commons.lang3.StringUtils.isBlank;
 
 public class MetricCollectorImpl extends Collector implements MetricCollector, DisposableBean, InitializingBean {
     private static final Logger log = LoggerFactory.getLogger(MetricCollectorImpl.class);
 
+    private static final long COLLECT_DEADLINE_MILLIS = 5000;
+    private static final int COLLECTOR_THREADS = 4;
+
     private final IssueManager issueManager;
     private final JiraUserSessionTracker jiraUserSessionTracker;
     private final ClusterManager clusterManager;
@@ -47,6 +63,31 @@ public class MetricCollectorImpl extends Collector implements MetricCollector, D
     private final InstrumentRegistry instrumentRegistry;
     private final MailQueue mailQueue;
     private final ApplicationRoleManager applicationRoleManager;
+    private final HeavyHitterTracker heavyHitterTracker;
+    private final ActiveUserTracker activeUserTracker;
+    private final JmxMetricBridge jmxMetricBridge;
+    private final CacheStatisticsCollector cacheStatisticsCollector;
+    private final DiskUsageScanner diskUsageScanner;
+    private final PushExporter pushExporter;
+    private final StatusDurationTracker statusDurationTracker;
+    private final SchedulerJobCollector schedulerJobCollector;
+    private final IndexingMetricCollector indexingMetricCollector;
+    private final LatencyProbe latencyProbe;
+    private final ThreadContentionSampler threadContentionSampler;
+    private final JvmMetricCollector jvmMetricCollector;
+    private final DataCenterHealthCollector dataCenterHealthCollector;
+    private final DirectorySyncCollector directorySyncCollector;
+    private final MailQueueSampler mailQueueSampler;
+    private final ProjectEntityCollector projectEntityCollector;
+    private final SearchCanary searchCanary;
+    private final MetricFamilies metricFamilies;
+
+    private final List<CollectorGroup> collectorGroups;
+    private final ExecutorService collectorExecutor;
+    private final Object collectLock = new Object();
+    private CompletableFuture<List<MetricFamilySamples>> inFlightCollection;
+    private volatile List<MetricFamilySamples> lastCollection = emptyList();
+    private volatile long lastCollectionMillis;
 
     public MetricCollectorImpl(
             IssueManager issueManager,
@@ -57,7 +98,25 @@ public class MetricCollectorImpl extends Collector implements MetricCollector, D
             ScheduledMetricEvaluator scheduledMetricEvaluator,
             InstrumentRegistry instrumentRegistry,
             MailQueue mailQueue,
-            ApplicationRoleManager applicationRoleManager) {
+            ApplicationRoleManager applicationRoleManager,
+            HeavyHitterTracker heavyHitterTracker,
+            ActiveUserTracker activeUserTracker,
+            JmxMetricBridge jmxMetricBridge,
+            CacheStatisticsCollector cacheStatisticsCollector,
+            DiskUsageScanner diskUsageScanner,
+            PushExporter pushExporter,
+            StatusDurationTracker statusDurationTracker,
+            SchedulerJobCollector schedulerJobCollector,
+            IndexingMetricCollector indexingMetricCollector,
+            LatencyProbe latencyProbe,
+            ThreadContentionSampler threadContentionSampler,
+            JvmMetricCollector jvmMetricCollector,
+            DataCenterHealthCollector dataCenterHealthCollector,
+            DirectorySyncCollector directorySyncCollector,
+            MailQueueSampler mailQueueSampler,
+            ProjectEntityCollector projectEntityCollector,
+            SearchCanary searchCanary,
+            MetricFamilies metricFamilies) {
         this.issueManager = issueManager;
         this.jiraUserSessionTracker = JiraUserSessionTracker.getInstance();
         this.clusterManager = clusterManager;
@@ -69,6 +128,58 @@ public class MetricCollectorImpl extends Collector implements MetricCollector, D
         this.instrumentRegistry = instrumentRegistry;
         this.mailQueue = mailQueue;
         this.applicationRoleManager = applicationRoleManager;
+        this.heavyHitterTracker = heavyHitterTracker;
+        this.activeUserTracker = activeUserTracker;
+        this.jmxMetricBridge = jmxMetricBridge;
+        this.cacheStatisticsCollector = cacheStatisticsCollector;
+        this.diskUsageScanner = diskUsageScanner;
+        this.pushExporter = pushExporter;
+        this.statusDurationTracker = statusDurationTracker;
+        this.schedulerJobCollector = schedulerJobCollector;
+        this.indexingMetricCollector = indexingMetricCollector;
+        this.latencyProbe = latencyProbe;
+        this.threadContentionSampler = threadContentionSampler;
+        this.jvmMetricCollector = jvmMetricCollector;
+        this.dataCenterHealthCollector = dataCenterHealthCollector;
+        this.directorySyncCollector = directorySyncCollector;
+        this.mailQueueSampler = mailQueueSampler;
+        this.projectEntityCollector = projectEntityCollector;
+        this.searchCanary = searchCanary;
+        this.metricFamilies = metricFamilies;
+
+        this.collectorGroups = asList(
+                new CollectorGroup(MetricFamilies.EVENTS, this::collectEvents),
+                new CollectorGroup(MetricFamilies.REQUESTS, this::collectRequests),
+                new CollectorGroup(MetricFamilies.ISSUES, this::collectIssues),
+                new CollectorGroup(MetricFamilies.SESSIONS, this::collectSessions),
+                new CollectorGroup(MetricFamilies.CLUSTER, this::collectCluster),
+                new CollectorGroup(MetricFamilies.LICENSE, this::collectLicense),
+                new CollectorGroup(MetricFamilies.USERS, this::collectUsers),
+                new CollectorGroup(MetricFamilies.INSTRUMENTS, this::collectInstruments),
+                new CollectorGroup(MetricFamilies.MAIL, this::collectMail),
+                new CollectorGroup(MetricFamilies.SCHEDULED, this::collectScheduled),
+                new CollectorGroup(MetricFamilies.HEAVY_HITTERS, heavyHitterTracker::collect),
+                new CollectorGroup(MetricFamilies.DISTINCT_USERS, activeUserTracker::collect),
+                new CollectorGroup(MetricFamilies.JMX, jmxMetricBridge::collect),
+                new CollectorGroup(MetricFamilies.CACHES, cacheStatisticsCollector::collect),
+                new CollectorGroup(MetricFamilies.DISK_USAGE, diskUsageScanner::collect),
+                new CollectorGroup(MetricFamilies.PUSH, pushExporter::collect),
+                new CollectorGroup(MetricFamilies.STATUS_DURATIONS, statusDurationTracker::collect),
+                new CollectorGroup(MetricFamilies.SCHEDULER, schedulerJobCollector::collect),
+                new CollectorGroup(MetricFamilies.INDEXING, indexingMetricCollector::collect),
+                new CollectorGroup(MetricFamilies.PROBES, latencyProbe::collect),
+                new CollectorGroup(MetricFamilies.THREAD_CONTENTION, threadContentionSampler::collect),
+                new CollectorGroup(MetricFamilies.JVM, jvmMetricCollector::collect),
+                new CollectorGroup(MetricFamilies.DATA_CENTER, dataCenterHealthCollector::collect),
+                new CollectorGroup(MetricFamilies.DIRECTORY_SYNC, directorySyncCollector::collect),
+                new CollectorGroup(MetricFamilies.PROJECT_ENTITIES, projectEntityCollector::collect),
+                new CollectorGroup(MetricFamilies.SEARCH_CANARY, searchCanary::collect));
+        ThreadFactory threadFactory = defaultThreadFactory();
+        this.collectorExecutor = newFixedThreadPool(COLLECTOR_THREADS, r -> {
+            Thread thread = threadFactory.newThread(r);
+            thread.setDaemon(true);
+            return thread;
+        });
     }
 
     //--> Mails
@@ -103,12 +214,70 @@ public class MetricCollectorImpl extends Collector implements MetricCollector, D
             .help("Total Attachments Size Gauge")
             .create();
 
+    //--> Requests
+
+    /**
+     * Max number of distinct paths, all other requests are counted under {@link #OTHER_PATH}.
+     */
+    private static final int MAX_PATHS = 500;
+    private static final String OTHER_PATH = "other";
+    private static final String[] METHODS = { "GET", "POST", "PUT", "DELETE", "HEAD", "OPTIONS", "PATCH", "OTHER" };
+    private static final String[] STATUS_CLASSES = { "1xx", "2xx", "3xx", "4xx", "5xx" };
+
+    private final ConcurrentMap<String, PathMetrics> pathMetrics = new ConcurrentHashMap<>();
+
     private final Histogram requestDurationOnPath = Histogram.build()
             .name("jira_request_duration_on_path")
             .help("Request duration on path")
             .labelNames("path")
             .create();
 
+    private final Counter requestCounter = Counter.build()
+            .name("jira_request_count")
+            .help("Request Count")
+            .labelNames("path", "method", "status")
+            .create();
+
+    private final Gauge requestsInFlightGauge = Gauge.build()
+            .name("jira_requests_in_flight_gauge")
+            .help("Requests In Flight Gauge")
+            .labelNames("path")
+            .create();
+
+    private final Counter requestBytesCounter = Counter.build()
+            .name("jira_request_bytes_count")
+            .help("Request Bytes Count")
+            .labelNames("path")
+            .create();
+
+    private final Counter responseBytesCounter = Counter.build()
+            .name("jira_response_bytes_count")
+            .help("Response Bytes Count")
+            .labelNames("path")
+            .create();
+
+    private final Counter requestExceptionCounter = Counter.build()
+            .name("jira_request_exception_count")
+            .help("Request Exception Count")
+            .labelNames("path", "exception")
+            .create();
+
+    private final Histogram requestCpuHistogram = Histogram.build()
+            .name("jira_request_cpu_seconds")
+            .help("Request CPU Time In Seconds")
+            .labelNames("path")
+            .buckets(0.001, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10)
+            .create();
+
+    private final Histogram requestAllocatedBytesHistogram = Histogram.build()
+            .name("jira_request_allocated_bytes")
+            .help("Request Allocated Bytes")
+            .labelNames("path")
+            .exponentialBuckets(65536, 4, 10)
+            .create();
+
+    //<-- Requests
+
     private final Counter issueUpdateCounter = Counter.build()
             .name("jira_issue_update_count")
             .help("Issue Update Count")
@@ -277,17 +446,142 @@ public class MetricCollectorImpl extends Collector implements MetricCollector, D
             .create();
 
     @Override
-    public void requestDuration(String path, ExceptionRunnable runnable) throws IOException, ServletException {
-        Histogram.Timer level1Timer = isNotBlank(path) ? requestDurationOnPath.labels(path).startTimer() : null;
+    public void requestDuration(
+            String path,
+            HttpServletRequest request,
+            CountingResponseWrapper response,
+            boolean timed,
+            ExceptionRunnable runnable) throws IOException, ServletException {
+        if (isBlank(path)) {
+            runnable.run();
+            return;
+        }
+
+        PathMetrics metrics = getPathMetrics(path);
+        metrics.inFlight.inc();
+        Histogram.Timer timer = timed ? metrics.duration.startTimer() : null;
+        boolean failed = false;
         try {
             runnable.run();
+        } catch (Throwable throwable) {
+            failed = true;
+            requestExceptionCounter.labels(metrics.path, throwable.getClass().getName()).inc();
+            throw throwable;
         } finally {
-            if (level1Timer != null) {
-                level1Timer.observeDuration();
+            if (timer != null) {
+                timer.observeDuration();
+            }
+            metrics.inFlight.dec();
+            metrics.requests(methodIndex(request.getMethod()), failed ? STATUS_CLASSES.length - 1 : statusClassIndex(response.getStatus())).inc();
+            // chunked uploads declare no length and are not counted
+            long requestBytes = request.getContentLengthLong();
+            if (requestBytes > 0) {
+                metrics.requestBytes.inc(requestBytes);
+            }
+            long responseBytes = response.getBytesWritten();
+            if (responseBytes > 0) {
+                metrics.responseBytes.inc(responseBytes);
             }
         }
     }
 
+    @Override
+    public void requestResources(String path, long cpuNanos, long allocatedBytes) {
+        if (isBlank(path)) {
+            return;
+        }
+
+        PathMetrics metrics = getPathMetrics(path);
+        if (cpuNanos >= 0) {
+            metrics.cpu().observe(cpuNanos / 1e9);
+        }
+        if (allocatedBytes >= 0) {
+            metrics.allocatedBytes().observe(allocatedBytes);
+        }
+    }
+
+    private PathMetrics getPathMetrics(String path) {
+        PathMetrics metrics = pathMetrics.get(path);
+        if (metrics != null) {
+            return metrics;
+        }
+        if (pathMetrics.size() >= MAX_PATHS) {
+            path = OTHER_PATH;
+        }
+        return pathMetrics.computeIfAbsent(path, PathMetrics::new);
+    }
+
+    private static int methodIndex(String method) {
+        switch (method) {
+            case "GET": return 0;
+            case "POST": return 1;
+            case "PUT": return 2;
+            case "DELETE": return 3;
+            case "HEAD": return 4;
+            case "OPTIONS": return 5;
+            case "PATCH": return 6;
+            default: return METHODS.length - 1;
+        }
+    }
+
+    private static int statusClassIndex(int status) {
+        return Math.min(Math.max(status / 100 - 1, 0), STATUS_CLASSES.length - 1);
+    }
+
+    /**
+     * Resolved metric children of one path, so a request costs a single map lookup.
+     */
+    private class PathMetrics {
+        private final String path;
+        private final Histogram.Child duration;
+        private final Gauge.Child inFlight;
+        private final Counter.Child requestBytes;
+        private final Counter.Child responseBytes;
+        private final AtomicReferenceArray<Counter.Child> requests;
+        private volatile Histogram.Child cpu;
+        private volatile Histogram.Child allocatedBytes;
+
+        private PathMetrics(String path) {
+            this.path = path;
+            this.duration = requestDurationOnPath.labels(path);
+            this.inFlight = requestsInFlightGauge.labels(path);
+            this.requestBytes = requestBytesCounter.labels(path);
+            this.responseBytes = responseBytesCounter.labels(path);
+            this.requests = new AtomicReferenceArray<>(METHODS.length * STATUS_CLASSES.length);
+        }
+
+        private Counter.Child requests(int method, int statusClass) {
+            int index = method * STATUS_CLASSES.length + statusClass;
+            Counter.Child child = requests.get(index);
+            if (child == null) {
+                child = requestCounter.labels(path, METHODS[method], STATUS_CLASSES[statusClass]);
+                requests.set(index, child);
+            }
+            return child;
+        }
+
+        /**
+         * Resource histograms are resolved on first sample, so paths are not exported while accounting is disabled.
+         */
+        private Histogram.Child cpu() {
+            Histogram.Child child = cpu;
+            if (child == null) {
+                child = requestCpuHistogram.labels(path);
+                cpu = child;
+            }
+            return child;
+        }
+
+        private Histogram.Child allocatedBytes() {
+            Histogram.Child child = allocatedBytes;
+            if (child == null) {
+                child = requestAllocatedBytesHistogram.labels(path);
+                allocatedBytes = child;
+            }
+            return child;
+        }
+    }
+
     @Override
     public void issueUpdateCounter(String projectKey, String eventType, String username) {
         issueUpdateCounter.labels(projectKey, eventType, username).inc();
@@ -476,9 +770,69 @@ public class MetricCollectorImpl extends Collector implements MetricCollector, D
     //------------------------------------------------------------------------------------------------------------------
 
     private List<MetricFamilySamples> collectInternal() {
+        // all groups start together and share one deadline
+        long deadline = System.nanoTime() + MILLISECONDS.toNanos(COLLECT_DEADLINE_MILLIS);
+        List<Future<List<MetricFamilySamples>>> futures = new ArrayList<>(collectorGroups.size());
+        for (CollectorGroup collectorGroup : collectorGroups) {
+            futures.add(metricFamilies.isEnabled(collectorGroup.getName()) ? collectorGroup.start(collectorExecutor) : null);
+        }
+
+        GaugeMetricFamily staleGauge = new GaugeMetricFamily(
+                "jira_collector_stale_gauge",
+                "Collector Group Returned Previous Values Gauge",
+                singletonList("group"));
+        GaugeMetricFamily durationGauge = new GaugeMetricFamily(
+                "jira_collector_duration_seconds_gauge",
+                "Collector Group Last Successful Duration In Seconds Gauge",
+                singletonList("group"));
+        List<MetricFamilySamples> result = new ArrayList<>();
+        for (int i = 0; i < collectorGroups.size(); i++) {
+            CollectorGroup collectorGroup = collectorGroups.get(i);
+            if (futures.get(i) == null) {
+                continue;
+            }
+            result.addAll(collectorGroup.await(futures.get(i), deadline));
+            staleGauge.addMetric(singletonList(collectorGroup.getName()), collectorGroup.isStale() ? 1 : 0);
+            durationGauge.addMetric(singletonList(collectorGroup.getName()), collectorGroup.getLastDurationSeconds());
+        }
+        result.add(staleGauge);
+        result.add(durationGauge);
+        return result;
+    }
+
+    private List<MetricFamilySamples> collectEvents() {
+        List<MetricFamilySamples> result = new ArrayList<>();
+        result.addAll(issueUpdateCounter.collect());
+        result.addAll(issueViewCounter.collect());
+        result.addAll(userLoginCounter.collect());
+        result.addAll(userLogoutCounter.collect());
+        result.addAll(dashboardViewCounter.collect());
+        result.addAll(pluginEnabledCounter.collect());
+        result.addAll(pluginDisabledCounter.collect());
+        result.addAll(pluginUninstalledCounter.collect());
+        return result;
+    }
+
+    private List<MetricFamilySamples> collectRequests() {
+        List<MetricFamilySamples> result = new ArrayList<>();
+        result.addAll(requestDurationOnPath.collect());
+        result.addAll(requestCounter.collect());
+        result.addAll(requestsInFlightGauge.collect());
+        result.addAll(requestBytesCounter.collect());
+        result.addAll(responseBytesCounter.collect());
+        result.addAll(requestExceptionCounter.collect());
+        result.addAll(requestCpuHistogram.collect());
+        result.addAll(requestAllocatedBytesHistogram.collect());
+        return result;
+    }
+
+    private List<MetricFamilySamples> collectIssues() {
         // resolve count issues
         issuesGauge.set(issueManager.getIssueCount());
+        return issuesGauge.collect();
+    }
 
+    private List<MetricFamilySamples> collectSessions() {
         // resolve sessions count
         List<JiraUserSession> snapshot = jiraUserSessionTracker.getSnapshot();
         totalSessionsGauge.set(snapshot.size());
@@ -491,13 +845,45 @@ public class MetricCollectorImpl extends Collector implements MetricCollector, D
         }
         authorizedSessionsGauge.set(countUserSessions);
 
+        List<MetricFamilySamples> result = new ArrayList<>();
+        result.addAll(totalSessionsGauge.collect());
+        result.addAll(authorizedSessionsGauge.collect());
+        return result;
+    }
+
+    private List<MetricFamilySamples> collectCluster() {
         clusterMetrics();
+
+        List<MetricFamilySamples> result = new ArrayList<>();
+        result.addAll(clusterTotalNodesGauge.collect());
+        result.addAll(clusterActiveNodesGauge.collect());
+        result.addAll(clusterHeartbeatCounter.collect());
+        result.addAll(clusterCacheReplicationResumedCounter.collect());
+        result.addAll(clusterCacheReplicationStoppedCounter.collect());
+        return result;
+    }
+
+    private List<MetricFamilySamples> collectLicense() {
         licenseMetrics();
+
+        List<MetricFamilySamples> result = new ArrayList<>();
+        result.addAll(maintenanceExpiryDaysGauge.collect());
+        result.addAll(licenseExpiryDaysGauge.collect());
+        result.addAll(allowedUsersGauge.collect());
+        result.addAll(activeUsersGauge.collect());
+        return result;
+    }
+
+    private List<MetricFamilySamples> collectUsers() {
         usersMetrics();
 
-        // attachment size
-        totalAttachmentSizeGauge.set(scheduledMetricEvaluator.getTotalAttachmentSize());
+        List<MetricFamilySamples> result = new ArrayList<>();
+        result.addAll(allUsersGauge.collect());
+        result.addAll(allActiveUsersGauge.collect());
+        return result;
+    }
 
+    private List<MetricFamilySamples> collectInstruments() {
         // instruments
         Instrument dbcpActive = instrumentRegistry.getInstrument(DBCP_ACTIVE.getInstrumentName());
         Instrument dbcpIdle = instrumentRegistry.getInstrument(DBCP_IDLE.getInstrumentName());
@@ -548,43 +934,7 @@ public class MetricCollectorImpl extends Collector implements MetricCollector, D
         // jvm uptime
         jvmUptimeGauge.set(ManagementFactory.getRuntimeMXBean().getUptime());
 
-        // mail
-        mailQueueGauge.set(mailQueue.size());
-        mailQueueErrorGauge.set(mailQueue.errorSize());
-
-        // collect all metrics
         List<MetricFamilySamples> result = new ArrayList<>();
-        result.addAll(issueUpdateCounter.collect());
-        result.addAll(issueViewCounter.collect());
-        result.addAll(userLoginCounter.collect());
-        result.addAll(userLogoutCounter.collect());
-        result.addAll(dashboardViewCounter.collect());
-        result.addAll(pluginEnabledCounter.collect());
-        result.addAll(pluginDisabledCounter.collect());
-        result.addAll(pluginUninstalledCounter.collect());
-        result.addAll(requestDurationOnPath.collect());
-        result.addAll(issuesGauge.collect());
-        result.addAll(totalSessionsGauge.collect());
-        result.addAll(authorizedSessionsGauge.collect());
-        result.addAll(totalAttachmentSizeGauge.collect());
-
-        // cluster
-        result.addAll(clusterTotalNodesGauge.collect());
-        result.addAll(clusterActiveNodesGauge.collect());
-        result.addAll(clusterHeartbeatCounter.collect());
-        result.addAll(clusterCacheReplicationResumedCounter.collect());
-        result.addAll(clusterCacheReplicationStoppedCounter.collect());
-
-        // license
-        result.addAll(maintenanceExpiryDaysGauge.collect());
-        result.addAll(licenseExpiryDaysGauge.collect());
-        result.addAll(allowedUsersGauge.collect());
-        result.addAll(activeUsersGauge.collect());
-
-        // users
-        result.addAll(allUsersGauge.collect());
-        result.addAll(allActiveUsersGauge.collect());
-
         result.addAll(dbcpNumActiveGauge.collect());
         result.addAll(dbcpNumIdleGauge.collect());
         result.addAll(dbcpMaxActiveGauge.collect());
@@ -608,12 +958,27 @@ public class MetricCollectorImpl extends Collector implements MetricCollector, D
         result.addAll(groupsGauge.collect());
         result.addAll(projectsGauge.collect());
         result.addAll(jvmUptimeGauge.collect());
-        // mails
+        return result;
+    }
+
+    private List<MetricFamilySamples> collectMail() {
+        mailQueueGauge.set(mailQueue.size());
+        mailQueueErrorGauge.set(mailQueue.errorSize());
+
+        List<MetricFamilySamples> result = new ArrayList<>();
         result.addAll(mailQueueGauge.collect());
         result.addAll(mailQueueErrorGauge.collect());
-        // scheduled metrics
-        result.addAll(scheduledMetricEvaluator.collect());
+        result.addAll(mailQueueSampler.collect());
+        return result;
+    }
 
+    private List<MetricFamilySamples> collectScheduled() {
+        // attachment size
+        totalAttachmentSizeGauge.set(scheduledMetricEvaluator.getTotalAttachmentSize());
+
+        List<MetricFamilySamples> result = new ArrayList<>();
+        result.addAll(totalAttachmentSizeGauge.collect());
+        result.addAll(scheduledMetricEvaluator.collect());
         return result;
     }
 
@@ -627,12 +992,12 @@ public class MetricCollectorImpl extends Collector implements MetricCollector, D
     @Override
     public void destroy() {
         this.registry.unregister(this);
+        this.collectorExecutor.shutdownNow();
     }
 
     @Override
     public void afterPropertiesSet() {
         this.registry.register(this);
-        DefaultExports.initialize();
     }
 
     @Override
@@ -640,16 +1005,47 @@ public class MetricCollectorImpl extends Collector implements MetricCollector, D
         return registry;
     }
 
+    @Override
+    public List<MetricFamilySamples> getLastCollection() {
+        return lastCollection;
+    }
+
+    @Override
+    public long getLastCollectionMillis() {
+        return lastCollectionMillis;
+    }
+
     @Override
     public List<MetricFamilySamples> collect() {
+        // concurrent scrapes share one collection
+        CompletableFuture<List<MetricFamilySamples>> collection;
+        boolean owner = false;
+        synchronized (collectLock) {
+            if (inFlightCollection == null) {
+                inFlightCollection = new CompletableFuture<>();
+                owner = true;
+            }
+            collection = inFlightCollection;
+        }
+        if (!owner) {
+            return collection.join();
+        }
+
         long start = System.currentTimeMillis();
         try {
-            return collectInternal();
+            List<MetricFamilySamples> result = collectInternal();
+            lastCollection = result;
+            lastCollectionMillis = System.currentTimeMillis();
+            collection.complete(result);
         } catch (Throwable throwable) {
             log.error("Error collect prometheus metrics", throwable);
-            return emptyList();
+            collection.complete(emptyList());
         } finally {
+            synchronized (collectLock) {
+                inFlightCollection = null;
+            }
             log.debug("Collect execution time is: {}ms", System.currentTimeMillis() - start);
         }
+        return collection.join();
     }
 }
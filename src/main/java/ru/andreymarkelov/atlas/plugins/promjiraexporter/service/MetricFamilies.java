@@ -0,0 +1,46 @@
+package ru.andreymarkelov.atlas.plugins.promjiraexporter.service;
+
+import java.util.List;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.unmodifiableList;
+
+/**
+ * Metric families which can be switched off at runtime, every family is one collector group.
+ */
+public interface MetricFamilies {
+    String EVENTS = "events";
+    String REQUESTS = "requests";
+    String ISSUES = "issues";
+    String SESSIONS = "sessions";
+    String CLUSTER = "cluster";
+    String LICENSE = "license";
+    String USERS = "users";
+    String INSTRUMENTS = "instruments";
+    String MAIL = "mail";
+    String SCHEDULED = "scheduled";
+    String HEAVY_HITTERS = "heavy_hitters";
+    String DISTINCT_USERS = "distinct_users";
+    String JMX = "jmx";
+    String CACHES = "caches";
+    String DISK_USAGE = "disk_usage";
+    String PUSH = "push";
+    String STATUS_DURATIONS = "status_durations";
+    String SCHEDULER = "scheduler";
+    String INDEXING = "indexing";
+    String PROBES = "probes";
+    String THREAD_CONTENTION = "thread_contention";
+    String JVM = "jvm";
+    String DATA_CENTER = "data_center";
+    String DIRECTORY_SYNC = "directory_sync";
+    String PROJECT_ENTITIES = "project_entities";
+    String SEARCH_CANARY = "search_canary";
+
+    List<String> FAMILIES = unmodifiableList(asList(
+            EVENTS, REQUESTS, ISSUES, SESSIONS, CLUSTER, LICENSE, USERS, INSTRUMENTS, MAIL, SCHEDULED,
+            HEAVY_HITTERS, DISTINCT_USERS, JMX, CACHES, DISK_USAGE, PUSH, STATUS_DURATIONS, SCHEDULER,
+            INDEXING, PROBES, THREAD_CONTENTION, JVM, DATA_CENTER, DIRECTORY_SYNC, PROJECT_ENTITIES, SEARCH_CANARY));
+
+    boolean isEnabled(String family);
+    void reloadSettings();
+}
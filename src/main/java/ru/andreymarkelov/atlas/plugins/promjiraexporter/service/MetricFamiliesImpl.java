@@ -0,0 +1,49 @@
+package ru.andreymarkelov.atlas.plugins.promjiraexporter.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.InitializingBean;
+import ru.andreymarkelov.atlas.plugins.promjiraexporter.util.NameListParser;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Set;
+
+/**
+ * Disabled families are stored, so families added by a plugin upgrade are enabled.
+ * Unknown stored names, e.g. of families removed by an upgrade, are logged and ignored.
+ */
+public class MetricFamiliesImpl implements MetricFamilies, InitializingBean {
+    private static final Logger log = LoggerFactory.getLogger(MetricFamiliesImpl.class);
+
+    private final ScrapingSettingsManager scrapingSettingsManager;
+
+    private volatile Set<String> disabledFamilies = Collections.emptySet();
+
+    public MetricFamiliesImpl(ScrapingSettingsManager scrapingSettingsManager) {
+        this.scrapingSettingsManager = scrapingSettingsManager;
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        reloadSettings();
+    }
+
+    @Override
+    public boolean isEnabled(String family) {
+        return !disabledFamilies.contains(family);
+    }
+
+    @Override
+    public void reloadSettings() {
+        Set<String> families = NameListParser.parse(scrapingSettingsManager.getDisabledMetricFamilies());
+        for (Iterator<String> it = families.iterator(); it.hasNext();) {
+            String family = it.next();
+            if (!FAMILIES.contains(family)) {
+                log.warn("Ignore unknown disabled metric family: {}", family);
+                it.remove();
+            }
+        }
+        disabledFamilies = families;
+    }
+}
@@ -0,0 +1,299 @@
+package ru.andreymarkelov.atlas.plugins.promjiraexporter.service;
+
+import com.atlassian.jira.event.type.EventType;
+import com.atlassian.jira.ofbiz.DefaultOfBizConnectionFactory;
+import io.prometheus.client.Collector;
+import io.prometheus.client.GaugeMetricFamily;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import ru.andreymarkelov.atlas.plugins.promjiraexporter.util.RateLimiter;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import static java.lang.Thread.MIN_PRIORITY;
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
+import static java.util.Collections.singletonList;
+import static java.util.concurrent.Executors.defaultThreadFactory;
+import static java.util.concurrent.Executors.newSingleThreadScheduledExecutor;
+
+/**
+ * Counts issues, comments, worklogs, attachments and change groups per project in background. Tables are scanned
+ * once in primary key ranges with throttled queries, afterwards only rows above the last scanned id are counted.
+ * Ids are not committed in order: nodes allocate ids in blocks and transactions commit late, so the last
+ * {@value #RESCAN_MARGIN} ids of every table are counted again on every refresh instead of being kept.
+ * Deletes and moves are not visible to the id watermark either, so projects with such issue events are recounted,
+ * and everything is rebuilt once a day.
+ */
+public class ProjectEntityCollectorImpl implements ProjectEntityCollector, InitializingBean, DisposableBean {
+    private static final Logger log = LoggerFactory.getLogger(ProjectEntityCollectorImpl.class);
+
+    private static final long REFRESH_DELAY_MINUTES = 10;
+    private static final long REBUILD_INTERVAL_MILLIS = TimeUnit.DAYS.toMillis(1);
+    private static final int BATCH_SIZE = 20000;
+    private static final long RESCAN_MARGIN = 20000;
+    private static final int QUERIES_PER_SECOND = 4;
+    private static final int QUERY_TIMEOUT_SECONDS = 60;
+
+    private static final List<EntityTable> TABLES = asList(
+            new EntityTable("issues", "jiraissue", null),
+            new EntityTable("comments", "jiraaction", "x.actiontype = 'comment'"),
+            new EntityTable("worklogs", "worklog", null),
+            new EntityTable("attachments", "fileattachment", null),
+            new EntityTable("changegroups", "changegroup", null));
+
+    private final ScrapingSettingsManager scrapingSettingsManager;
+    private final MetricFamilies metricFamilies;
+    private final RateLimiter rateLimiter;
+    private final Set<Long> dirtyProjects;
+
+    private Map<Long, long[]> counts;
+    private long[] watermarks;
+    private long lastRebuild;
+    private volatile List<Collector.MetricFamilySamples> snapshot = emptyList();
+
+    private final ThreadFactory threadFactory;
+    private final ScheduledExecutorService executorService;
+
+    public ProjectEntityCollectorImpl(ScrapingSettingsManager scrapingSettingsManager, MetricFamilies metricFamilies) {
+        this.scrapingSettingsManager = scrapingSettingsManager;
+        this.metricFamilies = metricFamilies;
+        this.rateLimiter = new RateLimiter(QUERIES_PER_SECOND);
+        this.dirtyProjects = ConcurrentHashMap.newKeySet();
+        this.counts = new HashMap<>();
+        this.watermarks = new long[TABLES.size()];
+
+        this.threadFactory = defaultThreadFactory();
+        this.executorService = newSingleThreadScheduledExecutor(r -> {
+            Thread thread = threadFactory.newThread(r);
+            thread.setPriority(MIN_PRIORITY);
+            return thread;
+        });
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        executorService.scheduleWithFixedDelay(this::refresh, 1, REFRESH_DELAY_MINUTES, TimeUnit.MINUTES);
+    }
+
+    @Override
+    public void destroy() {
+        executorService.shutdownNow();
+    }
+
+    @Override
+    public void issueEvent(Long projectId, Long eventTypeId) {
+        if (projectId == null) {
+            return;
+        }
+        // a moved issue is only known in its new project, the old one is corrected by the next rebuild
+        if (EventType.ISSUE_DELETED_ID.equals(eventTypeId)
+                || EventType.ISSUE_MOVED_ID.equals(eventTypeId)
+                || EventType.ISSUE_COMMENT_DELETED_ID.equals(eventTypeId)
+                || EventType.ISSUE_WORKLOG_DELETED_ID.equals(eventTypeId)) {
+            dirtyProjects.add(projectId);
+        }
+    }
+
+    @Override
+    public List<Collector.MetricFamilySamples> collect() {
+        return snapshot;
+    }
+
+    private void refresh() {
+        int maxProjects = scrapingSettingsManager.getMaxProjects();
+        if (!metricFamilies.isEnabled(MetricFamilies.PROJECT_ENTITIES) || maxProjects <= 0) {
+            // changes are not followed while disabled
+            snapshot = emptyList();
+            lastRebuild = 0;
+            return;
+        }
+
+        try {
+            long now = System.currentTimeMillis();
+            Map<Long, long[]> recentCounts;
+            if (now - lastRebuild >= REBUILD_INTERVAL_MILLIS) {
+                Map<Long, long[]> rebuiltCounts = new HashMap<>();
+                long[] rebuiltWatermarks = new long[TABLES.size()];
+                dirtyProjects.clear();
+                recentCounts = scan(rebuiltCounts, rebuiltWatermarks);
+                counts = rebuiltCounts;
+                watermarks = rebuiltWatermarks;
+                lastRebuild = now;
+            } else {
+                recentCounts = scan(counts, watermarks);
+            }
+            recountDirtyProjects();
+            snapshot = export(maxProjects, recentCounts);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (Exception ex) {
+            log.error("Failed to count project entities.", ex);
+        }
+    }
+
+    /**
+     * Counts rows up to {@value #RESCAN_MARGIN} ids below the largest id into the kept counts, the watermark moves
+     * with every range, so an interrupted scan continues where it stopped. Rows above are returned as recent counts.
+     */
+    private Map<Long, long[]> scan(Map<Long, long[]> counts, long[] watermarks) throws InterruptedException, SQLException {
+        Map<Long, long[]> recentCounts = new HashMap<>();
+        for (int t = 0; t < TABLES.size(); t++) {
+            rateLimiter.acquire(1);
+            long maxId = queryLong(TABLES.get(t).maxIdSql);
+            scanRange(t, watermarks[t], maxId - RESCAN_MARGIN, counts, watermarks);
+            scanRange(t, watermarks[t], maxId, recentCounts, null);
+        }
+        return recentCounts;
+    }
+
+    private void scanRange(int t, long from, long to, Map<Long, long[]> counts, long[] watermarks)
+            throws InterruptedException, SQLException {
+        EntityTable table = TABLES.get(t);
+        while (from < to) {
+            rateLimiter.acquire(1);
+            long end = Math.min(from + BATCH_SIZE, to);
+            boolean found = false;
+            try (Connection connection = new DefaultOfBizConnectionFactory().getConnection();
+                 PreparedStatement statement = prepare(connection, table.rangeSql, from, end);
+                 ResultSet rs = statement.executeQuery()) {
+                while (rs.next()) {
+                    projectCounts(counts, rs.getLong(1))[t] += rs.getLong(2);
+                    found = true;
+                }
+            }
+            from = end;
+
+            if (!found && from < to) {
+                // skip gaps in id allocation instead of scanning them range by range
+                rateLimiter.acquire(1);
+                long next = queryLong(table.nextIdSql, from);
+                from = (next > 0) ? Math.min(next - 1, to) : to;
+            }
+            if (watermarks != null) {
+                watermarks[t] = from;
+            }
+        }
+    }
+
+    private static long[] projectCounts(Map<Long, long[]> counts, long projectId) {
+        long[] projectCounts = counts.get(projectId);
+        if (projectCounts == null) {
+            projectCounts = new long[TABLES.size()];
+            counts.put(projectId, projectCounts);
+        }
+        return projectCounts;
+    }
+
+    private void recountDirtyProjects() throws InterruptedException, SQLException {
+        for (Long projectId : new ArrayList<>(dirtyProjects)) {
+            long[] projectCounts = new long[TABLES.size()];
+            for (int t = 0; t < TABLES.size(); t++) {
+                rateLimiter.acquire(1);
+                // rows above the watermark are counted again by every scan
+                projectCounts[t] = queryLong(TABLES.get(t).projectSql, projectId, watermarks[t]);
+            }
+            counts.put(projectId, projectCounts);
+            dirtyProjects.remove(projectId);
+        }
+    }
+
+    private List<Collector.MetricFamilySamples> export(int maxProjects, Map<Long, long[]> recentCounts)
+            throws InterruptedException, SQLException {
+        Map<Long, String> projectKeys = new HashMap<>();
+        rateLimiter.acquire(1);
+        try (Connection connection = new DefaultOfBizConnectionFactory().getConnection();
+             PreparedStatement statement = prepare(connection, "select id, pkey from project");
+             ResultSet rs = statement.executeQuery()) {
+            while (rs.next()) {
+                projectKeys.put(rs.getLong(1), rs.getString(2));
+            }
+        }
+
+        Map<Long, long[]> totals = new HashMap<>();
+        for (Map<Long, long[]> part : asList(counts, recentCounts)) {
+            for (Map.Entry<Long, long[]> entry : part.entrySet()) {
+                long[] projectCounts = projectCounts(totals, entry.getKey());
+                for (int t = 0; t < TABLES.size(); t++) {
+                    projectCounts[t] += entry.getValue()[t];
+                }
+            }
+        }
+
+        // keep the projects with the most issues
+        List<Map.Entry<Long, long[]>> projects = new ArrayList<>();
+        for (Map.Entry<Long, long[]> entry : totals.entrySet()) {
+            if (projectKeys.containsKey(entry.getKey())) {
+                projects.add(entry);
+            }
+        }
+        projects.sort((first, second) -> Long.compare(second.getValue()[0], first.getValue()[0]));
+        if (projects.size() > maxProjects) {
+            projects = projects.subList(0, maxProjects);
+        }
+
+        GaugeMetricFamily projectEntities = new GaugeMetricFamily(
+                "jira_project_entities",
+                "Project Entities Count",
+                asList("projectKey", "type"));
+        for (Map.Entry<Long, long[]> entry : projects) {
+            String projectKey = projectKeys.get(entry.getKey());
+            for (int t = 0; t < TABLES.size(); t++) {
+                projectEntities.addMetric(asList(projectKey, TABLES.get(t).type), entry.getValue()[t]);
+            }
+        }
+        return singletonList(projectEntities);
+    }
+
+    private static long queryLong(String sql, long... parameters) throws SQLException {
+        try (Connection connection = new DefaultOfBizConnectionFactory().getConnection();
+             PreparedStatement statement = prepare(connection, sql, parameters);
+             ResultSet rs = statement.executeQuery()) {
+            return rs.next() ? rs.getLong(1) : 0;
+        }
+    }
+
+    private static PreparedStatement prepare(Connection connection, String sql, long... parameters) throws SQLException {
+        PreparedStatement statement = connection.prepareStatement(sql);
+        statement.setQueryTimeout(QUERY_TIMEOUT_SECONDS);
+        for (int i = 0; i < parameters.length; i++) {
+            statement.setLong(i + 1, parameters[i]);
+        }
+        return statement;
+    }
+
+    private static class EntityTable {
+        private final String type;
+        private final String maxIdSql;
+        private final String nextIdSql;
+        private final String rangeSql;
+        private final String projectSql;
+
+        private EntityTable(String type, String table, String condition) {
+            boolean issues = "jiraissue".equals(table);
+            String from = issues ? " from jiraissue x" : " from " + table + " x join jiraissue i on i.id = x.issueid";
+            String project = issues ? "x.project" : "i.project";
+            String filter = (condition != null) ? " and " + condition : "";
+
+            this.type = type;
+            this.maxIdSql = "select max(id) from " + table;
+            this.nextIdSql = "select min(id) from " + table + " where id > ?";
+            this.rangeSql = "select " + project + ", count(*)" + from + " where x.id > ? and x.id <= ?" + filter + " group by " + project;
+            this.projectSql = "select count(*)" + from + " where " + project + " = ? and x.id <= ?" + filter;
+        }
+    }
+}
@@ -0,0 +1,330 @@
+package ru.andreymarkelov.atlas.plugins.promjiraexporter.service;
+
+import io.prometheus.client.Collector;
+import io.prometheus.client.CollectorRegistry;
+import io.prometheus.client.Counter;
+import io.prometheus.client.Gauge;
+import io.prometheus.client.Histogram;
+import io.prometheus.client.exporter.PushGateway;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import ru.andreymarkelov.atlas.plugins.promjiraexporter.util.RemoteWriteEncoder;
+import ru.andreymarkelov.atlas.plugins.promjiraexporter.util.Snappy;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static java.lang.Thread.MIN_PRIORITY;
+import static java.util.concurrent.Executors.defaultThreadFactory;
+import static java.util.concurrent.Executors.newSingleThreadExecutor;
+import static java.util.concurrent.Executors.newSingleThreadScheduledExecutor;
+import static ru.andreymarkelov.atlas.plugins.promjiraexporter.service.PushSettingsManager.MODE_PUSHGATEWAY;
+import static ru.andreymarkelov.atlas.plugins.promjiraexporter.service.PushSettingsManager.MODE_REMOTE_WRITE;
+
+/**
+ * Pushes the default registry to a remote write endpoint or a Pushgateway. Requests go through a bounded queue,
+ * the oldest request is dropped when the queue is full and failed requests are retried with exponential backoff.
+ */
+public class PushExporterImpl implements PushExporter, InitializingBean, DisposableBean {
+    private static final Logger log = LoggerFactory.getLogger(PushExporterImpl.class);
+
+    private static final String JOB = "jira";
+    private static final int BATCH_SIZE = 1000;
+    private static final int QUEUE_CAPACITY = 50;
+    private static final int MAX_ATTEMPTS = 5;
+    private static final long INITIAL_BACKOFF_MILLIS = 1000;
+    private static final long MAX_BACKOFF_MILLIS = 60000;
+    private static final int TIMEOUT_MILLIS = 10000;
+
+    private final PushSettingsManager pushSettingsManager;
+    private final CollectorRegistry registry;
+    private final BlockingQueue<PushRequest> queue;
+    private final String instance;
+
+    /**
+     * Scheduled executor to build requests and executor to send them.
+     */
+    private final ThreadFactory threadFactory;
+    private final ScheduledExecutorService executorService;
+    private final ExecutorService senderService;
+
+    private ScheduledFuture<?> pusher;
+    private final Lock lock;
+
+    //--> Metrics
+
+    private final Histogram pushDuration = Histogram.build()
+            .name("jira_push_duration_seconds")
+            .help("Push Duration")
+            .labelNames("mode")
+            .create();
+
+    private final Counter pushFailuresCounter = Counter.build()
+            .name("jira_push_failures_count")
+            .help("Push Failures Count")
+            .labelNames("mode")
+            .create();
+
+    private final Counter pushDroppedCounter = Counter.build()
+            .name("jira_push_dropped_count")
+            .help("Push Dropped Requests Count")
+            .labelNames("mode")
+            .create();
+
+    private final Counter pushSeriesCounter = Counter.build()
+            .name("jira_push_series_count")
+            .help("Push Series Count")
+            .create();
+
+    private final Gauge pushQueueGauge = Gauge.build()
+            .name("jira_push_queue_gauge")
+            .help("Push Queue Size Gauge")
+            .create();
+
+    //<-- Metrics
+
+    public PushExporterImpl(PushSettingsManager pushSettingsManager) {
+        this.pushSettingsManager = pushSettingsManager;
+        this.registry = CollectorRegistry.defaultRegistry;
+        this.queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        this.instance = resolveInstance();
+
+        this.threadFactory = defaultThreadFactory();
+        this.executorService = newSingleThreadScheduledExecutor(r -> {
+            Thread thread = threadFactory.newThread(r);
+            thread.setPriority(MIN_PRIORITY);
+            return thread;
+        });
+        this.senderService = newSingleThreadExecutor(r -> {
+            Thread thread = threadFactory.newThread(r);
+            thread.setPriority(MIN_PRIORITY);
+            return thread;
+        });
+        this.lock = new ReentrantLock();
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        senderService.execute(this::sendLoop);
+        restartPushing();
+    }
+
+    @Override
+    public void destroy() {
+        executorService.shutdownNow();
+        senderService.shutdownNow();
+    }
+
+    @Override
+    public void restartPushing() {
+        lock.lock();
+        try {
+            if (pusher != null) {
+                pusher.cancel(false);
+                pusher = null;
+            }
+            queue.clear();
+
+            String mode = pushSettingsManager.getMode();
+            int interval = pushSettingsManager.getInterval();
+            if ((MODE_REMOTE_WRITE.equals(mode) || MODE_PUSHGATEWAY.equals(mode)) && interval > 0) {
+                pusher = executorService.scheduleWithFixedDelay(() -> push(mode, pushSettingsManager.getUrl()), interval, interval, TimeUnit.SECONDS);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void push(String mode, String url) {
+        try {
+            if (MODE_REMOTE_WRITE.equals(mode)) {
+                enqueueRemoteWrite(url);
+            } else {
+                Map<String, String> groupingKey = Collections.singletonMap("instance", instance);
+                enqueue(new PushRequest(mode, () -> new PushGateway(new URL(url)).push(registry, JOB, groupingKey)));
+            }
+        } catch (Exception ex) {
+            log.error("Failed to prepare metrics push.", ex);
+        }
+    }
+
+    private void enqueueRemoteWrite(String url) {
+        long timestamp = System.currentTimeMillis();
+        RemoteWriteEncoder encoder = new RemoteWriteEncoder();
+        Enumeration<Collector.MetricFamilySamples> families = registry.metricFamilySamples();
+        while (families.hasMoreElements()) {
+            for (Collector.MetricFamilySamples.Sample sample : families.nextElement().samples) {
+                List<String> labelNames = new ArrayList<>(sample.labelNames.size() + 3);
+                List<String> labelValues = new ArrayList<>(sample.labelNames.size() + 3);
+                labelNames.add("__name__");
+                labelValues.add(sample.name);
+                if (!sample.labelNames.contains("job")) {
+                    labelNames.add("job");
+                    labelValues.add(JOB);
+                }
+                if (!sample.labelNames.contains("instance")) {
+                    labelNames.add("instance");
+                    labelValues.add(instance);
+                }
+                labelNames.addAll(sample.labelNames);
+                labelValues.addAll(sample.labelValues);
+                encoder.addSeries(labelNames, labelValues, sample.value, timestamp);
+
+                if (encoder.getSeriesCount() >= BATCH_SIZE) {
+                    enqueueRemoteWrite(url, encoder);
+                }
+            }
+        }
+        if (encoder.getSeriesCount() > 0) {
+            enqueueRemoteWrite(url, encoder);
+        }
+    }
+
+    private void enqueueRemoteWrite(String url, RemoteWriteEncoder encoder) {
+        byte[] request = encoder.toByteArray();
+        byte[] body = Snappy.compress(request, request.length);
+        int series = encoder.getSeriesCount();
+        encoder.reset();
+        enqueue(new PushRequest(MODE_REMOTE_WRITE, () -> {
+            postRemoteWrite(url, body);
+            pushSeriesCounter.inc(series);
+        }));
+    }
+
+    private void enqueue(PushRequest request) {
+        while (!queue.offer(request)) {
+            PushRequest dropped = queue.poll();
+            if (dropped != null) {
+                pushDroppedCounter.labels(dropped.mode).inc();
+            }
+        }
+        pushQueueGauge.set(queue.size());
+    }
+
+    private void sendLoop() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                PushRequest request = queue.take();
+                pushQueueGauge.set(queue.size());
+                send(request);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void send(PushRequest request) throws InterruptedException {
+        long backoff = INITIAL_BACKOFF_MILLIS;
+        for (int attempt = 1; attempt <= MAX_ATTEMPTS; attempt++) {
+            Histogram.Timer timer = pushDuration.labels(request.mode).startTimer();
+            try {
+                request.sender.send();
+                return;
+            } catch (NonRetryableException ex) {
+                pushFailuresCounter.labels(request.mode).inc();
+                log.error("Metrics push rejected.", ex);
+                break;
+            } catch (Exception ex) {
+                pushFailuresCounter.labels(request.mode).inc();
+                log.debug("Metrics push failed, attempt {}.", attempt, ex);
+            } finally {
+                timer.observeDuration();
+            }
+            if (attempt < MAX_ATTEMPTS) {
+                TimeUnit.MILLISECONDS.sleep(backoff);
+                backoff = Math.min(backoff * 2, MAX_BACKOFF_MILLIS);
+            }
+        }
+        pushDroppedCounter.labels(request.mode).inc();
+        log.warn("Dropped metrics push to {} endpoint.", request.mode);
+    }
+
+    private static void postRemoteWrite(String url, byte[] body) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        connection.setConnectTimeout(TIMEOUT_MILLIS);
+        connection.setReadTimeout(TIMEOUT_MILLIS);
+        connection.setRequestProperty("Content-Type", "application/x-protobuf");
+        connection.setRequestProperty("Content-Encoding", "snappy");
+        connection.setRequestProperty("X-Prometheus-Remote-Write-Version", "0.1.0");
+        connection.setFixedLengthStreamingMode(body.length);
+        try (OutputStream outputStream = connection.getOutputStream()) {
+            outputStream.write(body);
+        }
+
+        int code = connection.getResponseCode();
+        try (InputStream inputStream = (code < 400) ? connection.getInputStream() : connection.getErrorStream()) {
+            if (inputStream != null) {
+                while (inputStream.read() >= 0) {
+                    // drain to reuse the connection
+                }
+            }
+        }
+        if (code >= 400 && code < 500 && code != 429) {
+            throw new NonRetryableException("Remote write returned " + code);
+        }
+        if (code >= 300) {
+            throw new IOException("Remote write returned " + code);
+        }
+    }
+
+    private static String resolveInstance() {
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (IOException e) {
+            return "unknown";
+        }
+    }
+
+    @Override
+    public List<Collector.MetricFamilySamples> collect() {
+        List<Collector.MetricFamilySamples> result = new ArrayList<>();
+        result.addAll(pushDuration.collect());
+        result.addAll(pushFailuresCounter.collect());
+        result.addAll(pushDroppedCounter.collect());
+        result.addAll(pushSeriesCounter.collect());
+        result.addAll(pushQueueGauge.collect());
+        return result;
+    }
+
+    private interface Sender {
+        void send() throws IOException;
+    }
+
+    private static class PushRequest {
+        private final String mode;
+        private final Sender sender;
+
+        private PushRequest(String mode, Sender sender) {
+            this.mode = mode;
+            this.sender = sender;
+        }
+    }
+
+    private static class NonRetryableException extends IOException {
+        private NonRetryableException(String message) {
+            super(message);
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package ru.andreymarkelov.atlas.plugins.promjiraexporter.service;
+
+public interface PushSettingsManager {
+    String MODE_OFF = "off";
+    String MODE_REMOTE_WRITE = "remote_write";
+    String MODE_PUSHGATEWAY = "pushgateway";
+
+    String getMode();
+    void setMode(String mode);
+    String getUrl();
+    void setUrl(String url);
+    int getInterval();
+    void setInterval(int interval);
+}
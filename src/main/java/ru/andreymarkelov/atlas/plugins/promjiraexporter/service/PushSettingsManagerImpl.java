@@ -0,0 +1,53 @@
+package ru.andreymarkelov.atlas.plugins.promjiraexporter.service;
+
+import com.atlassian.sal.api.pluginsettings.PluginSettings;
+import com.atlassian.sal.api.pluginsettings.PluginSettingsFactory;
+
+import static org.apache.commons.lang3.math.NumberUtils.toInt;
+
+public class PushSettingsManagerImpl implements PushSettingsManager {
+    private static final int DEFAULT_PUSH_INTERVAL = 60;
+
+    private final PluginSettings pluginSettings;
+
+    public PushSettingsManagerImpl(PluginSettingsFactory pluginSettingsFactory) {
+        this.pluginSettings = pluginSettingsFactory.createSettingsForKey("PLUGIN_PROMETHEUS_FOR_JIRA");
+    }
+
+    @Override
+    public String getMode() {
+        Object storedValue = getPluginSettings().get("pushMode");
+        return storedValue != null ? storedValue.toString() : MODE_OFF;
+    }
+
+    @Override
+    public void setMode(String mode) {
+        getPluginSettings().put("pushMode", mode);
+    }
+
+    @Override
+    public String getUrl() {
+        Object storedValue = getPluginSettings().get("pushUrl");
+        return storedValue != null ? storedValue.toString() : "";
+    }
+
+    @Override
+    public void setUrl(String url) {
+        getPluginSettings().put("pushUrl", url);
+    }
+
+    @Override
+    public int getInterval() {
+        Object storedValue = getPluginSettings().get("pushInterval");
+        return storedValue != null ? toInt(storedValue.toString(), DEFAULT_PUSH_INTERVAL) : DEFAULT_PUSH_INTERVAL;
+    }
+
+    @Override
+    public void setInterval(int interval) {
+        getPluginSettings().put("pushInterval", String.valueOf(interval));
+    }
+
+    private synchronized PluginSettings getPluginSettings() {
+        return pluginSettings;
+    }
+}
@@ -0,0 +1,13 @@
+package ru.andreymarkelov.atlas.plugins.promjiraexporter.service;
+
+public interface RequestSamplingRules {
+    /**
+     * Returns N to time 1 in N requests on this path, 0 means the path is neither timed nor counted.
+     */
+    int getSampleRate(String path);
+    /**
+     * Returns N to measure CPU time and allocations of 1 in N timed requests, 0 means disabled.
+     */
+    int getResourceSampleRate();
+    void reloadRules();
+}
@@ -0,0 +1,66 @@
+package ru.andreymarkelov.atlas.plugins.promjiraexporter.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.InitializingBean;
+import ru.andreymarkelov.atlas.plugins.promjiraexporter.util.PrefixTrie;
+import ru.andreymarkelov.atlas.plugins.promjiraexporter.util.RequestRuleParser;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class RequestSamplingRulesImpl implements RequestSamplingRules, InitializingBean {
+    private static final Logger log = LoggerFactory.getLogger(RequestSamplingRulesImpl.class);
+
+    /**
+     * Static web-resources and the exporter itself are never timed, configured rules can override them.
+     */
+    private static final String[] DEFAULT_IGNORED_PREFIXES = {
+            "/s/",
+            "/download/resources/",
+            "/download/batch/",
+            "/download/contextbatch/",
+            "/images/",
+            "/favicon.ico",
+            "/plugins/servlet/prometheus/metrics"
+    };
+
+    private final ScrapingSettingsManager scrapingSettingsManager;
+
+    private volatile PrefixTrie rules;
+    private volatile int resourceSampleRate;
+
+    public RequestSamplingRulesImpl(ScrapingSettingsManager scrapingSettingsManager) {
+        this.scrapingSettingsManager = scrapingSettingsManager;
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        reloadRules();
+    }
+
+    @Override
+    public int getSampleRate(String path) {
+        return (path != null) ? rules.longestMatch(path, 1) : 1;
+    }
+
+    @Override
+    public int getResourceSampleRate() {
+        return resourceSampleRate;
+    }
+
+    @Override
+    public void reloadRules() {
+        Map<String, Integer> prefixes = new LinkedHashMap<>();
+        for (String prefix : DEFAULT_IGNORED_PREFIXES) {
+            prefixes.put(prefix, 0);
+        }
+        try {
+            prefixes.putAll(RequestRuleParser.parse(scrapingSettingsManager.getRequestRules()));
+        } catch (IllegalArgumentException ex) {
+            log.error("Invalid request rules, only default rules are used.", ex);
+        }
+        rules = new PrefixTrie(prefixes);
+        resourceSampleRate = Math.max(scrapingSettingsManager.getResourceSampleRate(), 0);
+    }
+}
@@ -0,0 +1,17 @@
+package ru.andreymarkelov.atlas.plugins.promjiraexporter.service;
+
+import java.util.List;
+
+public interface RollupStore {
+    int MAX_SERIES = 32;
+
+    List<String> getSeries();
+
+    /**
+     * Returns points as {@code [timestamp in seconds, value]} averaged over steps of whole minutes, empty steps are skipped.
+     * Counters, histogram and summary counts and sums are stored as per second rates.
+     */
+    List<double[]> query(String series, long fromSeconds, long toSeconds, int stepSeconds);
+
+    void reloadSettings();
+}
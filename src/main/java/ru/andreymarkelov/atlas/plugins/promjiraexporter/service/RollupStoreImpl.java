@@ -0,0 +1,231 @@
+package ru.andreymarkelov.atlas.plugins.promjiraexporter.service;
+
+import io.prometheus.client.Collector;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import ru.andreymarkelov.atlas.plugins.promjiraexporter.util.NameListParser;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import static java.lang.Thread.MIN_PRIORITY;
+import static java.util.concurrent.Executors.defaultThreadFactory;
+import static java.util.concurrent.Executors.newSingleThreadScheduledExecutor;
+
+/**
+ * Keeps 1-minute values of configured series for the last 24 hours in ring buffers of primitive arrays.
+ * A series is the sum of all samples with the configured sample name, so its labels do not multiply memory.
+ * Values are taken from the last scrape or push instead of collecting again, so a minute without a new
+ * collection has no value.
+ * Every series takes {@value #SLOTS} doubles (11.25 KB) plus 11.25 KB of minute stamps shared by all series,
+ * with at most {@value #MAX_SERIES} series the store is bounded by about 370 KB.
+ */
+public class RollupStoreImpl implements RollupStore, InitializingBean, DisposableBean {
+    private static final Logger log = LoggerFactory.getLogger(RollupStoreImpl.class);
+
+    private static final int SLOTS = 24 * 60;
+    private static final long MINUTE_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    private final ScrapingSettingsManager scrapingSettingsManager;
+    private final MetricCollector metricCollector;
+
+    private final long[] minutes;
+    private volatile Series[] series;
+    private long lastRecordedCollection;
+
+    private final ThreadFactory threadFactory;
+    private final ScheduledExecutorService executorService;
+
+    public RollupStoreImpl(ScrapingSettingsManager scrapingSettingsManager, MetricCollector metricCollector) {
+        this.scrapingSettingsManager = scrapingSettingsManager;
+        this.metricCollector = metricCollector;
+        this.minutes = new long[SLOTS];
+        Arrays.fill(minutes, -1);
+        this.series = new Series[0];
+
+        this.threadFactory = defaultThreadFactory();
+        this.executorService = newSingleThreadScheduledExecutor(r -> {
+            Thread thread = threadFactory.newThread(r);
+            thread.setPriority(MIN_PRIORITY);
+            return thread;
+        });
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        reloadSettings();
+        long delay = MINUTE_MILLIS - System.currentTimeMillis() % MINUTE_MILLIS;
+        executorService.scheduleAtFixedRate(this::record, delay, MINUTE_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void destroy() {
+        executorService.shutdownNow();
+    }
+
+    /**
+     * Series which stay configured keep their history.
+     */
+    @Override
+    public synchronized void reloadSettings() {
+        Map<String, Series> existing = new HashMap<>();
+        for (Series current : series) {
+            existing.put(current.name, current);
+        }
+
+        List<Series> result = new ArrayList<>();
+        for (String name : NameListParser.parse(scrapingSettingsManager.getRollupSeries())) {
+            if (result.size() >= MAX_SERIES) {
+                break;
+            }
+            Series current = existing.get(name);
+            result.add((current != null) ? current : new Series(name));
+        }
+        series = result.toArray(new Series[0]);
+    }
+
+    @Override
+    public List<String> getSeries() {
+        List<String> result = new ArrayList<>();
+        for (Series current : series) {
+            result.add(current.name);
+        }
+        return result;
+    }
+
+    private void record() {
+        Series[] current = series;
+        if (current.length == 0) {
+            return;
+        }
+
+        long minute = System.currentTimeMillis() / MINUTE_MILLIS;
+        long collectedAt = metricCollector.getLastCollectionMillis();
+        Set<String> names = new HashSet<>(getSeries());
+        Map<String, double[]> sums = new HashMap<>();
+        try {
+            // a collection is recorded once, the same values again would turn counters into a zero rate
+            List<Collector.MetricFamilySamples> families = (collectedAt > lastRecordedCollection)
+                    ? metricCollector.getLastCollection() : Collections.emptyList();
+            lastRecordedCollection = collectedAt;
+            for (Collector.MetricFamilySamples family : families) {
+                for (Collector.MetricFamilySamples.Sample sample : family.samples) {
+                    if (names.contains(sample.name)) {
+                        double[] sum = sums.computeIfAbsent(sample.name, n -> new double[2]);
+                        sum[0] += sample.value;
+                        sum[1] = isMonotonic(family, sample) ? 1 : 0;
+                    }
+                }
+            }
+        } catch (Exception ex) {
+            log.error("Failed to record rollups.", ex);
+            return;
+        }
+
+        synchronized (this) {
+            int slot = (int) (minute % SLOTS);
+            minutes[slot] = minute;
+            for (Series s : series) {
+                double[] sum = sums.get(s.name);
+                s.values[slot] = (sum != null) ? s.next(collectedAt, sum[0], sum[1] > 0) : Double.NaN;
+            }
+        }
+    }
+
+    private static boolean isMonotonic(Collector.MetricFamilySamples family, Collector.MetricFamilySamples.Sample sample) {
+        switch (family.type) {
+            case COUNTER:
+                return true;
+            case HISTOGRAM:
+            case SUMMARY:
+                // quantiles of a summary are named as the family
+                return !sample.name.equals(family.name);
+            default:
+                return false;
+        }
+    }
+
+    @Override
+    public synchronized List<double[]> query(String name, long fromSeconds, long toSeconds, int stepSeconds) {
+        Series found = null;
+        for (Series current : series) {
+            if (current.name.equals(name)) {
+                found = current;
+            }
+        }
+        if (found == null || toSeconds < fromSeconds) {
+            return Collections.emptyList();
+        }
+
+        long step = Math.max(1, (stepSeconds + 59) / 60);
+        long lastMinute = System.currentTimeMillis() / MINUTE_MILLIS;
+        long fromMinute = Math.max(fromSeconds / 60, lastMinute - SLOTS + 1);
+        long toMinute = Math.min(toSeconds / 60, lastMinute);
+
+        List<double[]> result = new ArrayList<>();
+        double sum = 0;
+        int count = 0;
+        long bucket = fromMinute;
+        for (long minute = fromMinute; minute <= toMinute; minute++) {
+            if (minute - bucket >= step) {
+                addPoint(result, bucket, sum, count);
+                bucket = minute;
+                sum = 0;
+                count = 0;
+            }
+            int slot = (int) (minute % SLOTS);
+            double value = found.values[slot];
+            if (minutes[slot] == minute && !Double.isNaN(value)) {
+                sum += value;
+                count++;
+            }
+        }
+        addPoint(result, bucket, sum, count);
+        return result;
+    }
+
+    private static void addPoint(List<double[]> result, long minute, double sum, int count) {
+        if (count > 0) {
+            result.add(new double[] {minute * 60, sum / count});
+        }
+    }
+
+    private static class Series {
+        private final String name;
+        private final double[] values;
+        private double previousValue = Double.NaN;
+        private long previousMillis;
+
+        private Series(String name) {
+            this.name = name;
+            this.values = new double[SLOTS];
+            Arrays.fill(values, Double.NaN);
+        }
+
+        /**
+         * Monotonic values are turned into per second rates, the first value and a reset give no value for the minute.
+         */
+        private double next(long millis, double value, boolean monotonic) {
+            if (!monotonic) {
+                return value;
+            }
+            double rate = (Double.isNaN(previousValue) || value < previousValue || millis <= previousMillis)
+                    ? Double.NaN
+                    : (value - previousValue) / ((millis - previousMillis) / 1000.0);
+            previousValue = value;
+            previousMillis = millis;
+            return rate;
+        }
+    }
+}
@@ -35,6 +35,7 @@ public class ScheduledMetricEvaluatorImpl implements ScheduledMetricEvaluator, D
     private final ScrapingSettingsManager scrapingSettingsManager;
     private final ApplicationLinkService applicationLinkService;
     private final ManifestRetriever manifestRetriever;
+    private final MetricFamilies metricFamilies;
 
     private final AtomicLong totalAttachmentSize;
     private final AtomicLong lastExecutionTimestamp;
@@ -66,10 +67,12 @@ public class ScheduledMetricEvaluatorImpl implements ScheduledMetricEvaluator, D
     public ScheduledMetricEvaluatorImpl(
             ScrapingSettingsManager scrapingSettingsManager,
             ApplicationLinkService applicationLinkService,
-            ManifestRetriever manifestRetriever) {
+            ManifestRetriever manifestRetriever,
+            MetricFamilies metricFamilies) {
         this.scrapingSettingsManager = scrapingSettingsManager;
         this.applicationLinkService = applicationLinkService;
         this.manifestRetriever = manifestRetriever;
+        this.metricFamilies = metricFamilies;
         this.totalAttachmentSize = new AtomicLong(0);
         this.lastExecutionTimestamp = new AtomicLong(-1);
 
@@ -121,6 +124,9 @@ public class ScheduledMetricEvaluatorImpl implements ScheduledMetricEvaluator, D
         }
 
         scraper = executorService.scheduleWithFixedDelay(() -> {
+            if (!metricFamilies.isEnabled(MetricFamilies.SCHEDULED)) {
+                return;
+            }
             calculateAttachmentSize();
             calculateLinkStatuses();
             lastExecutionTimestamp.set(System.currentTimeMillis());
@@ -0,0 +1,9 @@
+package ru.andreymarkelov.atlas.plugins.promjiraexporter.service;
+
+import io.prometheus.client.Collector;
+
+import java.util.List;
+
+public interface SchedulerJobCollector {
+    List<Collector.MetricFamilySamples> collect();
+}
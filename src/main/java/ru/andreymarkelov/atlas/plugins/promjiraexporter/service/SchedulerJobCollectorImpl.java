@@ -0,0 +1,228 @@
+package ru.andreymarkelov.atlas.plugins.promjiraexporter.service;
+
+import com.atlassian.scheduler.SchedulerHistoryService;
+import com.atlassian.scheduler.SchedulerService;
+import com.atlassian.scheduler.config.JobRunnerKey;
+import com.atlassian.scheduler.status.JobDetails;
+import com.atlassian.scheduler.status.RunDetails;
+import com.atlassian.scheduler.status.RunOutcome;
+import io.prometheus.client.Collector;
+import io.prometheus.client.Counter;
+import io.prometheus.client.GaugeMetricFamily;
+import io.prometheus.client.Histogram;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import ru.andreymarkelov.atlas.plugins.promjiraexporter.util.RateLimiter;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import static java.lang.Thread.MIN_PRIORITY;
+import static java.util.Collections.emptyList;
+import static java.util.Collections.singletonList;
+import static java.util.concurrent.Executors.defaultThreadFactory;
+import static java.util.concurrent.Executors.newSingleThreadScheduledExecutor;
+
+/**
+ * Reads scheduled jobs in background. A job is overdue when its next run time has passed by more than
+ * {@link #OVERDUE_GRACE_MILLIS}, which shows stuck jobs and a stuck scheduler. The run history is only read
+ * for jobs whose next run time has changed since the previous pass, until the run due at the previous time is
+ * recorded, so the history lookups follow the job runs and not the number of jobs. Jobs which run more often than
+ * {@link #REFRESH_DELAY_SECONDS} are sampled, and the last success is known for jobs which ran since the start.
+ * Scrapes only read the results.
+ */
+public class SchedulerJobCollectorImpl implements SchedulerJobCollector, InitializingBean, DisposableBean {
+    private static final Logger log = LoggerFactory.getLogger(SchedulerJobCollectorImpl.class);
+
+    private static final long REFRESH_DELAY_SECONDS = 60;
+    private static final long OVERDUE_GRACE_MILLIS = TimeUnit.MINUTES.toMillis(5);
+    private static final int HISTORY_LOOKUPS_PER_SECOND = 50;
+    private static final int MAX_PENDING_PASSES = 10;
+
+    private final SchedulerService schedulerService;
+    private final SchedulerHistoryService schedulerHistoryService;
+    private final MetricFamilies metricFamilies;
+
+    private final RateLimiter rateLimiter;
+    private final Map<String, JobState> jobs;
+    private volatile List<Collector.MetricFamilySamples> snapshot = emptyList();
+
+    private final ThreadFactory threadFactory;
+    private final ScheduledExecutorService executorService;
+
+    private final Histogram jobDuration = Histogram.build()
+            .name("jira_scheduler_job_duration_seconds")
+            .help("Scheduler Job Duration In Seconds")
+            .labelNames("jobRunnerKey")
+            .buckets(0.1, 0.5, 1, 5, 15, 60, 300, 900, 3600)
+            .create();
+
+    private final Counter jobFailures = Counter.build()
+            .name("jira_scheduler_job_failures_count")
+            .help("Scheduler Job Failures Count")
+            .labelNames("jobRunnerKey", "outcome")
+            .create();
+
+    public SchedulerJobCollectorImpl(
+            SchedulerService schedulerService,
+            SchedulerHistoryService schedulerHistoryService,
+            MetricFamilies metricFamilies) {
+        this.schedulerService = schedulerService;
+        this.schedulerHistoryService = schedulerHistoryService;
+        this.metricFamilies = metricFamilies;
+
+        this.rateLimiter = new RateLimiter(HISTORY_LOOKUPS_PER_SECOND);
+        this.jobs = new HashMap<>();
+        this.threadFactory = defaultThreadFactory();
+        this.executorService = newSingleThreadScheduledExecutor(r -> {
+            Thread thread = threadFactory.newThread(r);
+            thread.setPriority(MIN_PRIORITY);
+            return thread;
+        });
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        executorService.scheduleWithFixedDelay(this::refresh, REFRESH_DELAY_SECONDS, REFRESH_DELAY_SECONDS, TimeUnit.SECONDS);
+    }
+
+    @Override
+    public void destroy() {
+        executorService.shutdownNow();
+    }
+
+    @Override
+    public List<Collector.MetricFamilySamples> collect() {
+        List<Collector.MetricFamilySamples> result = new ArrayList<>();
+        result.addAll(jobDuration.collect());
+        result.addAll(jobFailures.collect());
+        result.addAll(snapshot);
+        return result;
+    }
+
+    private void refresh() {
+        if (!metricFamilies.isEnabled(MetricFamilies.SCHEDULER)) {
+            return;
+        }
+
+        try {
+            readJobs();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (Exception ex) {
+            log.error("Failed to read scheduled jobs.", ex);
+        }
+    }
+
+    private void readJobs() throws InterruptedException {
+        long now = System.currentTimeMillis();
+        Map<String, JobState> seenJobs = new HashMap<>();
+        Map<String, Long> successes = new HashMap<>();
+        Map<String, long[]> overdue = new HashMap<>();
+        for (JobRunnerKey jobRunnerKey : schedulerService.getJobRunnerKeysForAllScheduledJobs()) {
+            String key = jobRunnerKey.toString();
+            long[] keyOverdue = overdue.computeIfAbsent(key, k -> new long[2]);
+            for (JobDetails jobDetails : schedulerService.getJobsByJobRunnerKey(jobRunnerKey)) {
+                String jobId = jobDetails.getJobId().toString();
+                Date nextRunTime = jobDetails.getNextRunTime();
+                long nextRun = (nextRunTime != null) ? nextRunTime.getTime() : 0;
+                if (nextRun > 0 && now - nextRun > OVERDUE_GRACE_MILLIS) {
+                    keyOverdue[0]++;
+                    keyOverdue[1] = Math.max(keyOverdue[1], now - nextRun);
+                }
+
+                JobState previous = jobs.get(jobId);
+                JobState state = (previous != null) ? previous : new JobState(nextRun);
+                // the first sight of a job only remembers its next run, earlier runs are not observed
+                if (previous != null && previous.nextRun != nextRun && previous.nextRun > 0) {
+                    state.pendingRun = previous.nextRun;
+                    state.pendingPasses = MAX_PENDING_PASSES;
+                }
+                state.nextRun = nextRun;
+                if (state.pendingPasses > 0) {
+                    // the next run time moves when a run starts, it is in the history once it has finished
+                    state.pendingPasses--;
+                    readLastRun(key, jobDetails, state);
+                }
+                seenJobs.put(jobId, state);
+                if (state.lastSuccess > 0) {
+                    successes.merge(key, state.lastSuccess, Math::max);
+                }
+            }
+        }
+
+        jobs.clear();
+        jobs.putAll(seenJobs);
+        snapshot = export(now, successes, overdue);
+    }
+
+    private void readLastRun(String key, JobDetails jobDetails, JobState state) throws InterruptedException {
+        rateLimiter.acquire(1);
+        RunDetails lastRun = schedulerHistoryService.getLastRunForJob(jobDetails.getJobId());
+        if (lastRun == null || lastRun.getStartTime().getTime() < state.pendingRun) {
+            return;
+        }
+        state.pendingPasses = 0;
+        jobDuration.labels(key).observe(lastRun.getDurationInMillis() / 1000.0);
+        if (lastRun.getRunOutcome() == RunOutcome.SUCCESS) {
+            state.lastSuccess = lastRun.getStartTime().getTime() + lastRun.getDurationInMillis();
+            return;
+        }
+
+        jobFailures.labels(key, lastRun.getRunOutcome().name().toLowerCase(Locale.ROOT)).inc();
+        rateLimiter.acquire(1);
+        RunDetails lastSuccessfulRun = schedulerHistoryService.getLastSuccessfulRunForJob(jobDetails.getJobId());
+        if (lastSuccessfulRun != null) {
+            state.lastSuccess = lastSuccessfulRun.getStartTime().getTime() + lastSuccessfulRun.getDurationInMillis();
+        }
+    }
+
+    private static List<Collector.MetricFamilySamples> export(long now, Map<String, Long> successes, Map<String, long[]> overdue) {
+        GaugeMetricFamily lastSuccessAge = new GaugeMetricFamily(
+                "jira_scheduler_job_last_success_age_seconds_gauge",
+                "Scheduler Job Last Success Age In Seconds Gauge",
+                singletonList("jobRunnerKey"));
+        for (Map.Entry<String, Long> entry : successes.entrySet()) {
+            lastSuccessAge.addMetric(singletonList(entry.getKey()), Math.max(0, now - entry.getValue()) / 1000.0);
+        }
+
+        GaugeMetricFamily overdueJobs = new GaugeMetricFamily(
+                "jira_scheduler_jobs_overdue_gauge",
+                "Scheduler Jobs Past Their Next Run Time Gauge",
+                singletonList("jobRunnerKey"));
+        GaugeMetricFamily maxOverdue = new GaugeMetricFamily(
+                "jira_scheduler_job_max_overdue_seconds_gauge",
+                "Scheduler Job Longest Time Past Next Run Time In Seconds Gauge",
+                singletonList("jobRunnerKey"));
+        for (Map.Entry<String, long[]> entry : overdue.entrySet()) {
+            overdueJobs.addMetric(singletonList(entry.getKey()), entry.getValue()[0]);
+            maxOverdue.addMetric(singletonList(entry.getKey()), entry.getValue()[1] / 1000.0);
+        }
+
+        List<Collector.MetricFamilySamples> result = new ArrayList<>();
+        result.add(lastSuccessAge);
+        result.add(overdueJobs);
+        result.add(maxOverdue);
+        return result;
+    }
+
+    private static class JobState {
+        private long nextRun;
+        private long pendingRun;
+        private int pendingPasses;
+        private long lastSuccess;
+
+        private JobState(long nextRun) {
+            this.nextRun = nextRun;
+        }
+    }
+}
@@ -3,4 +3,30 @@ package ru.andreymarkelov.atlas.plugins.promjiraexporter.service;
 public interface ScrapingSettingsManager {
     int getDelay();
     void setDelay(int delay);
+    int getMaxCaches();
+    void setMaxCaches(int maxCaches);
+    int getMaxProjects();
+    void setMaxProjects(int maxProjects);
+    int getListenerPort();
+    void setListenerPort(int listenerPort);
+    String getListenerAddress();
+    void setListenerAddress(String listenerAddress);
+    String getRequestRules();
+    void setRequestRules(String requestRules);
+    int getResourceSampleRate();
+    void setResourceSampleRate(int resourceSampleRate);
+    int getThreadSampleInterval();
+    void setThreadSampleInterval(int threadSampleInterval);
+    String getDisabledJvmCollectors();
+    void setDisabledJvmCollectors(String disabledJvmCollectors);
+    String getRollupSeries();
+    void setRollupSeries(String rollupSeries);
+    String getDisabledMetricFamilies();
+    void setDisabledMetricFamilies(String disabledMetricFamilies);
+    String getCanaryQueries();
+    void setCanaryQueries(String canaryQueries);
+    String getCanaryUser();
+    void setCanaryUser(String canaryUser);
+    int getCanaryInterval();
+    void setCanaryInterval(int canaryInterval);
 }
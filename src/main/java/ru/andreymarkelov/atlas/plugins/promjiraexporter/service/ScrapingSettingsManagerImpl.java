@@ -7,6 +7,9 @@ import static org.apache.commons.lang3.math.NumberUtils.toInt;
 
 public class ScrapingSettingsManagerImpl implements ScrapingSettingsManager {
     private static final int DEFAULT_SCRAPE_DELAY = 5;
+    private static final int DEFAULT_MAX_CACHES = 100;
+    private static final String DEFAULT_ROLLUP_SERIES = "jira_request_count,jira_requests_in_flight_gauge,jira_authorized_sessions_gauge,"
+            + "jira_db_borrowed_connections_gauge,jira_mail_queue_gauge,jvm_threads_current";
 
     private final PluginSettings pluginSettings;
 
@@ -25,6 +28,149 @@ public class ScrapingSettingsManagerImpl implements ScrapingSettingsManager {
         getPluginSettings().put("delay", String.valueOf(delay));
     }
 
+    @Override
+    public int getMaxCaches() {
+        Object storedValue = getPluginSettings().get("maxCaches");
+        return storedValue != null ? toInt(storedValue.toString(), DEFAULT_MAX_CACHES) : DEFAULT_MAX_CACHES;
+    }
+
+    @Override
+    public void setMaxCaches(int maxCaches) {
+        getPluginSettings().put("maxCaches", String.valueOf(maxCaches));
+    }
+
+    @Override
+    public int getMaxProjects() {
+        Object storedValue = getPluginSettings().get("maxProjects");
+        return storedValue != null ? toInt(storedValue.toString(), 0) : 0;
+    }
+
+    @Override
+    public void setMaxProjects(int maxProjects) {
+        getPluginSettings().put("maxProjects", String.valueOf(maxProjects));
+    }
+
+    @Override
+    public int getListenerPort() {
+        Object storedValue = getPluginSettings().get("listenerPort");
+        return storedValue != null ? toInt(storedValue.toString(), 0) : 0;
+    }
+
+    @Override
+    public void setListenerPort(int listenerPort) {
+        getPluginSettings().put("listenerPort", String.valueOf(listenerPort));
+    }
+
+    @Override
+    public String getListenerAddress() {
+        Object storedValue = getPluginSettings().get("listenerAddress");
+        return storedValue != null ? storedValue.toString() : "127.0.0.1";
+    }
+
+    @Override
+    public void setListenerAddress(String listenerAddress) {
+        getPluginSettings().put("listenerAddress", listenerAddress);
+    }
+
+    @Override
+    public String getRequestRules() {
+        Object storedValue = getPluginSettings().get("requestRules");
+        return storedValue != null ? storedValue.toString() : "";
+    }
+
+    @Override
+    public void setRequestRules(String requestRules) {
+        getPluginSettings().put("requestRules", requestRules);
+    }
+
+    @Override
+    public int getResourceSampleRate() {
+        Object storedValue = getPluginSettings().get("resourceSampleRate");
+        return storedValue != null ? toInt(storedValue.toString(), 0) : 0;
+    }
+
+    @Override
+    public void setResourceSampleRate(int resourceSampleRate) {
+        getPluginSettings().put("resourceSampleRate", String.valueOf(resourceSampleRate));
+    }
+
+    @Override
+    public int getThreadSampleInterval() {
+        Object storedValue = getPluginSettings().get("threadSampleInterval");
+        return storedValue != null ? toInt(storedValue.toString(), 0) : 0;
+    }
+
+    @Override
+    public void setThreadSampleInterval(int threadSampleInterval) {
+        getPluginSettings().put("threadSampleInterval", String.valueOf(threadSampleInterval));
+    }
+
+    @Override
+    public String getDisabledJvmCollectors() {
+        Object storedValue = getPluginSettings().get("disabledJvmCollectors");
+        return storedValue != null ? storedValue.toString() : "";
+    }
+
+    @Override
+    public void setDisabledJvmCollectors(String disabledJvmCollectors) {
+        getPluginSettings().put("disabledJvmCollectors", disabledJvmCollectors);
+    }
+
+    @Override
+    public String getRollupSeries() {
+        Object storedValue = getPluginSettings().get("rollupSeries");
+        return storedValue != null ? storedValue.toString() : DEFAULT_ROLLUP_SERIES;
+    }
+
+    @Override
+    public void setRollupSeries(String rollupSeries) {
+        getPluginSettings().put("rollupSeries", rollupSeries);
+    }
+
+    @Override
+    public String getDisabledMetricFamilies() {
+        Object storedValue = getPluginSettings().get("disabledMetricFamilies");
+        return storedValue != null ? storedValue.toString() : "";
+    }
+
+    @Override
+    public void setDisabledMetricFamilies(String disabledMetricFamilies) {
+        getPluginSettings().put("disabledMetricFamilies", disabledMetricFamilies);
+    }
+
+    @Override
+    public String getCanaryQueries() {
+        Object storedValue = getPluginSettings().get("canaryQueries");
+        return storedValue != null ? storedValue.toString() : "";
+    }
+
+    @Override
+    public void setCanaryQueries(String canaryQueries) {
+        getPluginSettings().put("canaryQueries", canaryQueries);
+    }
+
+    @Override
+    public String getCanaryUser() {
+        Object storedValue = getPluginSettings().get("canaryUser");
+        return storedValue != null ? storedValue.toString() : "";
+    }
+
+    @Override
+    public void setCanaryUser(String canaryUser) {
+        getPluginSettings().put("canaryUser", canaryUser);
+    }
+
+    @Override
+    public int getCanaryInterval() {
+        Object storedValue = getPluginSettings().get("canaryInterval");
+        return storedValue != null ? toInt(storedValue.toString(), 0) : 0;
+    }
+
+    @Override
+    public void setCanaryInterval(int canaryInterval) {
+        getPluginSettings().put("canaryInterval", String.valueOf(canaryInterval));
+    }
+
     private synchronized PluginSettings getPluginSettings() {
         return pluginSettings;
     }
@@ -0,0 +1,12 @@
+package ru.andreymarkelov.atlas.plugins.promjiraexporter.service;
+
+import io.prometheus.client.Collector;
+
+import java.util.List;
+
+public interface SearchCanary {
+    int MAX_QUERIES = 10;
+
+    List<Collector.MetricFamilySamples> collect();
+    void restartCanary();
+}
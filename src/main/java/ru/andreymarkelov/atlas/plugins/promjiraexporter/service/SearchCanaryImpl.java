@@ -0,0 +1,254 @@
+package ru.andreymarkelov.atlas.plugins.promjiraexporter.service;
+
+import com.atlassian.jira.bc.issue.search.SearchService;
+import com.atlassian.jira.security.JiraAuthenticationContext;
+import com.atlassian.jira.user.ApplicationUser;
+import com.atlassian.jira.user.util.UserManager;
+import com.atlassian.jira.web.bean.PagerFilter;
+import io.prometheus.client.Collector;
+import io.prometheus.client.Counter;
+import io.prometheus.client.Gauge;
+import io.prometheus.client.Histogram;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import ru.andreymarkelov.atlas.plugins.promjiraexporter.util.CanaryQueryParser;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static java.lang.Thread.MIN_PRIORITY;
+import static java.util.concurrent.Executors.defaultThreadFactory;
+import static java.util.concurrent.Executors.newSingleThreadExecutor;
+import static java.util.concurrent.Executors.newSingleThreadScheduledExecutor;
+
+/**
+ * Runs configured JQL queries as the configured user, one after another, and measures them like the first page
+ * of the issue navigator. Runs are spread by a random jitter, so nodes do not search at the same moment.
+ * A query which runs over its timeout keeps the search thread, so queries are counted as timed out until it ends.
+ * Searches are never interrupted, because an interrupt closes the index file channels Lucene reads from.
+ */
+public class SearchCanaryImpl implements SearchCanary, InitializingBean, DisposableBean {
+    private static final Logger log = LoggerFactory.getLogger(SearchCanaryImpl.class);
+
+    private static final int PAGE_SIZE = 50;
+    private static final long QUERY_TIMEOUT_SECONDS = 30;
+    private static final double JITTER = 0.1;
+
+    private final ScrapingSettingsManager scrapingSettingsManager;
+    private final SearchService searchService;
+    private final UserManager userManager;
+    private final JiraAuthenticationContext jiraAuthenticationContext;
+    private final MetricFamilies metricFamilies;
+
+    private final ThreadFactory threadFactory;
+    private final ScheduledExecutorService executorService;
+    private final ExecutorService searchExecutorService;
+    private final Lock lock;
+    private final AtomicBoolean searching;
+
+    private int generation;
+    private ScheduledFuture<?> nextRun;
+
+    private final Histogram durationHistogram = Histogram.build()
+            .name("jira_search_canary_duration_seconds")
+            .help("Search Canary Query Duration In Seconds")
+            .labelNames("query")
+            .buckets(0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30)
+            .create();
+
+    private final Gauge resultsGauge = Gauge.build()
+            .name("jira_search_canary_results_gauge")
+            .help("Search Canary Query Last Result Count Gauge")
+            .labelNames("query")
+            .create();
+
+    private final Counter timeoutsCounter = Counter.build()
+            .name("jira_search_canary_timeouts_count")
+            .help("Search Canary Query Timeouts Count")
+            .labelNames("query")
+            .create();
+
+    private final Counter failuresCounter = Counter.build()
+            .name("jira_search_canary_failures_count")
+            .help("Search Canary Query Failures Count")
+            .labelNames("query")
+            .create();
+
+    public SearchCanaryImpl(
+            ScrapingSettingsManager scrapingSettingsManager,
+            SearchService searchService,
+            UserManager userManager,
+            JiraAuthenticationContext jiraAuthenticationContext,
+            MetricFamilies metricFamilies) {
+        this.scrapingSettingsManager = scrapingSettingsManager;
+        this.searchService = searchService;
+        this.userManager = userManager;
+        this.jiraAuthenticationContext = jiraAuthenticationContext;
+        this.metricFamilies = metricFamilies;
+
+        this.threadFactory = defaultThreadFactory();
+        this.executorService = newSingleThreadScheduledExecutor(this::newThread);
+        this.searchExecutorService = newSingleThreadExecutor(this::newThread);
+        this.lock = new ReentrantLock();
+        this.searching = new AtomicBoolean();
+    }
+
+    private Thread newThread(Runnable r) {
+        Thread thread = threadFactory.newThread(r);
+        thread.setPriority(MIN_PRIORITY);
+        return thread;
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        restartCanary();
+    }
+
+    @Override
+    public void destroy() {
+        executorService.shutdownNow();
+        searchExecutorService.shutdown();
+    }
+
+    @Override
+    public void restartCanary() {
+        lock.lock();
+        try {
+            generation++;
+            if (nextRun != null) {
+                nextRun.cancel(false);
+                nextRun = null;
+            }
+            // results of removed queries would stay forever
+            resultsGauge.clear();
+            scheduleNext(generation);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void scheduleNext(int runGeneration) {
+        int interval = scrapingSettingsManager.getCanaryInterval();
+        if (interval <= 0 || executorService.isShutdown()) {
+            return;
+        }
+        double jitter = 1 + JITTER * ThreadLocalRandom.current().nextDouble(-1, 1);
+        nextRun = executorService.schedule(() -> run(runGeneration), (long) (interval * 1000L * jitter), TimeUnit.MILLISECONDS);
+    }
+
+    private void run(int runGeneration) {
+        try {
+            if (metricFamilies.isEnabled(MetricFamilies.SEARCH_CANARY)) {
+                runQueries();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (Exception ex) {
+            log.error("Failed to run search canary.", ex);
+        } finally {
+            lock.lock();
+            try {
+                // a restart during the run has already scheduled the next one
+                if (runGeneration == generation) {
+                    scheduleNext(runGeneration);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private void runQueries() throws InterruptedException {
+        Map<String, String> queries = CanaryQueryParser.parse(scrapingSettingsManager.getCanaryQueries());
+        if (queries.isEmpty()) {
+            return;
+        }
+
+        ApplicationUser user = userManager.getUserByName(scrapingSettingsManager.getCanaryUser());
+        if (user == null) {
+            log.warn("Search canary user {} is not found.", scrapingSettingsManager.getCanaryUser());
+            for (String name : queries.keySet()) {
+                failuresCounter.labels(name).inc();
+            }
+            return;
+        }
+
+        for (Map.Entry<String, String> query : queries.entrySet()) {
+            runQuery(user, query.getKey(), query.getValue());
+        }
+    }
+
+    private void runQuery(ApplicationUser user, String name, String jql) throws InterruptedException {
+        // a cancelled future is done at once, only the search itself knows when it has ended
+        if (!searching.compareAndSet(false, true)) {
+            timeoutsCounter.labels(name).inc();
+            return;
+        }
+
+        long start = System.nanoTime();
+        Future<Integer> search;
+        try {
+            search = searchExecutorService.submit(() -> {
+                try {
+                    return search(user, jql);
+                } finally {
+                    searching.set(false);
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            searching.set(false);
+            return;
+        }
+        try {
+            int total = search.get(QUERY_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            durationHistogram.labels(name).observe((System.nanoTime() - start) / 1e9);
+            resultsGauge.labels(name).set(total);
+        } catch (TimeoutException ex) {
+            search.cancel(false);
+            timeoutsCounter.labels(name).inc();
+        } catch (ExecutionException ex) {
+            failuresCounter.labels(name).inc();
+            log.debug("Search canary query {} failed.", name, ex.getCause());
+        }
+    }
+
+    private int search(ApplicationUser user, String jql) throws Exception {
+        // searchers may read the current user instead of the given one
+        jiraAuthenticationContext.setLoggedInUser(user);
+        try {
+            SearchService.ParseResult parseResult = searchService.parseQuery(user, jql);
+            if (!parseResult.isValid()) {
+                throw new IllegalArgumentException("Invalid JQL: " + parseResult.getErrors().getErrorMessages());
+            }
+            return searchService.search(user, parseResult.getQuery(), new PagerFilter(PAGE_SIZE)).getTotal();
+        } finally {
+            jiraAuthenticationContext.setLoggedInUser(null);
+        }
+    }
+
+    @Override
+    public List<Collector.MetricFamilySamples> collect() {
+        List<Collector.MetricFamilySamples> result = new ArrayList<>();
+        result.addAll(durationHistogram.collect());
+        result.addAll(resultsGauge.collect());
+        result.addAll(timeoutsCounter.collect());
+        result.addAll(failuresCounter.collect());
+        return result;
+    }
+}
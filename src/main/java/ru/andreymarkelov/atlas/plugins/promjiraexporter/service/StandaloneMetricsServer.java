@@ -0,0 +1,5 @@
+package ru.andreymarkelov.atlas.plugins.promjiraexporter.service;
+
+public interface StandaloneMetricsServer {
+    void restartServer();
+}
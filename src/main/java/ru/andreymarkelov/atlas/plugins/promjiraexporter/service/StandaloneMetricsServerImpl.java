@@ -0,0 +1,259 @@
+package ru.andreymarkelov.atlas.plugins.promjiraexporter.service;
+
+import io.prometheus.client.exporter.common.TextFormat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import ru.andreymarkelov.atlas.plugins.promjiraexporter.util.ExpositionWriter;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import static java.util.concurrent.Executors.defaultThreadFactory;
+import static org.apache.commons.lang3.StringUtils.isNotBlank;
+
+/**
+ * Serves metrics on a separate port, outside of Tomcat and the Jira filter chain, so scrapes still work
+ * when Tomcat worker threads are exhausted. It is a minimal HTTP/1.1 server: one acceptor thread,
+ * two workers, one request per connection. It listens on the loopback interface unless another address is set.
+ */
+public class StandaloneMetricsServerImpl implements StandaloneMetricsServer, InitializingBean, DisposableBean {
+    private static final Logger log = LoggerFactory.getLogger(StandaloneMetricsServerImpl.class);
+
+    private static final int WORKERS = 2;
+    private static final int QUEUE_CAPACITY = 16;
+    private static final int BACKLOG = 16;
+    private static final int SOCKET_TIMEOUT_MILLIS = 10000;
+    private static final int MAX_LINE_LENGTH = 8192;
+    private static final int MAX_HEADERS = 100;
+    private static final long STOP_TIMEOUT_MILLIS = 5000;
+
+    private final ScrapingSettingsManager scrapingSettingsManager;
+    private final SecureTokenManager secureTokenManager;
+    private final MetricCollector metricCollector;
+
+    private final ExpositionWriter expositionWriter;
+    private final ThreadFactory threadFactory;
+    private final Lock lock;
+    private ServerSocket serverSocket;
+    private ThreadPoolExecutor workers;
+    private Thread acceptor;
+
+    public StandaloneMetricsServerImpl(
+            ScrapingSettingsManager scrapingSettingsManager,
+            SecureTokenManager secureTokenManager,
+            MetricCollector metricCollector) {
+        this.scrapingSettingsManager = scrapingSettingsManager;
+        this.secureTokenManager = secureTokenManager;
+        this.metricCollector = metricCollector;
+
+        this.expositionWriter = new ExpositionWriter();
+        this.threadFactory = defaultThreadFactory();
+        this.lock = new ReentrantLock();
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        restartServer();
+    }
+
+    @Override
+    public void destroy() {
+        lock.lock();
+        try {
+            stopServer();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void restartServer() {
+        lock.lock();
+        try {
+            stopServer();
+            startServer(scrapingSettingsManager.getListenerAddress(), scrapingSettingsManager.getListenerPort());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void startServer(String address, int port) {
+        if (port <= 0) {
+            return;
+        }
+
+        try {
+            ServerSocket socket = new ServerSocket();
+            socket.setReuseAddress(true);
+            socket.bind(new InetSocketAddress(InetAddress.getByName(address), port), BACKLOG);
+            serverSocket = socket;
+        } catch (IOException ex) {
+            log.error("Unable to start metrics listener on {}:{}.", address, port, ex);
+            return;
+        }
+
+        workers = new ThreadPoolExecutor(
+                WORKERS, WORKERS, 0, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(QUEUE_CAPACITY),
+                r -> {
+                    Thread thread = threadFactory.newThread(r);
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        final ServerSocket socket = serverSocket;
+        final ThreadPoolExecutor executor = workers;
+        acceptor = threadFactory.newThread(() -> accept(socket, executor));
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    private void stopServer() {
+        if (serverSocket != null) {
+            try {
+                serverSocket.close();
+            } catch (IOException ex) {
+                log.debug("Unable to close metrics listener.", ex);
+            }
+            serverSocket = null;
+        }
+        if (acceptor != null) {
+            // the port is released only when the blocked accept returns
+            try {
+                acceptor.join(STOP_TIMEOUT_MILLIS);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            acceptor = null;
+        }
+        if (workers != null) {
+            workers.shutdownNow();
+            workers = null;
+        }
+    }
+
+    private void accept(ServerSocket socket, ThreadPoolExecutor executor) {
+        while (!socket.isClosed()) {
+            Socket connection;
+            try {
+                connection = socket.accept();
+            } catch (SocketException ex) {
+                // socket was closed
+                return;
+            } catch (IOException ex) {
+                log.debug("Unable to accept connection.", ex);
+                continue;
+            }
+
+            try {
+                executor.execute(() -> handle(connection));
+            } catch (RejectedExecutionException ex) {
+                closeQuietly(connection);
+            }
+        }
+    }
+
+    private void handle(Socket connection) {
+        try {
+            connection.setSoTimeout(SOCKET_TIMEOUT_MILLIS);
+            InputStream in = new BufferedInputStream(connection.getInputStream());
+            OutputStream out = connection.getOutputStream();
+
+            String[] requestLine = readLine(in).split(" ");
+            for (int i = 0; i < MAX_HEADERS && !readLine(in).isEmpty(); i++) {
+                // headers are not used
+            }
+            if (requestLine.length != 3) {
+                writeStatus(out, "400 Bad Request");
+                return;
+            }
+            if (!"GET".equals(requestLine[0]) && !"POST".equals(requestLine[0])) {
+                writeStatus(out, "405 Method Not Allowed");
+                return;
+            }
+
+            String target = requestLine[1];
+            int queryIndex = target.indexOf('?');
+            String path = (queryIndex >= 0) ? target.substring(0, queryIndex) : target;
+            if (!"/metrics".equals(path) && !"/".equals(path)) {
+                writeStatus(out, "404 Not Found");
+                return;
+            }
+
+            String query = (queryIndex >= 0) ? target.substring(queryIndex + 1) : "";
+            String storedToken = secureTokenManager.getToken();
+            if (isNotBlank(storedToken) && !storedToken.equals(getParameters(query, "token").stream().findFirst().orElse(null))) {
+                writeStatus(out, "401 Unauthorized");
+                return;
+            }
+
+            out.write(("HTTP/1.1 200 OK\r\nContent-Type: " + TextFormat.CONTENT_TYPE_004 + "\r\nConnection: close\r\n\r\n").getBytes(ISO_8859_1));
+            expositionWriter.write(out, metricCollector.getRegistry().filteredMetricFamilySamples(new HashSet<>(getParameters(query, "name[]"))));
+        } catch (IOException ex) {
+            log.debug("Unable to serve metrics request.", ex);
+        } finally {
+            closeQuietly(connection);
+        }
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int c;
+        while ((c = in.read()) >= 0 && c != '\n') {
+            if (c != '\r') {
+                line.append((char) c);
+            }
+            if (line.length() > MAX_LINE_LENGTH) {
+                throw new IOException("Request line is too long");
+            }
+        }
+        return line.toString();
+    }
+
+    private static List<String> getParameters(String query, String name) throws UnsupportedEncodingException {
+        List<String> values = new ArrayList<>();
+        for (String pair : query.split("&")) {
+            int index = pair.indexOf('=');
+            String key = URLDecoder.decode((index >= 0) ? pair.substring(0, index) : pair, "UTF-8");
+            if (name.equals(key)) {
+                values.add(URLDecoder.decode((index >= 0) ? pair.substring(index + 1) : "", "UTF-8"));
+            }
+        }
+        return values;
+    }
+
+    private static void writeStatus(OutputStream out, String status) throws IOException {
+        out.write(("HTTP/1.1 " + status + "\r\nContent-Length: 0\r\nConnection: close\r\n\r\n").getBytes(ISO_8859_1));
+        out.flush();
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException ex) {
+            log.debug("Unable to close connection.", ex);
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package ru.andreymarkelov.atlas.plugins.promjiraexporter.service;
+
+import com.atlassian.jira.issue.Issue;
+import io.prometheus.client.Collector;
+
+import java.sql.Timestamp;
+import java.util.List;
+
+public interface StatusDurationTracker {
+    /**
+     * @param changeTime creation time of the event change log, null if the event has no change log
+     */
+    void issueUpdated(Issue issue, Timestamp changeTime);
+    List<Collector.MetricFamilySamples> collect();
+}
@@ -0,0 +1,161 @@
+package ru.andreymarkelov.atlas.plugins.promjiraexporter.service;
+
+import com.atlassian.jira.issue.Issue;
+import com.atlassian.jira.issue.changehistory.ChangeHistoryManager;
+import com.atlassian.jira.issue.history.ChangeItemBean;
+import com.atlassian.jira.issue.status.Status;
+import io.prometheus.client.Collector;
+import io.prometheus.client.Histogram;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+
+import java.sql.Timestamp;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static java.lang.Thread.MIN_PRIORITY;
+import static java.util.concurrent.Executors.defaultThreadFactory;
+
+/**
+ * Measures how long issues stay in a status. The last known status and the time the issue entered it are kept
+ * in a bounded LRU cache, so a transition of a cached issue needs no database access. Issues which are not cached
+ * yet are looked up in the change history on a background thread.
+ */
+public class StatusDurationTrackerImpl implements StatusDurationTracker, DisposableBean {
+    private static final Logger log = LoggerFactory.getLogger(StatusDurationTrackerImpl.class);
+
+    private static final int CACHE_SIZE = 10000;
+    private static final int LOOKUP_QUEUE_SIZE = 1000;
+    private static final String STATUS_FIELD = "status";
+
+    private final ChangeHistoryManager changeHistoryManager;
+
+    private final Map<Long, StatusEntry> lastTransitions;
+    private final ThreadFactory threadFactory;
+    private final ThreadPoolExecutor lookupExecutor;
+
+    private final Histogram statusDuration = Histogram.build()
+            .name("jira_issue_status_duration_seconds")
+            .help("Issue Status Duration In Seconds")
+            .labelNames("projectKey", "from", "to")
+            .buckets(60, 300, 900, 3600, 4 * 3600, 8 * 3600, 86400, 2 * 86400, 7 * 86400, 14 * 86400, 30 * 86400, 90 * 86400)
+            .create();
+
+    public StatusDurationTrackerImpl(ChangeHistoryManager changeHistoryManager) {
+        this.changeHistoryManager = changeHistoryManager;
+
+        this.lastTransitions = new LinkedHashMap<Long, StatusEntry>(CACHE_SIZE, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, StatusEntry> eldest) {
+                return size() > CACHE_SIZE;
+            }
+        };
+        this.threadFactory = defaultThreadFactory();
+        this.lookupExecutor = new ThreadPoolExecutor(
+                1, 1, 0, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(LOOKUP_QUEUE_SIZE),
+                r -> {
+                    Thread thread = threadFactory.newThread(r);
+                    thread.setPriority(MIN_PRIORITY);
+                    return thread;
+                });
+    }
+
+    @Override
+    public void destroy() {
+        lookupExecutor.shutdownNow();
+    }
+
+    @Override
+    public void issueUpdated(Issue issue, Timestamp changeTime) {
+        String status = getStatusName(issue);
+        if (issue.getId() == null || status == null) {
+            return;
+        }
+
+        long now = (changeTime != null) ? changeTime.getTime() : System.currentTimeMillis();
+        StatusEntry previous;
+        synchronized (lastTransitions) {
+            previous = lastTransitions.get(issue.getId());
+            if (previous == null || !previous.status.equals(status)) {
+                lastTransitions.put(issue.getId(), new StatusEntry(status, now));
+            }
+        }
+
+        if (previous != null) {
+            if (!previous.status.equals(status)) {
+                observe(issue, previous.status, status, now - previous.time);
+            }
+            return;
+        }
+
+        try {
+            lookupExecutor.execute(() -> lookup(issue, status, changeTime));
+        } catch (RejectedExecutionException ex) {
+            log.debug("Status lookup queue is full, issue {} is skipped.", issue.getKey());
+        }
+    }
+
+    @Override
+    public List<Collector.MetricFamilySamples> collect() {
+        return statusDuration.collect();
+    }
+
+    /**
+     * Restores the cache entry from the change history. If the event itself was the transition,
+     * its change log holds the latest status change and the one before it gives the time in the previous status.
+     */
+    private void lookup(Issue issue, String status, Timestamp changeTime) {
+        try {
+            long lastChange = (issue.getCreated() != null) ? issue.getCreated().getTime() : 0;
+            ChangeItemBean transition = null;
+            for (ChangeItemBean item : changeHistoryManager.getChangeItemsForField(issue, STATUS_FIELD)) {
+                long created = item.getCreated().getTime();
+                if (changeTime != null && created == changeTime.getTime()) {
+                    transition = item;
+                } else if (created > lastChange && (changeTime == null || created < changeTime.getTime())) {
+                    lastChange = created;
+                }
+            }
+
+            if (transition != null) {
+                observe(issue, transition.getFromString(), transition.getToString(), changeTime.getTime() - lastChange);
+                lastChange = changeTime.getTime();
+            }
+            synchronized (lastTransitions) {
+                lastTransitions.putIfAbsent(issue.getId(), new StatusEntry(status, lastChange));
+            }
+        } catch (Exception ex) {
+            log.debug("Unable to read status history of issue {}.", issue.getKey(), ex);
+        }
+    }
+
+    private void observe(Issue issue, String from, String to, long durationMillis) {
+        if (durationMillis < 0 || from == null || to == null) {
+            return;
+        }
+        statusDuration.labels(issue.getProjectObject().getKey(), from, to).observe(durationMillis / 1000.0);
+    }
+
+    private static String getStatusName(Issue issue) {
+        Status status = issue.getStatus();
+        return (status != null) ? status.getName() : null;
+    }
+
+    private static class StatusEntry {
+        private final String status;
+        private final long time;
+
+        private StatusEntry(String status, long time) {
+            this.status = status;
+            this.time = time;
+        }
+    }
+}
@@ -0,0 +1,10 @@
+package ru.andreymarkelov.atlas.plugins.promjiraexporter.service;
+
+import io.prometheus.client.Collector;
+
+import java.util.List;
+
+public interface ThreadContentionSampler {
+    List<Collector.MetricFamilySamples> collect();
+    void restartSampling();
+}
@@ -0,0 +1,237 @@
+package ru.andreymarkelov.atlas.plugins.promjiraexporter.service;
+
+import io.prometheus.client.Collector;
+import io.prometheus.client.GaugeMetricFamily;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import ru.andreymarkelov.atlas.plugins.promjiraexporter.util.SpaceSaving;
+
+import java.lang.management.LockInfo;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static java.lang.Thread.MIN_PRIORITY;
+import static java.util.Arrays.asList;
+import static java.util.concurrent.Executors.defaultThreadFactory;
+import static java.util.concurrent.Executors.newSingleThreadScheduledExecutor;
+
+/**
+ * Periodically samples stacks of all threads with limited depth and without locked monitors and synchronizers,
+ * and counts BLOCKED and WAITING threads by lock class and top application frame in a Space-Saving sketch.
+ * Idle pool workers waiting for a task are not contention, so waiting threads without an application frame
+ * or waiting in a queue are skipped.
+ * A sample which takes longer than {@link #SAMPLE_BUDGET_MILLIS} stops sampling until settings are saved again.
+ */
+public class ThreadContentionSamplerImpl implements ThreadContentionSampler, InitializingBean, DisposableBean {
+    private static final Logger log = LoggerFactory.getLogger(ThreadContentionSamplerImpl.class);
+
+    private static final int MAX_STACK_DEPTH = 32;
+    private static final long SAMPLE_BUDGET_MILLIS = 200;
+    private static final int CAPACITY = 200;
+    private static final int TOP_N = 25;
+    private static final int WINDOW_MINUTES = 10;
+    private static final double DECAY_FACTOR = Math.exp(-1.0 / WINDOW_MINUTES);
+    private static final double DROP_THRESHOLD = 0.5;
+    private static final char KEY_SEPARATOR = '\u0000';
+    private static final String NONE = "none";
+    private static final String[] PLATFORM_PREFIXES = {
+            "java.", "javax.", "sun.", "jdk.", "com.sun.", "org.apache.catalina.", "org.apache.tomcat.", "org.apache.coyote."
+    };
+
+    private final ScrapingSettingsManager scrapingSettingsManager;
+    private final ThreadMXBean threadMXBean;
+    private final SpaceSaving contention;
+    private final MetricFamilies metricFamilies;
+
+    private final ThreadFactory threadFactory;
+    private final ScheduledExecutorService executorService;
+    private final Lock lock;
+
+    private volatile boolean enabled;
+    private volatile double lastSampleSeconds;
+    private int generation;
+    private ScheduledFuture<?> sampler;
+    private ScheduledFuture<?> decay;
+
+    public ThreadContentionSamplerImpl(ScrapingSettingsManager scrapingSettingsManager, MetricFamilies metricFamilies) {
+        this.scrapingSettingsManager = scrapingSettingsManager;
+        this.metricFamilies = metricFamilies;
+        this.threadMXBean = ManagementFactory.getThreadMXBean();
+        this.contention = new SpaceSaving(CAPACITY);
+
+        this.threadFactory = defaultThreadFactory();
+        this.executorService = newSingleThreadScheduledExecutor(r -> {
+            Thread thread = threadFactory.newThread(r);
+            thread.setPriority(MIN_PRIORITY);
+            return thread;
+        });
+        this.lock = new ReentrantLock();
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        restartSampling();
+    }
+
+    @Override
+    public void destroy() {
+        executorService.shutdownNow();
+    }
+
+    @Override
+    public void restartSampling() {
+        lock.lock();
+        try {
+            generation++;
+            if (sampler != null) {
+                sampler.cancel(false);
+                decay.cancel(false);
+                sampler = null;
+                decay = null;
+            }
+            int interval = scrapingSettingsManager.getThreadSampleInterval();
+            enabled = interval > 0;
+            if (enabled) {
+                int samplerGeneration = generation;
+                sampler = executorService.scheduleWithFixedDelay(() -> sample(samplerGeneration), interval, interval, TimeUnit.SECONDS);
+                decay = executorService.scheduleAtFixedRate(() -> contention.decay(DECAY_FACTOR, DROP_THRESHOLD), 1, 1, TimeUnit.MINUTES);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void sample(int samplerGeneration) {
+        if (!metricFamilies.isEnabled(MetricFamilies.THREAD_CONTENTION)) {
+            return;
+        }
+
+        long start = System.nanoTime();
+        try {
+            long self = Thread.currentThread().getId();
+            for (ThreadInfo info : threadMXBean.getThreadInfo(threadMXBean.getAllThreadIds(), MAX_STACK_DEPTH)) {
+                if (info == null || info.getThreadId() == self) {
+                    continue;
+                }
+                Thread.State state = info.getThreadState();
+                if (state != Thread.State.BLOCKED && state != Thread.State.WAITING) {
+                    continue;
+                }
+                String frame = applicationFrame(info.getStackTrace());
+                if (state == Thread.State.WAITING && (NONE.equals(frame) || isWaitingForTask(info.getStackTrace()))) {
+                    continue;
+                }
+                contention.offer(lockName(info) + KEY_SEPARATOR + frame);
+            }
+        } catch (Exception ex) {
+            log.error("Failed to sample threads.", ex);
+        }
+
+        long elapsedNanos = System.nanoTime() - start;
+        lastSampleSeconds = elapsedNanos / 1e9;
+        if (TimeUnit.NANOSECONDS.toMillis(elapsedNanos) > SAMPLE_BUDGET_MILLIS) {
+            log.warn("Thread sample took {} ms which is over budget of {} ms, thread sampling is disabled until settings are saved.",
+                    TimeUnit.NANOSECONDS.toMillis(elapsedNanos), SAMPLE_BUDGET_MILLIS);
+            stopOverBudget(samplerGeneration);
+        }
+    }
+
+    /**
+     * Runs on the sampler thread, so it only cancels futures and never waits for them.
+     * A sampler scheduled by a restart in the meantime is kept.
+     */
+    private void stopOverBudget(int samplerGeneration) {
+        lock.lock();
+        try {
+            if (samplerGeneration != generation) {
+                return;
+            }
+            enabled = false;
+            if (sampler != null) {
+                sampler.cancel(false);
+                sampler = null;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static String lockName(ThreadInfo info) {
+        LockInfo lockInfo = info.getLockInfo();
+        return (lockInfo != null) ? lockInfo.getClassName() : NONE;
+    }
+
+    private static String applicationFrame(StackTraceElement[] stackTrace) {
+        for (StackTraceElement frame : stackTrace) {
+            if (!isPlatformClass(frame.getClassName())) {
+                return frame.getClassName() + "." + frame.getMethodName();
+            }
+        }
+        return NONE;
+    }
+
+    /**
+     * Pool workers wait for tasks in a queue take or poll, or in the pool itself.
+     */
+    private static boolean isWaitingForTask(StackTraceElement[] stackTrace) {
+        for (StackTraceElement frame : stackTrace) {
+            String methodName = frame.getMethodName();
+            if (("take".equals(methodName) || "poll".equals(methodName)) && frame.getClassName().contains("Queue")) {
+                return true;
+            }
+            if ("getTask".equals(methodName) || "awaitWork".equals(methodName)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isPlatformClass(String className) {
+        for (String prefix : PLATFORM_PREFIXES) {
+            if (className.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public List<Collector.MetricFamilySamples> collect() {
+        GaugeMetricFamily enabledGauge = new GaugeMetricFamily(
+                "jira_thread_sampler_enabled_gauge",
+                "Thread Sampler Enabled Gauge",
+                enabled ? 1 : 0);
+        GaugeMetricFamily durationGauge = new GaugeMetricFamily(
+                "jira_thread_sampler_duration_seconds_gauge",
+                "Thread Sampler Last Sample Duration In Seconds Gauge",
+                lastSampleSeconds);
+        GaugeMetricFamily samples = new GaugeMetricFamily(
+                "jira_thread_contention_samples",
+                "Blocked And Waiting Thread Samples",
+                asList("lock", "frame"));
+
+        for (Map.Entry<String, Double> top : contention.top(TOP_N)) {
+            String key = top.getKey();
+            int separator = key.indexOf(KEY_SEPARATOR);
+            samples.addMetric(asList(key.substring(0, separator), key.substring(separator + 1)), top.getValue());
+        }
+
+        List<Collector.MetricFamilySamples> result = new ArrayList<>();
+        result.add(enabledGauge);
+        result.add(durationGauge);
+        result.add(samples);
+        return result;
+    }
+}
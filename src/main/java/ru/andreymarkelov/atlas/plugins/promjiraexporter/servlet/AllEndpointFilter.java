@@ -1,6 +1,9 @@
 package ru.andreymarkelov.atlas.plugins.promjiraexporter.servlet;
 
 import java.io.IOException;
+import java.security.Principal;
+import java.util.concurrent.ThreadLocalRandom;
+import javax.servlet.DispatcherType;
 import javax.servlet.Filter;
 import javax.servlet.FilterChain;
 import javax.servlet.FilterConfig;
@@ -8,21 +11,46 @@ import javax.servlet.ServletException;
 import javax.servlet.ServletRequest;
 import javax.servlet.ServletResponse;
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
 
 import com.atlassian.sal.api.ApplicationProperties;
 import com.atlassian.sal.api.UrlMode;
+import com.atlassian.seraph.auth.DefaultAuthenticator;
+import ru.andreymarkelov.atlas.plugins.promjiraexporter.service.ActiveUserTracker;
+import ru.andreymarkelov.atlas.plugins.promjiraexporter.service.HeavyHitterTracker;
 import ru.andreymarkelov.atlas.plugins.promjiraexporter.service.MetricCollector;
+import ru.andreymarkelov.atlas.plugins.promjiraexporter.service.MetricFamilies;
+import ru.andreymarkelov.atlas.plugins.promjiraexporter.service.RequestSamplingRules;
 import ru.andreymarkelov.atlas.plugins.promjiraexporter.util.ExceptionRunnable;
+import ru.andreymarkelov.atlas.plugins.promjiraexporter.util.ThreadResourceMeter;
 
 import static org.apache.commons.lang3.StringUtils.removeStart;
+import static ru.andreymarkelov.atlas.plugins.promjiraexporter.service.MetricFamilies.DISTINCT_USERS;
+import static ru.andreymarkelov.atlas.plugins.promjiraexporter.service.MetricFamilies.HEAVY_HITTERS;
+import static ru.andreymarkelov.atlas.plugins.promjiraexporter.service.MetricFamilies.REQUESTS;
 
 public class AllEndpointFilter implements Filter {
     private final MetricCollector metricCollector;
     private final ApplicationProperties applicationProperties;
+    private final HeavyHitterTracker heavyHitterTracker;
+    private final ActiveUserTracker activeUserTracker;
+    private final RequestSamplingRules requestSamplingRules;
+    private final MetricFamilies metricFamilies;
 
-    public AllEndpointFilter(MetricCollector metricCollector, ApplicationProperties applicationProperties) {
+    public AllEndpointFilter(
+            MetricCollector metricCollector,
+            ApplicationProperties applicationProperties,
+            HeavyHitterTracker heavyHitterTracker,
+            ActiveUserTracker activeUserTracker,
+            RequestSamplingRules requestSamplingRules,
+            MetricFamilies metricFamilies) {
         this.metricCollector = metricCollector;
         this.applicationProperties = applicationProperties;
+        this.heavyHitterTracker = heavyHitterTracker;
+        this.activeUserTracker = activeUserTracker;
+        this.requestSamplingRules = requestSamplingRules;
+        this.metricFamilies = metricFamilies;
     }
 
     @Override
@@ -30,21 +58,84 @@ public class AllEndpointFilter implements Filter {
             final ServletRequest servletRequest,
             final ServletResponse servletResponse,
             final FilterChain filterChain) throws IOException, ServletException {
-        if (!(servletRequest instanceof HttpServletRequest)) {
+        if (!(servletRequest instanceof HttpServletRequest) || !(servletResponse instanceof HttpServletResponse)) {
             filterChain.doFilter(servletRequest, servletResponse);
             return;
         }
 
-        String path = removeStart(((HttpServletRequest) servletRequest).getRequestURI(), applicationProperties.getBaseUrl(UrlMode.RELATIVE));
-        metricCollector.requestDuration(
-                getComponents(path, 1),
-                new ExceptionRunnable() {
-                    @Override
-                    public void run() throws IOException, ServletException {
-                        filterChain.doFilter(servletRequest, servletResponse);
-                    }
+        // forwards and error pages are dispatched inside of the original request, which is already timed
+        if (servletRequest.getDispatcherType() != DispatcherType.REQUEST) {
+            filterChain.doFilter(servletRequest, servletResponse);
+            return;
+        }
+
+        boolean requests = metricFamilies.isEnabled(REQUESTS);
+        boolean heavyHitters = metricFamilies.isEnabled(HEAVY_HITTERS);
+        boolean distinctUsers = metricFamilies.isEnabled(DISTINCT_USERS);
+        if (!requests && !heavyHitters && !distinctUsers) {
+            filterChain.doFilter(servletRequest, servletResponse);
+            return;
+        }
+
+        HttpServletRequest httpServletRequest = (HttpServletRequest) servletRequest;
+        String path = removeStart(httpServletRequest.getRequestURI(), applicationProperties.getBaseUrl(UrlMode.RELATIVE));
+        int sampleRate = requestSamplingRules.getSampleRate(path);
+        if (sampleRate == 0) {
+            filterChain.doFilter(servletRequest, servletResponse);
+            return;
+        }
+
+        try {
+            if (requests) {
+                // every request is counted, only 1 in N is timed
+                final boolean timed = sampleRate == 1 || ThreadLocalRandom.current().nextInt(sampleRate) == 0;
+                final String route = getComponents(path, 1);
+                final CountingResponseWrapper responseWrapper = new CountingResponseWrapper((HttpServletResponse) servletResponse);
+                final int resourceSampleRate = requestSamplingRules.getResourceSampleRate();
+                final boolean measureResources = timed && (resourceSampleRate == 1
+                        || (resourceSampleRate > 1 && ThreadLocalRandom.current().nextInt(resourceSampleRate) == 0));
+                metricCollector.requestDuration(
+                        route,
+                        httpServletRequest,
+                        responseWrapper,
+                        timed,
+                        new ExceptionRunnable() {
+                            @Override
+                            public void run() throws IOException, ServletException {
+                                if (!measureResources) {
+                                    filterChain.doFilter(servletRequest, responseWrapper);
+                                    return;
+                                }
+
+                                long cpuStart = ThreadResourceMeter.currentThreadCpuTime();
+                                long allocatedStart = ThreadResourceMeter.currentThreadAllocatedBytes();
+                                try {
+                                    filterChain.doFilter(servletRequest, responseWrapper);
+                                } finally {
+                                    long cpuEnd = ThreadResourceMeter.currentThreadCpuTime();
+                                    long allocatedEnd = ThreadResourceMeter.currentThreadAllocatedBytes();
+                                    metricCollector.requestResources(
+                                            route,
+                                            (cpuStart >= 0 && cpuEnd >= 0) ? cpuEnd - cpuStart : -1,
+                                            (allocatedStart >= 0 && allocatedEnd >= 0) ? allocatedEnd - allocatedStart : -1);
+                                }
+                            }
+                        }
+                );
+            } else {
+                filterChain.doFilter(servletRequest, servletResponse);
+            }
+        } finally {
+            if (heavyHitters || distinctUsers) {
+                String username = getUsername(httpServletRequest);
+                if (heavyHitters) {
+                    heavyHitterTracker.userActivity(HeavyHitterTracker.Activity.REQUEST, username);
                 }
-        );
+                if (distinctUsers) {
+                    activeUserTracker.userActive(username);
+                }
+            }
+        }
     }
 
     @Override
@@ -55,6 +146,23 @@ public class AllEndpointFilter implements Filter {
     public void destroy() {
     }
 
+    /**
+     * The filter runs before login, so the user is taken from the session Seraph fills after authentication.
+     */
+    private static String getUsername(HttpServletRequest request) {
+        try {
+            HttpSession session = request.getSession(false);
+            if (session == null) {
+                return null;
+            }
+            Object user = session.getAttribute(DefaultAuthenticator.LOGGED_IN_KEY);
+            return (user instanceof Principal) ? ((Principal) user).getName() : null;
+        } catch (IllegalStateException e) {
+            // session was invalidated during the request
+            return null;
+        }
+    }
+
     private static String getComponents(String str, int pathComponents) {
         if (str == null || pathComponents < 1) {
             return str;
@@ -0,0 +1,173 @@
+package ru.andreymarkelov.atlas.plugins.promjiraexporter.servlet;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+/**
+ * Response wrapper which counts body bytes. Streams are wrapped lazily, so responses without body cost nothing.
+ * Characters written through the writer are counted as bytes of the response encoding. Only bytes actually written
+ * are counted, a declared Content-Length is ignored, so HEAD and aborted responses are not overcounted.
+ */
+public class CountingResponseWrapper extends HttpServletResponseWrapper {
+    private CountingOutputStream outputStream;
+    private CountingPrintWriter writer;
+
+    public CountingResponseWrapper(HttpServletResponse response) {
+        super(response);
+    }
+
+    @Override
+    public ServletOutputStream getOutputStream() throws IOException {
+        if (outputStream == null) {
+            outputStream = new CountingOutputStream(super.getOutputStream());
+        }
+        return outputStream;
+    }
+
+    @Override
+    public PrintWriter getWriter() throws IOException {
+        if (writer == null) {
+            writer = new CountingPrintWriter(super.getWriter(), getCharacterEncoding());
+        }
+        return writer;
+    }
+
+    public long getBytesWritten() {
+        long written = 0;
+        if (outputStream != null) {
+            written += outputStream.count;
+        }
+        if (writer != null) {
+            written += writer.count;
+        }
+        return written;
+    }
+
+    private static class CountingOutputStream extends ServletOutputStream {
+        private final ServletOutputStream delegate;
+        private long count;
+
+        private CountingOutputStream(ServletOutputStream delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            delegate.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            delegate.write(b, off, len);
+            count += len;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            delegate.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            delegate.close();
+        }
+
+        @Override
+        public boolean isReady() {
+            return delegate.isReady();
+        }
+
+        @Override
+        public void setWriteListener(WriteListener writeListener) {
+            delegate.setWriteListener(writeListener);
+        }
+    }
+
+    /**
+     * Counts encoded bytes without encoding twice: UTF-8 lengths are computed from the characters, single byte
+     * charsets count characters and other charsets encode the written text.
+     */
+    private static class CountingPrintWriter extends PrintWriter {
+        private final Charset charset;
+        private final boolean utf8;
+        private final boolean singleByte;
+        private long count;
+        private boolean highSurrogate;
+
+        private CountingPrintWriter(PrintWriter delegate, String encoding) {
+            super(delegate);
+            this.charset = forName(encoding);
+            this.utf8 = StandardCharsets.UTF_8.equals(charset);
+            this.singleByte = !utf8 && charset.newEncoder().maxBytesPerChar() <= 1;
+        }
+
+        @Override
+        public void write(int c) {
+            super.write(c);
+            count((char) c);
+        }
+
+        @Override
+        public void write(char[] buf, int off, int len) {
+            super.write(buf, off, len);
+            if (utf8) {
+                for (int i = off; i < off + len; i++) {
+                    count(buf[i]);
+                }
+            } else if (singleByte) {
+                count += len;
+            } else {
+                count += new String(buf, off, len).getBytes(charset).length;
+            }
+        }
+
+        @Override
+        public void write(String s, int off, int len) {
+            super.write(s, off, len);
+            if (utf8) {
+                for (int i = off; i < off + len; i++) {
+                    count(s.charAt(i));
+                }
+            } else if (singleByte) {
+                count += len;
+            } else {
+                count += s.substring(off, off + len).getBytes(charset).length;
+            }
+        }
+
+        private void count(char c) {
+            if (!utf8) {
+                count += singleByte ? 1 : String.valueOf(c).getBytes(charset).length;
+            } else if (c < 0x80) {
+                count++;
+            } else if (c < 0x800) {
+                count += 2;
+            } else if (Character.isHighSurrogate(c)) {
+                // the pair is 4 bytes, the low surrogate adds the other 1
+                count += 3;
+                highSurrogate = true;
+                return;
+            } else if (Character.isLowSurrogate(c) && highSurrogate) {
+                count += 1;
+            } else {
+                count += 3;
+            }
+            highSurrogate = false;
+        }
+
+        private static Charset forName(String encoding) {
+            try {
+                return (encoding != null) ? Charset.forName(encoding) : StandardCharsets.ISO_8859_1;
+            } catch (IllegalArgumentException e) {
+                return StandardCharsets.ISO_8859_1;
+            }
+        }
+    }
+}
@@ -4,25 +4,33 @@ import io.prometheus.client.exporter.common.TextFormat;
 import org.apache.commons.lang3.StringUtils;
 import ru.andreymarkelov.atlas.plugins.promjiraexporter.service.MetricCollector;
 import ru.andreymarkelov.atlas.plugins.promjiraexporter.service.SecureTokenManager;
+import ru.andreymarkelov.atlas.plugins.promjiraexporter.util.ExpositionWriter;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
-import java.io.Writer;
+import java.io.OutputStream;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.Semaphore;
 
 public class PrometheusExporter extends HttpServlet {
+    private static final int MAX_CONCURRENT_SCRAPES = 3;
+
     private final MetricCollector metricCollector;
     private final SecureTokenManager secureTokenManager;
+    private final ExpositionWriter expositionWriter;
+    private final Semaphore scrapePermits;
 
     public PrometheusExporter(MetricCollector metricCollector, SecureTokenManager secureTokenManager) {
         this.secureTokenManager = secureTokenManager;
         this.metricCollector = metricCollector;
+        this.expositionWriter = new ExpositionWriter();
+        this.scrapePermits = new Semaphore(MAX_CONCURRENT_SCRAPES);
     }
 
     @Override
@@ -37,12 +45,21 @@ public class PrometheusExporter extends HttpServlet {
             return;
         }
 
-        httpServletResponse.setStatus(HttpServletResponse.SC_OK);
-        httpServletResponse.setContentType(TextFormat.CONTENT_TYPE_004);
+        // concurrent scrapes share one collection, but each of them holds a Tomcat thread while writing
+        if (!scrapePermits.tryAcquire()) {
+            httpServletResponse.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            return;
+        }
+
+        try {
+            httpServletResponse.setStatus(HttpServletResponse.SC_OK);
+            httpServletResponse.setContentType(TextFormat.CONTENT_TYPE_004);
 
-        try (Writer writer = httpServletResponse.getWriter()) {
-            TextFormat.write004(writer, metricCollector.getRegistry().filteredMetricFamilySamples(parse(httpServletRequest)));
-            writer.flush();
+            try (OutputStream outputStream = httpServletResponse.getOutputStream()) {
+                expositionWriter.write(outputStream, metricCollector.getRegistry().filteredMetricFamilySamples(parse(httpServletRequest)));
+            }
+        } finally {
+            scrapePermits.release();
         }
     }
 
@@ -0,0 +1,124 @@
+package ru.andreymarkelov.atlas.plugins.promjiraexporter.servlet;
+
+import com.atlassian.jira.permission.GlobalPermissionKey;
+import com.atlassian.jira.security.GlobalPermissionManager;
+import com.atlassian.jira.security.JiraAuthenticationContext;
+import com.atlassian.jira.user.ApplicationUser;
+import org.apache.commons.lang3.StringUtils;
+import ru.andreymarkelov.atlas.plugins.promjiraexporter.service.RollupStore;
+import ru.andreymarkelov.atlas.plugins.promjiraexporter.service.SecureTokenManager;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.List;
+
+import static org.apache.commons.lang3.math.NumberUtils.toInt;
+import static org.apache.commons.lang3.math.NumberUtils.toLong;
+
+/**
+ * Serves range queries over the rollup store as JSON. Without {@code series} it lists configured series,
+ * otherwise it returns points of the series between {@code from} and {@code to} (seconds, last hour by default)
+ * downsampled to {@code step} seconds, by default to about {@value #DEFAULT_POINTS} points.
+ * Available to administrators and with the exporter token.
+ */
+public class RollupHistoryServlet extends HttpServlet {
+    private static final int DEFAULT_POINTS = 120;
+    private static final long DEFAULT_RANGE_SECONDS = 3600;
+
+    private final RollupStore rollupStore;
+    private final SecureTokenManager secureTokenManager;
+    private final JiraAuthenticationContext jiraAuthenticationContext;
+    private final GlobalPermissionManager globalPermissionManager;
+
+    public RollupHistoryServlet(
+            RollupStore rollupStore,
+            SecureTokenManager secureTokenManager,
+            JiraAuthenticationContext jiraAuthenticationContext,
+            GlobalPermissionManager globalPermissionManager) {
+        this.rollupStore = rollupStore;
+        this.secureTokenManager = secureTokenManager;
+        this.jiraAuthenticationContext = jiraAuthenticationContext;
+        this.globalPermissionManager = globalPermissionManager;
+    }
+
+    @Override
+    protected void doGet(
+            HttpServletRequest httpServletRequest,
+            HttpServletResponse httpServletResponse) throws IOException {
+        if (!isAllowed(httpServletRequest)) {
+            httpServletResponse.setStatus(HttpServletResponse.SC_UNAUTHORIZED);
+            return;
+        }
+
+        httpServletResponse.setStatus(HttpServletResponse.SC_OK);
+        httpServletResponse.setContentType("application/json;charset=UTF-8");
+        httpServletResponse.setHeader("Cache-Control", "no-cache");
+
+        PrintWriter writer = httpServletResponse.getWriter();
+        String series = httpServletRequest.getParameter("series");
+        if (StringUtils.isBlank(series)) {
+            writer.write("{\"series\":[");
+            List<String> names = rollupStore.getSeries();
+            for (int i = 0; i < names.size(); i++) {
+                if (i > 0) {
+                    writer.write(',');
+                }
+                writeString(writer, names.get(i));
+            }
+            writer.write("]}");
+            return;
+        }
+
+        long now = System.currentTimeMillis() / 1000;
+        long to = toLong(httpServletRequest.getParameter("to"), now);
+        long from = toLong(httpServletRequest.getParameter("from"), to - DEFAULT_RANGE_SECONDS);
+        int step = toInt(httpServletRequest.getParameter("step"), (int) Math.max(60, (to - from) / DEFAULT_POINTS));
+
+        List<double[]> points = rollupStore.query(series, from, to, step);
+        writer.write("{\"points\":[");
+        for (int i = 0; i < points.size(); i++) {
+            double[] point = points.get(i);
+            writer.write(i > 0 ? ",[" : "[");
+            writer.write(Long.toString((long) point[0]));
+            writer.write(',');
+            writeNumber(writer, point[1]);
+            writer.write(']');
+        }
+        writer.write("]}");
+    }
+
+    private static void writeString(PrintWriter writer, String value) {
+        writer.write('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                writer.write('\\');
+                writer.write(c);
+            } else if (c < 0x20) {
+                writer.write(String.format("\\u%04x", (int) c));
+            } else {
+                writer.write(c);
+            }
+        }
+        writer.write('"');
+    }
+
+    /**
+     * JSON has no infinity or NaN, such values are written as null.
+     */
+    private static void writeNumber(PrintWriter writer, double value) {
+        writer.write(Double.isNaN(value) || Double.isInfinite(value) ? "null" : Double.toString(value));
+    }
+
+    private boolean isAllowed(HttpServletRequest httpServletRequest) {
+        String storedToken = secureTokenManager.getToken();
+        if (StringUtils.isNotBlank(storedToken) && storedToken.equals(httpServletRequest.getParameter("token"))) {
+            return true;
+        }
+        ApplicationUser user = jiraAuthenticationContext.getLoggedInUser();
+        return user != null && globalPermissionManager.hasPermission(GlobalPermissionKey.ADMINISTER, user);
+    }
+}
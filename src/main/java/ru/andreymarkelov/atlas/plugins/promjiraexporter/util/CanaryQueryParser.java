@@ -0,0 +1,41 @@
+package ru.andreymarkelov.atlas.plugins.promjiraexporter.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import static org.apache.commons.lang3.StringUtils.isBlank;
+
+/**
+ * Parses canary queries, one per line: {@code name=JQL}. The name is split at the first {@code =},
+ * so the JQL may contain it.
+ */
+public class CanaryQueryParser {
+    private static final Pattern NAME = Pattern.compile("[A-Za-z0-9_.-]+");
+
+    private CanaryQueryParser() {
+    }
+
+    public static Map<String, String> parse(String queries) {
+        Map<String, String> result = new LinkedHashMap<>();
+        if (isBlank(queries)) {
+            return result;
+        }
+
+        for (String line : queries.split("[\\r\\n]+")) {
+            line = line.trim();
+            if (line.isEmpty()) {
+                continue;
+            }
+
+            int index = line.indexOf('=');
+            String name = (index >= 0) ? line.substring(0, index).trim() : "";
+            String jql = (index >= 0) ? line.substring(index + 1).trim() : "";
+            if (!NAME.matcher(name).matches() || jql.isEmpty() || result.containsKey(name)) {
+                throw new IllegalArgumentException("Invalid canary query: " + line);
+            }
+            result.put(name, jql);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,78 @@
+package ru.andreymarkelov.atlas.plugins.promjiraexporter.util;
+
+import io.prometheus.client.Collector.MetricFamilySamples;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeoutException;
+
+import static java.util.Collections.emptyList;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+/**
+ * Part of a scrape which runs on the collector pool under a deadline. A group which overruns or fails returns
+ * the values of its last successful run and is marked stale. A group still running from an earlier scrape
+ * is not started again, its result is used by the next scrape.
+ */
+public class CollectorGroup {
+    private static final Logger log = LoggerFactory.getLogger(CollectorGroup.class);
+
+    private final String name;
+    private final Callable<List<MetricFamilySamples>> collector;
+
+    private volatile List<MetricFamilySamples> lastGood = emptyList();
+    private volatile boolean stale;
+    private volatile double lastDurationSeconds;
+    private Future<List<MetricFamilySamples>> running;
+
+    public CollectorGroup(String name, Callable<List<MetricFamilySamples>> collector) {
+        this.name = name;
+        this.collector = collector;
+    }
+
+    public synchronized Future<List<MetricFamilySamples>> start(ExecutorService executorService) {
+        if (running == null || running.isDone()) {
+            running = executorService.submit(() -> {
+                long start = System.nanoTime();
+                List<MetricFamilySamples> result = collector.call();
+                lastGood = result;
+                lastDurationSeconds = (System.nanoTime() - start) / 1e9;
+                return result;
+            });
+        }
+        return running;
+    }
+
+    public List<MetricFamilySamples> await(Future<List<MetricFamilySamples>> future, long deadlineNanos) {
+        try {
+            List<MetricFamilySamples> result = future.get(Math.max(0, deadlineNanos - System.nanoTime()), NANOSECONDS);
+            stale = false;
+            return result;
+        } catch (TimeoutException ex) {
+            log.warn("Collector group {} is over the deadline, previous values are used.", name);
+        } catch (ExecutionException ex) {
+            log.error("Collector group {} failed, previous values are used.", name, ex.getCause());
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        stale = true;
+        return lastGood;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public boolean isStale() {
+        return stale;
+    }
+
+    public double getLastDurationSeconds() {
+        return lastDurationSeconds;
+    }
+}
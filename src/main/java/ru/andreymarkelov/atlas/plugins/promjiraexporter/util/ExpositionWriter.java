@@ -0,0 +1,260 @@
+package ru.andreymarkelov.atlas.plugins.promjiraexporter.util;
+
+import io.prometheus.client.Collector;
+import io.prometheus.client.Collector.MetricFamilySamples;
+import io.prometheus.client.Collector.MetricFamilySamples.Sample;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Writes the text exposition format 0.0.4 straight into a byte buffer, which is flushed to the output stream
+ * when full. Family headers, sample names and label name prefixes are encoded once and cached, label values
+ * are encoded in place, and integral values are formatted without going through {@link Double#toString}.
+ * The output is the same as {@link io.prometheus.client.exporter.common.TextFormat#write004}, except that
+ * integral values from 1e7 up to 1e15 are written in plain notation, ExpositionWriterTest compares both.
+ */
+public class ExpositionWriter {
+    private static final int BUFFER_SIZE = 16 * 1024;
+    private static final int MAX_CACHED_NAMES = 10000;
+    private static final double MAX_PLAIN_INTEGRAL = 1e15;
+
+    private static final byte[] INF = "+Inf".getBytes(UTF_8);
+    private static final byte[] NEGATIVE_INF = "-Inf".getBytes(UTF_8);
+    private static final byte[] NAN = "NaN".getBytes(UTF_8);
+    private static final byte[] LABEL_END = "\",".getBytes(UTF_8);
+
+    private final ConcurrentMap<String, Header> headers = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, byte[]> names = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, byte[]> labelPrefixes = new ConcurrentHashMap<>();
+
+    public void write(OutputStream out, Enumeration<MetricFamilySamples> metricFamilySamples) throws IOException {
+        Buffer buffer = new Buffer(out);
+        while (metricFamilySamples.hasMoreElements()) {
+            MetricFamilySamples family = metricFamilySamples.nextElement();
+            buffer.write(header(family));
+            for (Sample sample : family.samples) {
+                writeSample(buffer, sample);
+            }
+        }
+        buffer.flush();
+    }
+
+    private void writeSample(Buffer buffer, Sample sample) throws IOException {
+        buffer.write(cached(names, sample.name, ""));
+        List<String> labelNames = sample.labelNames;
+        if (!labelNames.isEmpty()) {
+            buffer.write('{');
+            for (int i = 0; i < labelNames.size(); i++) {
+                String labelName = labelNames.get(i);
+                buffer.write(cached(labelPrefixes, labelName, "=\""));
+                writeEscapedLabelValue(buffer, sample.labelValues.get(i));
+                buffer.write(LABEL_END);
+            }
+            buffer.write('}');
+        }
+        buffer.write(' ');
+        writeDouble(buffer, sample.value);
+        if (sample.timestampMs != null) {
+            buffer.write(' ');
+            writeLong(buffer, sample.timestampMs);
+        }
+        buffer.write('\n');
+    }
+
+    private byte[] header(MetricFamilySamples family) {
+        Header header = headers.get(family.name);
+        if (header != null && header.type == family.type && header.help.equals(family.help)) {
+            return header.bytes;
+        }
+
+        StringBuilder text = new StringBuilder();
+        text.append("# HELP ").append(family.name).append(' ');
+        for (int i = 0; i < family.help.length(); i++) {
+            char c = family.help.charAt(i);
+            if (c == '\\') {
+                text.append("\\\\");
+            } else if (c == '\n') {
+                text.append("\\n");
+            } else {
+                text.append(c);
+            }
+        }
+        text.append("\n# TYPE ").append(family.name).append(' ').append(typeString(family.type)).append('\n');
+        header = new Header(family.help, family.type, text.toString().getBytes(UTF_8));
+        if (headers.size() < MAX_CACHED_NAMES) {
+            headers.put(family.name, header);
+        }
+        return header.bytes;
+    }
+
+    private static byte[] cached(ConcurrentMap<String, byte[]> cache, String key, String suffix) {
+        byte[] bytes = cache.get(key);
+        if (bytes == null) {
+            bytes = (key + suffix).getBytes(UTF_8);
+            if (cache.size() < MAX_CACHED_NAMES) {
+                cache.put(key, bytes);
+            }
+        }
+        return bytes;
+    }
+
+    private static void writeEscapedLabelValue(Buffer buffer, String value) throws IOException {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\') {
+                buffer.write('\\');
+                buffer.write('\\');
+            } else if (c == '\n') {
+                buffer.write('\\');
+                buffer.write('n');
+            } else if (c == '"') {
+                buffer.write('\\');
+                buffer.write('"');
+            } else if (c < 0x80) {
+                buffer.write(c);
+            } else if (c < 0x800) {
+                buffer.write(0xc0 | (c >> 6));
+                buffer.write(0x80 | (c & 0x3f));
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                buffer.write(0xf0 | (codePoint >> 18));
+                buffer.write(0x80 | ((codePoint >> 12) & 0x3f));
+                buffer.write(0x80 | ((codePoint >> 6) & 0x3f));
+                buffer.write(0x80 | (codePoint & 0x3f));
+            } else if (Character.isSurrogate(c)) {
+                buffer.write('?');
+            } else {
+                buffer.write(0xe0 | (c >> 12));
+                buffer.write(0x80 | ((c >> 6) & 0x3f));
+                buffer.write(0x80 | (c & 0x3f));
+            }
+        }
+    }
+
+    private static void writeDouble(Buffer buffer, double value) throws IOException {
+        if (value == Double.POSITIVE_INFINITY) {
+            buffer.write(INF);
+        } else if (value == Double.NEGATIVE_INFINITY) {
+            buffer.write(NEGATIVE_INF);
+        } else if (Double.isNaN(value)) {
+            buffer.write(NAN);
+        } else if (value == (long) value && Math.abs(value) < MAX_PLAIN_INTEGRAL && !isNegativeZero(value)) {
+            // counters and most gauges are integral
+            writeLong(buffer, (long) value);
+            buffer.write('.');
+            buffer.write('0');
+        } else {
+            String text = Double.toString(value);
+            for (int i = 0; i < text.length(); i++) {
+                buffer.write(text.charAt(i));
+            }
+        }
+    }
+
+    private static boolean isNegativeZero(double value) {
+        return Double.doubleToRawLongBits(value) == Long.MIN_VALUE;
+    }
+
+    private static void writeLong(Buffer buffer, long value) throws IOException {
+        if (value == Long.MIN_VALUE) {
+            buffer.write(Long.toString(value).getBytes(UTF_8));
+            return;
+        }
+        if (value < 0) {
+            buffer.write('-');
+            value = -value;
+        }
+        buffer.ensure(20);
+        int start = buffer.position;
+        do {
+            buffer.bytes[buffer.position++] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value > 0);
+        // digits were written in reverse order
+        for (int i = start, j = buffer.position - 1; i < j; i++, j--) {
+            byte temp = buffer.bytes[i];
+            buffer.bytes[i] = buffer.bytes[j];
+            buffer.bytes[j] = temp;
+        }
+    }
+
+    private static String typeString(Collector.Type type) {
+        switch (type) {
+            case GAUGE:
+                return "gauge";
+            case COUNTER:
+                return "counter";
+            case SUMMARY:
+                return "summary";
+            case HISTOGRAM:
+                return "histogram";
+            default:
+                return "untyped";
+        }
+    }
+
+    private static class Header {
+        private final String help;
+        private final Collector.Type type;
+        private final byte[] bytes;
+
+        private Header(String help, Collector.Type type, byte[] bytes) {
+            this.help = help;
+            this.type = type;
+            this.bytes = bytes;
+        }
+    }
+
+    private static class Buffer {
+        private final OutputStream out;
+        private final byte[] bytes;
+        private int position;
+
+        private Buffer(OutputStream out) {
+            this.out = out;
+            this.bytes = new byte[BUFFER_SIZE];
+        }
+
+        private void write(int b) throws IOException {
+            if (position == bytes.length) {
+                flushBuffer();
+            }
+            bytes[position++] = (byte) b;
+        }
+
+        private void write(byte[] b) throws IOException {
+            if (b.length > bytes.length - position) {
+                flushBuffer();
+                if (b.length > bytes.length) {
+                    out.write(b);
+                    return;
+                }
+            }
+            System.arraycopy(b, 0, bytes, position, b.length);
+            position += b.length;
+        }
+
+        private void ensure(int length) throws IOException {
+            if (length > bytes.length - position) {
+                flushBuffer();
+            }
+        }
+
+        private void flushBuffer() throws IOException {
+            out.write(bytes, 0, position);
+            position = 0;
+        }
+
+        private void flush() throws IOException {
+            flushBuffer();
+            out.flush();
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package ru.andreymarkelov.atlas.plugins.promjiraexporter.util;
+
+import java.util.Arrays;
+
+/**
+ * HyperLogLog distinct counter with one byte per register. Concurrent offers may race on a register,
+ * which can only lose an update, never corrupt the sketch.
+ */
+public class HyperLogLog {
+    private final int precision;
+    private final byte[] registers;
+
+    public HyperLogLog(int precision) {
+        this.precision = precision;
+        this.registers = new byte[1 << precision];
+    }
+
+    public void offer(long hash) {
+        int index = (int) (hash >>> (64 - precision));
+        long w = (hash << precision) | (1L << (precision - 1));
+        byte rank = (byte) (Long.numberOfLeadingZeros(w) + 1);
+        if (rank > registers[index]) {
+            registers[index] = rank;
+        }
+    }
+
+    public void clear() {
+        Arrays.fill(registers, (byte) 0);
+    }
+
+    public void mergeInto(byte[] target) {
+        for (int i = 0; i < registers.length; i++) {
+            if (registers[i] > target[i]) {
+                target[i] = registers[i];
+            }
+        }
+    }
+
+    public byte[] getRegisters() {
+        return registers;
+    }
+
+    public static double estimate(byte[] registers) {
+        int m = registers.length;
+        double sum = 0;
+        int zeros = 0;
+        for (byte register : registers) {
+            sum += 1.0 / (1L << register);
+            if (register == 0) {
+                zeros++;
+            }
+        }
+
+        double estimate = alpha(m) * m * m / sum;
+        if (estimate <= 2.5 * m && zeros > 0) {
+            // linear counting for small cardinalities
+            return m * Math.log((double) m / zeros);
+        }
+        return estimate;
+    }
+
+    /**
+     * 64-bit FNV-1a with a murmur3 finalizer.
+     */
+    public static long hash(CharSequence value) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < value.length(); i++) {
+            h ^= value.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private static double alpha(int m) {
+        switch (m) {
+            case 16: return 0.673;
+            case 32: return 0.697;
+            case 64: return 0.709;
+            default: return 0.7213 / (1 + 1.079 / m);
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package ru.andreymarkelov.atlas.plugins.promjiraexporter.util;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import static org.apache.commons.lang3.StringUtils.isBlank;
+
+/**
+ * Parses a list of names separated by commas or whitespace, names are trimmed and lower-cased.
+ */
+public class NameListParser {
+    private NameListParser() {
+    }
+
+    public static Set<String> parse(String names) {
+        Set<String> result = new LinkedHashSet<>();
+        if (isBlank(names)) {
+            return result;
+        }
+
+        for (String name : names.split("[,\\s]+")) {
+            if (!name.isEmpty()) {
+                result.add(name.toLowerCase());
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,74 @@
+package ru.andreymarkelov.atlas.plugins.promjiraexporter.util;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Immutable trie which maps string prefixes to int values. A lookup walks the string once
+ * and returns the value of the longest matching prefix.
+ */
+public class PrefixTrie {
+    private final Node root;
+
+    public PrefixTrie(Map<String, Integer> prefixes) {
+        MutableNode mutableRoot = new MutableNode();
+        for (Map.Entry<String, Integer> entry : prefixes.entrySet()) {
+            MutableNode node = mutableRoot;
+            for (int i = 0; i < entry.getKey().length(); i++) {
+                node = node.children.computeIfAbsent(entry.getKey().charAt(i), c -> new MutableNode());
+            }
+            node.value = entry.getValue();
+        }
+        this.root = mutableRoot.compile();
+    }
+
+    public int longestMatch(String str, int defaultValue) {
+        int result = defaultValue;
+        Node node = root;
+        for (int i = 0; ; i++) {
+            if (node.terminal) {
+                result = node.value;
+            }
+            if (i == str.length()) {
+                return result;
+            }
+            int index = Arrays.binarySearch(node.keys, str.charAt(i));
+            if (index < 0) {
+                return result;
+            }
+            node = node.children[index];
+        }
+    }
+
+    private static class Node {
+        private final char[] keys;
+        private final Node[] children;
+        private final boolean terminal;
+        private final int value;
+
+        private Node(char[] keys, Node[] children, boolean terminal, int value) {
+            this.keys = keys;
+            this.children = children;
+            this.terminal = terminal;
+            this.value = value;
+        }
+    }
+
+    private static class MutableNode {
+        private final TreeMap<Character, MutableNode> children = new TreeMap<>();
+        private Integer value;
+
+        private Node compile() {
+            char[] keys = new char[children.size()];
+            Node[] nodes = new Node[children.size()];
+            int i = 0;
+            for (Map.Entry<Character, MutableNode> entry : children.entrySet()) {
+                keys[i] = entry.getKey();
+                nodes[i] = entry.getValue().compile();
+                i++;
+            }
+            return new Node(keys, nodes, value != null, value != null ? value : 0);
+        }
+    }
+}
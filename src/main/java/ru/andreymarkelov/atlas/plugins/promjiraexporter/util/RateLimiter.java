@@ -0,0 +1,32 @@
+package ru.andreymarkelov.atlas.plugins.promjiraexporter.util;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+/**
+ * Simple blocking rate limiter, spreads permits evenly over time without bursts.
+ */
+public class RateLimiter {
+    private final long intervalNanos;
+    private long next;
+
+    public RateLimiter(int permitsPerSecond) {
+        this.intervalNanos = SECONDS.toNanos(1) / permitsPerSecond;
+        this.next = System.nanoTime();
+    }
+
+    public void acquire(int permits) throws InterruptedException {
+        long wait;
+        synchronized (this) {
+            long now = System.nanoTime();
+            if (next < now) {
+                next = now;
+            }
+            wait = next - now;
+            next += intervalNanos * permits;
+        }
+        if (wait > 0) {
+            NANOSECONDS.sleep(wait);
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package ru.andreymarkelov.atlas.plugins.promjiraexporter.util;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.List;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Writes the protobuf {@code prometheus.WriteRequest} of remote write without a protobuf runtime.
+ * One series is added at a time, labels are sorted by name as the protocol requires.
+ */
+public class RemoteWriteEncoder {
+    private static final int TIMESERIES_TAG = 1 << 3 | 2;
+    private static final int LABEL_TAG = 1 << 3 | 2;
+    private static final int SAMPLE_TAG = 2 << 3 | 2;
+    private static final int NAME_TAG = 1 << 3 | 2;
+    private static final int VALUE_TAG = 2 << 3 | 2;
+    private static final int SAMPLE_VALUE_TAG = 1 << 3 | 1;
+    private static final int SAMPLE_TIMESTAMP_TAG = 2 << 3;
+
+    private final ByteArrayOutputStream request = new ByteArrayOutputStream();
+    private final ByteArrayOutputStream series = new ByteArrayOutputStream();
+    private int seriesCount;
+
+    public void addSeries(List<String> labelNames, List<String> labelValues, double value, long timestampMs) {
+        Integer[] order = new Integer[labelNames.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (first, second) -> labelNames.get(first).compareTo(labelNames.get(second)));
+
+        series.reset();
+        for (int i : order) {
+            writeLabel(labelNames.get(i), labelValues.get(i));
+        }
+        series.write(SAMPLE_TAG);
+        writeVarint(series, 1 + 8 + 1 + varintSize(timestampMs));
+        series.write(SAMPLE_VALUE_TAG);
+        long bits = Double.doubleToRawLongBits(value);
+        for (int i = 0; i < 8; i++) {
+            series.write((int) (bits >>> (8 * i)) & 0xff);
+        }
+        series.write(SAMPLE_TIMESTAMP_TAG);
+        writeVarint(series, timestampMs);
+
+        request.write(TIMESERIES_TAG);
+        writeVarint(request, series.size());
+        request.write(series.toByteArray(), 0, series.size());
+        seriesCount++;
+    }
+
+    public int getSeriesCount() {
+        return seriesCount;
+    }
+
+    public byte[] toByteArray() {
+        return request.toByteArray();
+    }
+
+    public void reset() {
+        request.reset();
+        seriesCount = 0;
+    }
+
+    private void writeLabel(String name, String value) {
+        byte[] nameBytes = name.getBytes(UTF_8);
+        byte[] valueBytes = value.getBytes(UTF_8);
+        series.write(LABEL_TAG);
+        writeVarint(series, 1 + varintSize(nameBytes.length) + nameBytes.length + 1 + varintSize(valueBytes.length) + valueBytes.length);
+        series.write(NAME_TAG);
+        writeVarint(series, nameBytes.length);
+        series.write(nameBytes, 0, nameBytes.length);
+        series.write(VALUE_TAG);
+        writeVarint(series, valueBytes.length);
+        series.write(valueBytes, 0, valueBytes.length);
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7fL) != 0) {
+            out.write((int) (value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static int varintSize(long value) {
+        int size = 1;
+        while ((value & ~0x7fL) != 0) {
+            size++;
+            value >>>= 7;
+        }
+        return size;
+    }
+}
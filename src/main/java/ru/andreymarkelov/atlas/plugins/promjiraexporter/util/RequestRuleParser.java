@@ -0,0 +1,38 @@
+package ru.andreymarkelov.atlas.plugins.promjiraexporter.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.apache.commons.lang3.StringUtils.isBlank;
+import static org.apache.commons.lang3.math.NumberUtils.toInt;
+
+/**
+ * Parses request rules, one per line: {@code /path/prefix=N} times 1 in N requests, N = 0 or no value skips timing.
+ */
+public class RequestRuleParser {
+    private RequestRuleParser() {
+    }
+
+    public static Map<String, Integer> parse(String rules) {
+        Map<String, Integer> result = new LinkedHashMap<>();
+        if (isBlank(rules)) {
+            return result;
+        }
+
+        for (String line : rules.split("[\\r\\n]+")) {
+            line = line.trim();
+            if (line.isEmpty()) {
+                continue;
+            }
+
+            int index = line.lastIndexOf('=');
+            String prefix = (index >= 0) ? line.substring(0, index).trim() : line;
+            int rate = (index >= 0) ? toInt(line.substring(index + 1).trim(), -1) : 0;
+            if (!prefix.startsWith("/") || rate < 0) {
+                throw new IllegalArgumentException("Invalid request rule: " + line);
+            }
+            result.put(prefix, rate);
+        }
+        return result;
+    }
+}
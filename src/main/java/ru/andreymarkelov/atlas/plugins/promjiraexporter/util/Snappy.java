@@ -0,0 +1,104 @@
+package ru.andreymarkelov.atlas.plugins.promjiraexporter.util;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+/**
+ * Snappy block format compressor, as required by Prometheus remote write. Greedy matching over 64 KB
+ * fragments with a 4-byte hash table, it gives up some ratio against the reference implementation
+ * but keeps the plugin free of native libraries.
+ */
+public class Snappy {
+    private static final int FRAGMENT_SIZE = 1 << 16;
+    private static final int HASH_BITS = 14;
+    private static final int MIN_MATCH = 4;
+
+    private Snappy() {
+    }
+
+    public static byte[] compress(byte[] input, int length) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(length / 2 + 16);
+        writeVarint(out, length);
+
+        int[] table = new int[1 << HASH_BITS];
+        for (int start = 0; start < length; start += FRAGMENT_SIZE) {
+            compressFragment(input, start, Math.min(start + FRAGMENT_SIZE, length), table, out);
+        }
+        return out.toByteArray();
+    }
+
+    private static void compressFragment(byte[] input, int start, int end, int[] table, ByteArrayOutputStream out) {
+        // positions are stored shifted by one, zero marks an empty slot
+        Arrays.fill(table, 0);
+        int ip = start;
+        int nextEmit = start;
+        while (ip + MIN_MATCH <= end) {
+            int bytes = load32(input, ip);
+            int hash = (bytes * 0x1e35a7bd) >>> (32 - HASH_BITS);
+            int candidate = table[hash] - 1 + start;
+            table[hash] = ip - start + 1;
+            if (candidate < start || load32(input, candidate) != bytes) {
+                ip++;
+                continue;
+            }
+
+            emitLiteral(input, nextEmit, ip - nextEmit, out);
+            int matchLength = MIN_MATCH;
+            while (ip + matchLength < end && input[candidate + matchLength] == input[ip + matchLength]) {
+                matchLength++;
+            }
+            emitCopy(ip - candidate, matchLength, out);
+            ip += matchLength;
+            nextEmit = ip;
+        }
+        emitLiteral(input, nextEmit, end - nextEmit, out);
+    }
+
+    private static void emitLiteral(byte[] input, int offset, int length, ByteArrayOutputStream out) {
+        if (length == 0) {
+            return;
+        }
+        int n = length - 1;
+        if (n < 60) {
+            out.write(n << 2);
+        } else if (n < 256) {
+            out.write(60 << 2);
+            out.write(n);
+        } else {
+            out.write(61 << 2);
+            out.write(n & 0xff);
+            out.write(n >>> 8);
+        }
+        out.write(input, offset, length);
+    }
+
+    private static void emitCopy(int offset, int length, ByteArrayOutputStream out) {
+        while (length >= 68) {
+            emitCopy2(offset, 64, out);
+            length -= 64;
+        }
+        if (length > 64) {
+            emitCopy2(offset, 60, out);
+            length -= 60;
+        }
+        emitCopy2(offset, length, out);
+    }
+
+    private static void emitCopy2(int offset, int length, ByteArrayOutputStream out) {
+        out.write(((length - 1) << 2) | 2);
+        out.write(offset & 0xff);
+        out.write(offset >>> 8);
+    }
+
+    private static int load32(byte[] input, int i) {
+        return (input[i] & 0xff) | (input[i + 1] & 0xff) << 8 | (input[i + 2] & 0xff) << 16 | (input[i + 3] & 0xff) << 24;
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7f) != 0) {
+            out.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+}
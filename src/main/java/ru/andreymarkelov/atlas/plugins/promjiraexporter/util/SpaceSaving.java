@@ -0,0 +1,93 @@
+package ru.andreymarkelov.atlas.plugins.promjiraexporter.util;
+
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Space-Saving heavy hitters sketch. Keeps at most {@code capacity} keys, a new key evicts the smallest one
+ * and inherits its count, so counts are overestimated by at most the smallest tracked count.
+ */
+public class SpaceSaving {
+    private final int capacity;
+    private final String[] keys;
+    private final double[] counts;
+    private final Map<String, Integer> index;
+    private int size;
+
+    public SpaceSaving(int capacity) {
+        this.capacity = capacity;
+        this.keys = new String[capacity];
+        this.counts = new double[capacity];
+        this.index = new HashMap<>(capacity * 2);
+    }
+
+    public synchronized void offer(String key) {
+        Integer i = index.get(key);
+        if (i != null) {
+            counts[i]++;
+            return;
+        }
+
+        if (size < capacity) {
+            keys[size] = key;
+            counts[size] = 1;
+            index.put(key, size);
+            size++;
+            return;
+        }
+
+        int min = 0;
+        for (int j = 1; j < size; j++) {
+            if (counts[j] < counts[min]) {
+                min = j;
+            }
+        }
+        index.remove(keys[min]);
+        keys[min] = key;
+        counts[min]++;
+        index.put(key, min);
+    }
+
+    /**
+     * Multiplies all counts by factor and drops keys which fall below threshold.
+     */
+    public synchronized void decay(double factor, double threshold) {
+        int i = 0;
+        while (i < size) {
+            counts[i] *= factor;
+            if (counts[i] < threshold) {
+                index.remove(keys[i]);
+                size--;
+                if (i < size) {
+                    keys[i] = keys[size];
+                    counts[i] = counts[size];
+                    index.put(keys[i], i);
+                }
+                keys[size] = null;
+                counts[size] = 0;
+            } else {
+                i++;
+            }
+        }
+    }
+
+    public synchronized List<Map.Entry<String, Double>> top(int n) {
+        int limit = Math.min(n, size);
+        boolean[] taken = new boolean[size];
+        List<Map.Entry<String, Double>> result = new ArrayList<>(limit);
+        for (int k = 0; k < limit; k++) {
+            int max = -1;
+            for (int j = 0; j < size; j++) {
+                if (!taken[j] && (max < 0 || counts[j] > counts[max])) {
+                    max = j;
+                }
+            }
+            taken[max] = true;
+            result.add(new SimpleImmutableEntry<>(keys[max], counts[max]));
+        }
+        return result;
+    }
+}
@@ -0,0 +1,62 @@
+package ru.andreymarkelov.atlas.plugins.promjiraexporter.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+
+/**
+ * Reads CPU time and allocated bytes of the current thread. The allocation counter is a HotSpot extension
+ * of {@code com.sun.management.ThreadMXBean}, it is looked up reflectively because the plugin does not import that package.
+ */
+public final class ThreadResourceMeter {
+    private static final Logger log = LoggerFactory.getLogger(ThreadResourceMeter.class);
+
+    private static final ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+    private static final boolean cpuTimeSupported = threadMXBean.isCurrentThreadCpuTimeSupported();
+    private static final Method allocatedBytesMethod = findAllocatedBytesMethod();
+
+    private ThreadResourceMeter() {
+    }
+
+    /**
+     * Returns CPU time of the current thread in nanoseconds or -1 if it is not supported.
+     */
+    public static long currentThreadCpuTime() {
+        return cpuTimeSupported ? threadMXBean.getCurrentThreadCpuTime() : -1;
+    }
+
+    /**
+     * Returns bytes allocated by the current thread so far or -1 if it is not supported.
+     */
+    public static long currentThreadAllocatedBytes() {
+        if (allocatedBytesMethod == null) {
+            return -1;
+        }
+        try {
+            return (Long) allocatedBytesMethod.invoke(threadMXBean, Thread.currentThread().getId());
+        } catch (Exception ex) {
+            return -1;
+        }
+    }
+
+    private static Method findAllocatedBytesMethod() {
+        try {
+            Class<?> beanClass = Class.forName("com.sun.management.ThreadMXBean", false, null);
+            if (!beanClass.isInstance(threadMXBean)) {
+                return null;
+            }
+            Object supported = beanClass.getMethod("isThreadAllocatedMemorySupported").invoke(threadMXBean);
+            Object enabled = beanClass.getMethod("isThreadAllocatedMemoryEnabled").invoke(threadMXBean);
+            if (!Boolean.TRUE.equals(supported) || !Boolean.TRUE.equals(enabled)) {
+                return null;
+            }
+            return beanClass.getMethod("getThreadAllocatedBytes", long.class);
+        } catch (Exception ex) {
+            log.debug("Thread allocation counter is not available.", ex);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package ru.andreymarkelov.atlas.plugins.promjiraexporter.service;
+
+import org.junit.Test;
+import ru.andreymarkelov.atlas.plugins.promjiraexporter.util.HyperLogLog;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+public class ActiveUserTrackerImplTest {
+    private static final long BUCKET = TimeUnit.MINUTES.toMillis(15);
+    private static final long WINDOW = 4 * BUCKET;
+    private static final long START = 1000 * BUCKET;
+
+    @Test
+    public void testEstimate_EndOfOldestBucket_Success() {
+        ActiveUserTrackerImpl.SlidingWindow window = new ActiveUserTrackerImpl.SlidingWindow("1h", BUCKET, 4);
+        long active = START + BUCKET - 1;
+        window.offer(HyperLogLog.hash("user"), active);
+        // the user was active exactly one window ago
+        assertEquals(1, Math.round(window.estimate(active + WINDOW)));
+    }
+
+    @Test
+    public void testEstimate_WholeWindow_Success() {
+        ActiveUserTrackerImpl.SlidingWindow window = new ActiveUserTrackerImpl.SlidingWindow("1h", BUCKET, 4);
+        HyperLogLog all = new HyperLogLog(9);
+        long now = START + WINDOW + BUCKET / 2;
+        for (int minute = 0; minute < 60; minute++) {
+            window.offer(HyperLogLog.hash("user" + minute), now - TimeUnit.MINUTES.toMillis(minute));
+            all.offer(HyperLogLog.hash("user" + minute));
+        }
+        // the union of buckets loses nothing against one sketch of every user in the window
+        assertEquals(HyperLogLog.estimate(all.getRegisters()), window.estimate(now), 0);
+    }
+
+    @Test
+    public void testEstimate_OutsideWindow_Success() {
+        ActiveUserTrackerImpl.SlidingWindow window = new ActiveUserTrackerImpl.SlidingWindow("1h", BUCKET, 4);
+        window.offer(HyperLogLog.hash("user"), START);
+        assertEquals(1, Math.round(window.estimate(START + WINDOW)));
+        assertEquals(0, Math.round(window.estimate(START + WINDOW + BUCKET)));
+    }
+
+    @Test
+    public void testOffer_RotatedBucket_Success() {
+        ActiveUserTrackerImpl.SlidingWindow window = new ActiveUserTrackerImpl.SlidingWindow("1h", BUCKET, 4);
+        window.offer(HyperLogLog.hash("first"), START);
+        // five buckets later the ring reuses the bucket of the first user
+        long later = START + 5 * BUCKET;
+        window.offer(HyperLogLog.hash("second"), later);
+        assertEquals(1, Math.round(window.estimate(later)));
+    }
+}
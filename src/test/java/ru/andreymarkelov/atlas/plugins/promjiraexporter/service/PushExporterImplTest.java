@@ -0,0 +1,148 @@
+package ru.andreymarkelov.atlas.plugins.promjiraexporter.service;
+
+import com.sun.net.httpserver.HttpServer;
+import io.prometheus.client.CollectorRegistry;
+import io.prometheus.client.Counter;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.xerial.snappy.Snappy;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Pushes to a stub remote write receiver on a local port.
+ */
+public class PushExporterImplTest {
+    private HttpServer server;
+    private BlockingQueue<Request> requests;
+    private AtomicInteger failures;
+    private PushExporterImpl pushExporter;
+    private Counter counter;
+
+    @Before
+    public void setUp() throws IOException {
+        requests = new LinkedBlockingQueue<>();
+        failures = new AtomicInteger();
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/write", exchange -> {
+            byte[] body = readAll(exchange.getRequestBody());
+            Request request = new Request(
+                    exchange.getRequestHeaders().getFirst("Content-Encoding"),
+                    exchange.getRequestHeaders().getFirst("Content-Type"),
+                    body);
+            int code = (failures.getAndDecrement() > 0) ? 503 : 204;
+            if (code == 204) {
+                requests.add(request);
+            }
+            exchange.sendResponseHeaders(code, -1);
+            exchange.close();
+        });
+        server.start();
+
+        counter = Counter.build().name("push_exporter_test_count").help("Test").labelNames("label").register();
+        counter.labels("value").inc(3);
+    }
+
+    @After
+    public void tearDown() {
+        if (pushExporter != null) {
+            pushExporter.destroy();
+        }
+        CollectorRegistry.defaultRegistry.unregister(counter);
+        server.stop(0);
+    }
+
+    @Test
+    public void testPush_RemoteWrite_Success() throws Exception {
+        pushExporter = new PushExporterImpl(settings(PushSettingsManager.MODE_REMOTE_WRITE));
+        pushExporter.afterPropertiesSet();
+
+        Request request = requests.poll(10, TimeUnit.SECONDS);
+        assertNotNull(request);
+        assertEquals("snappy", request.encoding);
+        assertEquals("application/x-protobuf", request.contentType);
+        String body = new String(Snappy.uncompress(request.body), ISO_8859_1);
+        assertTrue(body.contains("push_exporter_test_count"));
+        assertTrue(body.contains("value"));
+        assertTrue(body.contains("jira"));
+    }
+
+    @Test
+    public void testPush_RetryAfterFailure_Success() throws Exception {
+        failures.set(1);
+        pushExporter = new PushExporterImpl(settings(PushSettingsManager.MODE_REMOTE_WRITE));
+        pushExporter.afterPropertiesSet();
+
+        // the first attempt fails, the retry after one second is received
+        Request request = requests.poll(10, TimeUnit.SECONDS);
+        assertNotNull(request);
+        assertTrue(new String(Snappy.uncompress(request.body), ISO_8859_1).contains("push_exporter_test_count"));
+    }
+
+    private PushSettingsManager settings(String mode) {
+        String url = "http://127.0.0.1:" + server.getAddress().getPort() + "/write";
+        return new PushSettingsManager() {
+            @Override
+            public String getMode() {
+                return mode;
+            }
+
+            @Override
+            public void setMode(String mode) {
+            }
+
+            @Override
+            public String getUrl() {
+                return url;
+            }
+
+            @Override
+            public void setUrl(String url) {
+            }
+
+            @Override
+            public int getInterval() {
+                return 1;
+            }
+
+            @Override
+            public void setInterval(int interval) {
+            }
+        };
+    }
+
+    private static byte[] readAll(InputStream inputStream) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = inputStream.read(buffer)) >= 0) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+    private static class Request {
+        private final String encoding;
+        private final String contentType;
+        private final byte[] body;
+
+        private Request(String encoding, String contentType, byte[] body) {
+            this.encoding = encoding;
+            this.contentType = contentType;
+            this.body = body;
+        }
+    }
+}
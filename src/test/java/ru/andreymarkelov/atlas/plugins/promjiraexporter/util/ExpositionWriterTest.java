@@ -0,0 +1,114 @@
+package ru.andreymarkelov.atlas.plugins.promjiraexporter.util;
+
+import io.prometheus.client.Collector;
+import io.prometheus.client.Collector.MetricFamilySamples;
+import io.prometheus.client.Collector.MetricFamilySamples.Sample;
+import io.prometheus.client.CollectorRegistry;
+import io.prometheus.client.Counter;
+import io.prometheus.client.Histogram;
+import io.prometheus.client.exporter.common.TextFormat;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
+import static java.util.Collections.singletonList;
+import static org.junit.Assert.assertEquals;
+
+public class ExpositionWriterTest {
+    @Test
+    public void testWrite_SameAsTextFormat_Success() throws IOException {
+        CollectorRegistry registry = new CollectorRegistry();
+        registry.register(new FixedCollector(asList(
+                family("jira_values", Collector.Type.GAUGE, "Values",
+                        0, -0.0, 1, -1, 42, 0.5, -2.25, 1e-9, 1234567, 9999999, -9999999, 3.14159,
+                        Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY,
+                        Double.MIN_VALUE, 1e15, 1.5e300, Long.MAX_VALUE),
+                new MetricFamilySamples("jira_labels", Collector.Type.UNTYPED, "Help with \\ backslash and\nnew line", asList(
+                        new Sample("jira_labels", asList("quote", "backslash"), asList("say \"hi\"", "C:\\temp"), 1),
+                        new Sample("jira_labels", asList("newline", "unicode"), asList("first\nsecond", "Привет 日本 \uD83D\uDE00"), 2),
+                        new Sample("jira_labels", singletonList("empty"), singletonList(""), 3),
+                        new Sample("jira_labels", emptyList(), emptyList(), 4, 1500000000000L))))));
+        Counter counter = Counter.build().name("jira_requests_count").help("Requests").labelNames("path").register(registry);
+        counter.labels("/browse").inc(3);
+        Histogram histogram = Histogram.build().name("jira_duration_seconds").help("Duration").buckets(0.1, 1).register(registry);
+        histogram.observe(0.05);
+        histogram.observe(2.5);
+
+        assertEquals(writeTextFormat(registry), writeExposition(registry));
+    }
+
+    @Test
+    public void testWrite_LargeIntegral_PlainNotation() throws IOException {
+        double[] values = {1e7, 12345678, -1e7, 1e14, 999999999999999.0};
+        CollectorRegistry registry = new CollectorRegistry();
+        registry.register(new FixedCollector(singletonList(family("jira_large", Collector.Type.GAUGE, "Large", values))));
+
+        String[] expected = writeTextFormat(registry).split("\n");
+        String[] actual = writeExposition(registry).split("\n");
+        assertEquals(expected.length, actual.length);
+        for (int i = 0; i < expected.length; i++) {
+            if (expected[i].startsWith("#")) {
+                assertEquals(expected[i], actual[i]);
+                continue;
+            }
+            // TextFormat writes these in scientific notation, the value is the same
+            String value = actual[i].substring(actual[i].indexOf(' ') + 1);
+            assertEquals(expected[i].substring(0, expected[i].indexOf(' ')), actual[i].substring(0, actual[i].indexOf(' ')));
+            assertEquals(Double.parseDouble(expected[i].substring(expected[i].indexOf(' ') + 1)), Double.parseDouble(value), 0);
+            assertEquals(String.format("%d.0", (long) values[i - 2]), value);
+        }
+    }
+
+    @Test
+    public void testWrite_NegativeZero_Success() throws IOException {
+        CollectorRegistry registry = new CollectorRegistry();
+        registry.register(new FixedCollector(singletonList(family("jira_zero", Collector.Type.GAUGE, "Zero", -0.0))));
+        assertEquals("jira_zero -0.0", writeExposition(registry).split("\n")[2]);
+    }
+
+    private static MetricFamilySamples family(String name, Collector.Type type, String help, double... values) {
+        List<Sample> samples = new ArrayList<>();
+        for (int i = 0; i < values.length; i++) {
+            samples.add(new Sample(name, singletonList("index"), singletonList(String.valueOf(i)), values[i]));
+        }
+        if (values.length == 1) {
+            samples.set(0, new Sample(name, emptyList(), emptyList(), values[0]));
+        }
+        return new MetricFamilySamples(name, type, help, samples);
+    }
+
+    private static String writeTextFormat(CollectorRegistry registry) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (Writer writer = new OutputStreamWriter(out, UTF_8)) {
+            TextFormat.write004(writer, registry.metricFamilySamples());
+        }
+        return new String(out.toByteArray(), UTF_8);
+    }
+
+    private static String writeExposition(CollectorRegistry registry) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new ExpositionWriter().write(out, registry.metricFamilySamples());
+        return new String(out.toByteArray(), UTF_8);
+    }
+
+    private static class FixedCollector extends Collector {
+        private final List<MetricFamilySamples> families;
+
+        private FixedCollector(List<MetricFamilySamples> families) {
+            this.families = families;
+        }
+
+        @Override
+        public List<MetricFamilySamples> collect() {
+            return families;
+        }
+    }
+}
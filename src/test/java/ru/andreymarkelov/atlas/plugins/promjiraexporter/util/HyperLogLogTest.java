@@ -0,0 +1,64 @@
+package ru.andreymarkelov.atlas.plugins.promjiraexporter.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class HyperLogLogTest {
+    private static final int PRECISION = 9;
+    // three standard errors of 1.04 / sqrt(512)
+    private static final double ERROR_BOUND = 3 * 1.04 / Math.sqrt(1 << PRECISION);
+
+    @Test
+    public void testEstimate_Empty_Success() {
+        assertEquals(0, HyperLogLog.estimate(new HyperLogLog(PRECISION).getRegisters()), 0);
+    }
+
+    @Test
+    public void testEstimate_Duplicates_Success() {
+        HyperLogLog sketch = new HyperLogLog(PRECISION);
+        for (int i = 0; i < 1000; i++) {
+            sketch.offer(HyperLogLog.hash("user" + (i % 10)));
+        }
+        assertEquals(10, Math.round(HyperLogLog.estimate(sketch.getRegisters())));
+    }
+
+    @Test
+    public void testEstimate_ErrorBound_Success() {
+        for (int cardinality : new int[] {100, 1000, 10000, 100000, 1000000}) {
+            HyperLogLog sketch = new HyperLogLog(PRECISION);
+            for (int i = 0; i < cardinality; i++) {
+                sketch.offer(HyperLogLog.hash("user" + i));
+            }
+            assertWithinBound(cardinality, HyperLogLog.estimate(sketch.getRegisters()));
+        }
+    }
+
+    @Test
+    public void testMergeInto_DisjointSketches_Success() {
+        HyperLogLog first = new HyperLogLog(PRECISION);
+        HyperLogLog second = new HyperLogLog(PRECISION);
+        for (int i = 0; i < 20000; i++) {
+            (i % 2 == 0 ? first : second).offer(HyperLogLog.hash("user" + i));
+        }
+
+        byte[] union = new byte[1 << PRECISION];
+        first.mergeInto(union);
+        second.mergeInto(union);
+        assertWithinBound(20000, HyperLogLog.estimate(union));
+    }
+
+    @Test
+    public void testClear_Success() {
+        HyperLogLog sketch = new HyperLogLog(PRECISION);
+        sketch.offer(HyperLogLog.hash("user"));
+        sketch.clear();
+        assertEquals(0, HyperLogLog.estimate(sketch.getRegisters()), 0);
+    }
+
+    private static void assertWithinBound(int cardinality, double estimate) {
+        double error = Math.abs(estimate - cardinality) / cardinality;
+        assertTrue("estimate " + estimate + " for " + cardinality, error <= ERROR_BOUND);
+    }
+}
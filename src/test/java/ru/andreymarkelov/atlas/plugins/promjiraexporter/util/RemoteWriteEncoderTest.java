@@ -0,0 +1,95 @@
+package ru.andreymarkelov.atlas.plugins.promjiraexporter.util;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class RemoteWriteEncoderTest {
+    private static final byte[] UP_SERIES = concat(
+            // timeseries, 43 bytes
+            bytes(0x0a, 0x2b),
+            // label __name__="up"
+            bytes(0x0a, 0x0e, 0x0a, 0x08), ascii("__name__"), bytes(0x12, 0x02), ascii("up"),
+            // label job="jira"
+            bytes(0x0a, 0x0b, 0x0a, 0x03), ascii("job"), bytes(0x12, 0x04), ascii("jira"),
+            // sample value 1.0, timestamp 1000
+            bytes(0x12, 0x0c, 0x09, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0xf0, 0x3f, 0x10, 0xe8, 0x07));
+
+    @Test
+    public void testAddSeries_OneSeries_Success() {
+        RemoteWriteEncoder encoder = new RemoteWriteEncoder();
+        encoder.addSeries(asList("__name__", "job"), asList("up", "jira"), 1.0, 1000);
+        assertEquals(1, encoder.getSeriesCount());
+        assertArrayEquals(UP_SERIES, encoder.toByteArray());
+    }
+
+    @Test
+    public void testAddSeries_UnsortedLabels_Success() {
+        RemoteWriteEncoder encoder = new RemoteWriteEncoder();
+        encoder.addSeries(asList("job", "__name__"), asList("jira", "up"), 1.0, 1000);
+        assertArrayEquals(UP_SERIES, encoder.toByteArray());
+    }
+
+    @Test
+    public void testAddSeries_TwoSeries_Success() {
+        RemoteWriteEncoder encoder = new RemoteWriteEncoder();
+        encoder.addSeries(asList("__name__", "job"), asList("up", "jira"), 1.0, 1000);
+        encoder.addSeries(asList("__name__", "job"), asList("up", "jira"), 1.0, 1000);
+        assertEquals(2, encoder.getSeriesCount());
+        assertArrayEquals(concat(UP_SERIES, UP_SERIES), encoder.toByteArray());
+    }
+
+    @Test
+    public void testReset_Success() {
+        RemoteWriteEncoder encoder = new RemoteWriteEncoder();
+        encoder.addSeries(asList("__name__", "job"), asList("down", "jira"), 0.0, 5);
+        encoder.reset();
+        encoder.addSeries(asList("__name__", "job"), asList("up", "jira"), 1.0, 1000);
+        assertEquals(1, encoder.getSeriesCount());
+        assertArrayEquals(UP_SERIES, encoder.toByteArray());
+    }
+
+    @Test
+    public void testAddSeries_MultiByteLengths_Success() {
+        RemoteWriteEncoder encoder = new RemoteWriteEncoder();
+        StringBuilder value = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            value.append('x');
+        }
+        encoder.addSeries(asList("__name__"), asList(value.toString()), -0.5, 1600000000000L);
+        byte[] expected = concat(
+                // timeseries, 216 bytes of label and 18 bytes of sample
+                bytes(0x0a, 0xea, 0x01),
+                // label __name__ of 213 bytes with a value of 200 bytes
+                bytes(0x0a, 0xd5, 0x01, 0x0a, 0x08), ascii("__name__"), bytes(0x12, 0xc8, 0x01), ascii(value.toString()),
+                // sample value -0.5, timestamp 1600000000000
+                bytes(0x12, 0x10, 0x09, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0xe0, 0xbf,
+                        0x10, 0x80, 0x80, 0xba, 0xbb, 0xc8, 0x2e));
+        assertArrayEquals(expected, encoder.toByteArray());
+    }
+
+    private static byte[] ascii(String value) {
+        return value.getBytes(UTF_8);
+    }
+
+    private static byte[] bytes(int... values) {
+        byte[] result = new byte[values.length];
+        for (int i = 0; i < values.length; i++) {
+            result[i] = (byte) values[i];
+        }
+        return result;
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] part : parts) {
+            out.write(part, 0, part.length);
+        }
+        return out.toByteArray();
+    }
+}
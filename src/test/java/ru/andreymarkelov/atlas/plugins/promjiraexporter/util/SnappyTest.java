@@ -0,0 +1,92 @@
+package ru.andreymarkelov.atlas.plugins.promjiraexporter.util;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Random;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SnappyTest {
+    @Test
+    public void testCompress_Empty_Success() {
+        assertArrayEquals(bytes(0x00), Snappy.compress(new byte[0], 0));
+    }
+
+    @Test
+    public void testCompress_Literal_Success() {
+        byte[] input = "abc".getBytes(UTF_8);
+        assertArrayEquals(bytes(0x03, 0x08, 'a', 'b', 'c'), Snappy.compress(input, input.length));
+    }
+
+    @Test
+    public void testCompress_Copy_Success() {
+        byte[] input = "abcdabcdabcd".getBytes(UTF_8);
+        // length 12, literal "abcd", copy of 8 bytes at offset 4
+        assertArrayEquals(bytes(0x0c, 0x0c, 'a', 'b', 'c', 'd', 0x1e, 0x04, 0x00), Snappy.compress(input, input.length));
+    }
+
+    @Test
+    public void testCompress_PartOfArray_Success() throws IOException {
+        byte[] input = "abcdabcdabcd-ignored".getBytes(UTF_8);
+        assertRoundTrip(input, 12);
+    }
+
+    @Test
+    public void testCompress_ExpositionText_Success() throws IOException {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; text.length() < 300000; i++) {
+            text.append("jira_request_duration_seconds_bucket{path=\"/rest/api/2/issue/").append(i % 977)
+                    .append("\",le=\"0.5\",} ").append(i * 7).append(".0\n");
+        }
+        byte[] input = text.toString().getBytes(UTF_8);
+        byte[] compressed = assertRoundTrip(input, input.length);
+        assertTrue(compressed.length < input.length / 4);
+    }
+
+    @Test
+    public void testCompress_LongMatches_Success() throws IOException {
+        // runs longer than 64 bytes are split into several copies
+        for (int length : new int[] {64, 65, 67, 68, 69, 127, 128, 1000, 70000, 140000}) {
+            assertRoundTrip(new byte[length], length);
+        }
+    }
+
+    @Test
+    public void testCompress_RandomData_Success() throws IOException {
+        Random random = new Random(42);
+        for (int length : new int[] {1, 3, 4, 5, 59, 60, 61, 255, 256, 257, 65535, 65536, 65537, 200000}) {
+            byte[] input = new byte[length];
+            random.nextBytes(input);
+            assertRoundTrip(input, length);
+        }
+    }
+
+    @Test
+    public void testCompress_MixedData_Success() throws IOException {
+        Random random = new Random(7);
+        byte[] input = new byte[300000];
+        for (int i = 0; i < input.length; i++) {
+            input[i] = (byte) ((i % 1000 < 500) ? random.nextInt(4) : random.nextInt(256));
+        }
+        assertRoundTrip(input, input.length);
+    }
+
+    private static byte[] assertRoundTrip(byte[] input, int length) throws IOException {
+        byte[] compressed = Snappy.compress(input, length);
+        byte[] expected = new byte[length];
+        System.arraycopy(input, 0, expected, 0, length);
+        assertArrayEquals(expected, org.xerial.snappy.Snappy.uncompress(compressed));
+        return compressed;
+    }
+
+    private static byte[] bytes(int... values) {
+        byte[] result = new byte[values.length];
+        for (int i = 0; i < values.length; i++) {
+            result[i] = (byte) values[i];
+        }
+        return result;
+    }
+}